@@ -0,0 +1,76 @@
+package com.liyang.benchmarks;
+
+import com.liyang.paxosNode.PaxosNode;
+import com.liyang.server.ClientReply;
+import com.liyang.server.PaxosNodeImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+
+/**
+ * Runs whole PUTs through a three-node cluster living in this JVM: the nodes call each other directly instead of over RMI,
+ * so the time is spent in the proposer, acceptor, learner and applier, the write-ahead log included.
+ * The cluster runs the Paxos mode and settings of the environment, as a node would,
+ * so FAILURE_RATE and MAX_RETRY_COUNT must be set as for a node, FAILURE_RATE=0 to measure the happy path.
+ * Each trial uses fresh node IDs and removes their data under DATA_DIR when it ends.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConsensusRoundBenchmark {
+    private final List<PaxosNodeImpl> nodes = new ArrayList<>();
+    private final List<String> nodeIds = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        String run = Long.toString(System.nanoTime(), 36);
+        for (int i = 1; i <= 3; i++) {
+            String nodeId = "bench-" + run + "-" + i;
+            nodeIds.add(nodeId);
+            nodes.add(new PaxosNodeImpl(nodeId, null));
+        }
+        for (PaxosNodeImpl node : nodes) {
+            List<PaxosNode> otherNodes = new ArrayList<>(nodes);
+            otherNodes.remove(node);
+            node.setOtherNodes(otherNodes);
+        }
+        nodes.get(0).handlePutRequest(UUID.randomUUID(), "warmup", "warmup");  // elects a leader in Multi-Paxos mode
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        for (PaxosNodeImpl node : nodes) PaxosNodeImpl.unexportObject(node, true);
+        Path dataDirectory = Path.of(System.getenv().getOrDefault("DATA_DIR", "data"));
+        for (String nodeId : nodeIds) deleteRecursively(dataDirectory.resolve(nodeId));
+    }
+
+    @Benchmark
+    public ClientReply put() throws Exception {
+        return nodes.get(0).handlePutRequest(UUID.randomUUID(), "user1", "value");
+    }
+
+    @Benchmark
+    @Threads(8)
+    public ClientReply concurrentPut() throws Exception {
+        return nodes.get(0).handlePutRequest(UUID.randomUUID(), "user" + Thread.currentThread().threadId() % 64, "value");
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        if (!Files.exists(directory)) return;
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) Files.delete(path);
+        }
+    }
+}
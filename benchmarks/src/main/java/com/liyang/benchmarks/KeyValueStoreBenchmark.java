@@ -0,0 +1,71 @@
+package com.liyang.benchmarks;
+
+import com.liyang.server.KeyValueStore;
+import com.liyang.server.StorageEngineType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Reads and writes the key-value store from several threads at once.
+ * The readWrite group runs readers next to one writer, as a node serving GETs while its applier applies does.
+ * Each benchmark runs against every storage engine; range scans are in {@link KeyValueStoreScanBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyValueStoreBenchmark {
+    @Param({"1000", "100000"})
+    public int keys;
+
+    @Param({"HEAP", "OFF_HEAP", "ORDERED"})
+    public StorageEngineType engine;
+
+    private KeyValueStore store;
+    private String[] keyNames;
+
+    @Setup
+    public void setUp() {
+        store = new KeyValueStore(engine.create());
+        keyNames = new String[keys];
+        for (int i = 0; i < keys; i++) {
+            keyNames[i] = "user" + i;
+            store.put(keyNames[i], "value" + i);
+        }
+    }
+
+    private String randomKey() {
+        return keyNames[ThreadLocalRandom.current().nextInt(keys)];
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String get() {
+        return store.get(randomKey());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void put() {
+        store.put(randomKey(), "updated");
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(3)
+    public String readWriteGet() {
+        return store.get(randomKey());
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public void readWritePut() {
+        store.put(randomKey(), "updated");
+    }
+}
@@ -0,0 +1,49 @@
+package com.liyang.benchmarks;
+
+import com.liyang.server.KeyValueStore;
+import com.liyang.server.ScanPage;
+import com.liyang.server.StorageEngineType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Reads pages of a range scan from a random start key, as a client paging through the store does.
+ * Only the ORDERED engine serves scans, so it is the only engine measured here.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyValueStoreScanBenchmark {
+    @Param({"1000", "100000"})
+    public int keys;
+
+    @Param({"ORDERED"})
+    public StorageEngineType engine;
+
+    @Param({"100"})
+    public int pageSize;
+
+    private KeyValueStore store;
+    private String[] keyNames;
+
+    @Setup
+    public void setUp() {
+        store = new KeyValueStore(engine.create());
+        keyNames = new String[keys];
+        for (int i = 0; i < keys; i++) {
+            keyNames[i] = "user" + i;
+            store.put(keyNames[i], "value" + i);
+        }
+    }
+
+    @Benchmark
+    public ScanPage scanPage() {
+        return store.scan(keyNames[ThreadLocalRandom.current().nextInt(keys)], null, pageSize);
+    }
+}
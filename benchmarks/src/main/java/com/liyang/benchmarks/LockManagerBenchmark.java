@@ -0,0 +1,42 @@
+package com.liyang.benchmarks;
+
+import com.liyang.server.LockManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Takes and releases per-key locks from several threads, over few keys so threads contend,
+ * and over many so they rarely do but the number of distinct keys grows large.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class LockManagerBenchmark {
+    @Param({"4", "10000", "1000000"})
+    public int keys;
+
+    private LockManager lockManager;
+    private String[] keyNames;
+
+    @Setup
+    public void setUp() {
+        lockManager = new LockManager();
+        keyNames = new String[keys];
+        for (int i = 0; i < keys; i++) keyNames[i] = "user" + i;
+    }
+
+    @Benchmark
+    public boolean acquireAndRelease() {
+        String key = keyNames[ThreadLocalRandom.current().nextInt(keys)];
+        boolean acquired = lockManager.acquireLock(key, 1000);
+        if (acquired) lockManager.releaseLock(key);
+        return acquired;
+    }
+}
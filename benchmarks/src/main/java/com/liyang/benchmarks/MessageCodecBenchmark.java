@@ -0,0 +1,67 @@
+package com.liyang.benchmarks;
+
+import com.liyang.server.*;
+import com.liyang.transport.BinaryMessageCodec;
+import com.liyang.transport.JavaMessageCodec;
+import com.liyang.transport.MessageCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Encodes and decodes Paxos messages with each codec: an ACCEPT carrying one operation,
+ * and a COMMIT reply reporting accepted instances as sent during leader recovery.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageCodecBenchmark {
+    @Param({"BINARY", "JAVA"})
+    public String codecType;
+
+    @Param({"ACCEPT", "COMMIT"})
+    public String messageType;
+
+    private MessageCodec codec;
+    private PaxosMessage message;
+    private ByteBuffer buffer;
+    private ByteBuffer encoded;
+
+    @Setup
+    public void setUp() throws IOException {
+        codec = codecType.equals("BINARY") ? new BinaryMessageCodec(List.of("1", "2", "3")) : new JavaMessageCodec();
+        ProposalNumber ballot = new ProposalNumber(7, "1");
+        Operation operation = new Operation(UUID.randomUUID(), OperationType.PUT, "user1234", "x".repeat(100));
+        message = messageType.equals("ACCEPT")
+                ? new PaxosMessage(1024, PaxosMessageType.ACCEPT, ballot, "1", "2", operation)
+                : new PaxosMessage(1024, PaxosMessageType.COMMIT, ballot, "2", "1", null, List.of(
+                        new AcceptedInstance(1024, ballot, operation),
+                        new AcceptedInstance(1025, ballot, operation),
+                        new AcceptedInstance(1026, ballot, operation)));
+
+        buffer = ByteBuffer.allocate(64 * 1024);
+        codec.encode(message, buffer);
+        buffer.flip();
+        encoded = ByteBuffer.allocate(buffer.remaining()).put(buffer).flip();
+    }
+
+    @Benchmark
+    public ByteBuffer encode() throws IOException {
+        buffer.clear();
+        codec.encode(message, buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public PaxosMessage decode() throws IOException {
+        return codec.decode(encoded.duplicate());
+    }
+}
@@ -0,0 +1,57 @@
+package com.liyang.benchmarks;
+
+import com.liyang.server.ProposalContext;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Counts promises and acceptances towards a majority the way a proposer and a learner do for every reply.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProposalContextBenchmark {
+    @Param({"3", "5", "9"})
+    public int clusterSize;
+
+    private ProposalContext context;
+    private String[] nodeIds;
+
+    @Setup
+    public void setUp() {
+        context = new ProposalContext(1);
+        nodeIds = new String[clusterSize];
+        for (int i = 0; i < clusterSize; i++) nodeIds[i] = String.valueOf(i + 1);
+    }
+
+    /**
+     * Records replies until a majority promised, as one phase 1 round does.
+     */
+    @Benchmark
+    public boolean committedRound() {
+        context.clearCommittedNodes();
+        for (String nodeId : nodeIds) {
+            context.addCommittedNode(nodeId);
+            if (context.achieveMajorityCommitted(clusterSize)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records replies until a majority accepted, as the learner does for one slot.
+     */
+    @Benchmark
+    public boolean acceptedRound() {
+        context.clearAcceptedNodes();
+        for (String nodeId : nodeIds) {
+            context.addAcceptedNode(nodeId);
+            if (context.achieveMajorityAccepted(clusterSize)) return true;
+        }
+        return false;
+    }
+}
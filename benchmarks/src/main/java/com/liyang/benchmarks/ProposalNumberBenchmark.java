@@ -0,0 +1,44 @@
+package com.liyang.benchmarks;
+
+import com.liyang.server.ProposalNumber;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Compares and hashes proposal numbers, which every promise, accept and reject check does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProposalNumberBenchmark {
+    private ProposalNumber lower;
+    private ProposalNumber higher;
+    private ProposalNumber sameSequence;
+
+    @Setup
+    public void setUp() {
+        lower = new ProposalNumber(41, "1");
+        higher = new ProposalNumber(42, "2");
+        sameSequence = new ProposalNumber(41, "3");  // falls through to the node ID
+    }
+
+    @Benchmark
+    public int compareToBySequence() {
+        return lower.compareTo(higher);
+    }
+
+    @Benchmark
+    public int compareToByNodeId() {
+        return lower.compareTo(sameSequence);
+    }
+
+    @Benchmark
+    public int hashCodeOf() {
+        return higher.hashCode();
+    }
+}
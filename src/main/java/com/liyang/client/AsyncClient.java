@@ -0,0 +1,132 @@
+package com.liyang.client;
+
+import com.liyang.paxosNode.PaxosNode;
+import com.liyang.server.ClientReply;
+import com.liyang.transport.ClientTransport;
+import com.liyang.transport.RmiClientTransport;
+import com.liyang.transport.TransportType;
+import com.liyang.transport.VertxClientTransport;
+
+import java.rmi.RemoteException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+
+/**
+ * Issues requests to a node without waiting for each reply, so one client keeps many requests in flight.
+ * Requests go through a {@link ClientTransport}: with TRANSPORT=VERTX they share one connection to the node,
+ * correlated with their replies by ID, while over RMI every request in flight takes a connection of its own.
+ * At most maxOutstanding requests are sent at a time; the calls never block, a request over the limit
+ * is queued and sent when an earlier one completes. Writes are tracked by their proposal id until they complete,
+ * which also lets the cluster recognise a retried write.
+ */
+public class AsyncClient implements AutoCloseable {
+    private final ClientTransport transport;
+    private final Semaphore window;
+    private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();  // requests over the limit, in arrival order
+    private final Map<UUID, CompletableFuture<ClientReply>> outstanding = new ConcurrentHashMap<>();
+
+    public AsyncClient(ClientTransport transport, int maxOutstanding) {
+        this.transport = transport;
+        this.window = new Semaphore(maxOutstanding);
+    }
+
+    /**
+     * A client of the node at the given RMI address, over the transport TRANSPORT selects.
+     */
+    public static AsyncClient connect(PaxosNode node, String nodeRmiAddress, int maxOutstanding) {
+        ClientTransport transport = TransportType.fromEnv() == TransportType.VERTX
+                ? new VertxClientTransport(VertxClientTransport.endpointAddress(nodeRmiAddress))
+                : new RmiClientTransport(node);
+        return new AsyncClient(transport, maxOutstanding);
+    }
+
+    public CompletableFuture<ClientReply> put(UUID requestId, String key, String value) {
+        return submit(requestId, () -> transport.put(requestId, key, value));
+    }
+
+    public CompletableFuture<ClientReply> get(String key) {
+        return submit(UUID.randomUUID(), () -> transport.get(key));
+    }
+
+    /**
+     * A read served by the node's own store once it has applied up to the given applied-index token.
+     */
+    public CompletableFuture<ClientReply> get(String key, long appliedIndex, long maxStaleness) {
+        return submit(UUID.randomUUID(), () -> transport.get(key, appliedIndex, maxStaleness));
+    }
+
+    public CompletableFuture<ClientReply> delete(UUID requestId, String key) {
+        return submit(requestId, () -> transport.delete(requestId, key));
+    }
+
+    /**
+     * The ids of the requests still waiting for their reply, queued ones included.
+     */
+    public Set<UUID> getOutstanding() {
+        return Set.copyOf(outstanding.keySet());
+    }
+
+    /**
+     * Waits for every outstanding request to complete.
+     */
+    public void awaitOutstanding() {
+        CompletableFuture.allOf(outstanding.values().toArray(CompletableFuture[]::new))
+                .handle((ignored, error) -> null)
+                .join();
+    }
+
+    /**
+     * Fails the requests still outstanding and closes the transport.
+     */
+    @Override
+    public void close() {
+        outstanding.values().forEach(future -> future.completeExceptionally(new RemoteException("Client closed")));
+        waiting.clear();
+        transport.close();
+    }
+
+    private CompletableFuture<ClientReply> submit(UUID requestId, Supplier<CompletableFuture<ClientReply>> send) {
+        CompletableFuture<ClientReply> future = new CompletableFuture<>();
+        if (outstanding.putIfAbsent(requestId, future) != null) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Request " + requestId + " is already outstanding"));
+        }
+        future.whenComplete((reply, error) -> outstanding.remove(requestId, future));
+
+        waiting.add(() -> {
+            future.whenComplete((reply, error) -> {  // registered only once the permit is held
+                window.release();
+                sendWaiting();
+            });
+            if (future.isDone()) return;  // failed by close while queued
+            send.get().whenComplete((reply, error) -> {
+                if (error == null) future.complete(reply);
+                else future.completeExceptionally(error);
+            });
+        });
+        sendWaiting();
+        return future;
+    }
+
+    /**
+     * Sends queued requests while the window has room. Called after every enqueue and every release,
+     * so a request is never left queued while a permit is free.
+     */
+    private void sendWaiting() {
+        while (!waiting.isEmpty() && window.tryAcquire()) {
+            Runnable next = waiting.poll();
+            if (next == null) {
+                window.release();  // another thread took it first
+                continue;
+            }
+            next.run();
+        }
+    }
+}
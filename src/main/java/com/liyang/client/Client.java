@@ -1,6 +1,9 @@
 package com.liyang.client;
 
 import com.liyang.paxosNode.PaxosNode;
+import com.liyang.server.ClientReply;
+import com.liyang.server.ScanPage;
+import com.liyang.transport.RmiClientTransport;
 
 import java.rmi.RemoteException;
 import java.util.Random;
@@ -13,43 +16,80 @@ import java.util.UUID;
  */
 public class Client {
     private final PaxosNode node;
+    private final String nodeRmiAddress;  // locates the node's client endpoint, null to send everything over RMI
 
     /**
      * Initialize the client with the RMI remote object.
      */
     public Client(PaxosNode node) {
+        this(node, null);
+    }
+
+    /**
+     * Initialize the client with the RMI remote object and the address it was looked up at,
+     * so pipelined requests can use the transport TRANSPORT selects.
+     */
+    public Client(PaxosNode node, String nodeRmiAddress) {
         this.node = node;
+        this.nodeRmiAddress = nodeRmiAddress;
     }
 
     /**
      * Perform automated PUT, GET, and DELETE operations.
+     * The requests of each phase are pipelined through an {@link AsyncClient},
+     * and each phase waits for the previous one to complete since they touch the same keys.
      */
     public void performAutomatedRequests() throws RemoteException {
         Random random = new Random();
+        String nodeId = node.getNodeId();
+        String maxOutstanding = System.getenv("CLIENT_MAX_OUTSTANDING");
+
+        int window = maxOutstanding == null ? 64 : Integer.parseInt(maxOutstanding);
+        try (AsyncClient asyncClient = nodeRmiAddress == null
+                ? new AsyncClient(new RmiClientTransport(node), window)
+                : AsyncClient.connect(node, nodeRmiAddress, window)) {
+            // Pre-population some data into the KeyValue store
+            for (int i = 0; i < Integer.parseInt(System.getenv("PRE_POPULATE_OPERATIONS")); i++) {
+                UUID proposalId = UUID.randomUUID();
+                String value = generateRandomString(random, Integer.parseInt(System.getenv("RANDOM_VALUE_LENGTH")));
+                String key = "key_" + i;
+                asyncClient.put(proposalId, key, "value_" + value)
+                        .whenComplete((reply, error) -> logReply(nodeId, reply, error, "PUT", key));
+            }
+            asyncClient.awaitOutstanding();
+
+            // Perform 5 PUT operations
+            for (int i = 0; i < Integer.parseInt(System.getenv("PUT_OPERATIONS")); i++) {
+                UUID proposalId = UUID.randomUUID();
+                String value = generateRandomString(random, Integer.parseInt(System.getenv("RANDOM_VALUE_LENGTH")));
+                String key = "key_" + i;
+                asyncClient.put(proposalId, key, "value_" + value)
+                        .whenComplete((reply, error) -> logReply(nodeId, reply, error, "PUT", key));
+            }
+            asyncClient.awaitOutstanding();
 
-        // Pre-population some data into the KeyValue store
-        for (int i = 0; i < Integer.parseInt(System.getenv("PRE_POPULATE_OPERATIONS")); i++) {
-            UUID proposalId = UUID.randomUUID();
-            String value = generateRandomString(random, Integer.parseInt(System.getenv("RANDOM_VALUE_LENGTH")));
-            performPutRequest(proposalId, "key_" + i, "value_" + value);
-        }
-
-        // Perform 5 PUT operations
-        for (int i = 0; i < Integer.parseInt(System.getenv("PUT_OPERATIONS")); i++) {
-            UUID proposalId = UUID.randomUUID();
-            String value = generateRandomString(random, Integer.parseInt(System.getenv("RANDOM_VALUE_LENGTH")));
-            performPutRequest(proposalId, "key_" + i, "value_" + value);
-        }
+            // Perform 5 GET operations
+            for (int i = 0; i < Integer.parseInt(System.getenv("GET_OPERATIONS")); i++) {
+                String key = "key_" + i;
+                asyncClient.get(key).whenComplete((reply, error) -> logReply(nodeId, reply, error, "GET", key));
+            }
+            asyncClient.awaitOutstanding();
 
-        // Perform 5 GET operations
-        for (int i = 0; i < Integer.parseInt(System.getenv("GET_OPERATIONS")); i++) {
-            performGetRequest("key_" + i);
+            // Perform 5 DELETE operations
+            for (int i = 0; i < Integer.parseInt(System.getenv("DELETE_OPERATIONS")); i++) {
+                UUID proposalId = UUID.randomUUID();
+                String key = "key_" + i;
+                asyncClient.delete(proposalId, key).whenComplete((reply, error) -> logReply(nodeId, reply, error, "DELETE", key));
+            }
+            asyncClient.awaitOutstanding();
         }
+    }
 
-        // Perform 5 DELETE operations
-        for (int i = 0; i < Integer.parseInt(System.getenv("DELETE_OPERATIONS")); i++) {
-            UUID proposalId = UUID.randomUUID();
-            performDeleteRequest(proposalId, "key_" + i);
+    private static void logReply(String nodeId, ClientReply reply, Throwable error, String operation, String key) {
+        if (error == null) {
+            ClientLogger.log(nodeId, reply.getMessage());
+        } else {
+            ClientLogger.log(nodeId, String.format("Error during %s operation for %s: %s", operation, key, error.getMessage()));
         }
     }
 
@@ -60,7 +100,7 @@ public class Client {
         Scanner scanner = new Scanner(System.in);
         String input = "";
         while (!"exit".equalsIgnoreCase(input)) {
-            System.out.println("Enter request (PUT <key> <value>, GET <key>, DELETE <key>, 'print' to print all key value pairs, 'exit' to quit):");
+            System.out.println("Enter request (PUT <key> <value>, GET <key>, DELETE <key>, SCAN <start key> <end key>, 'print' to print all key value pairs, 'exit' to quit):");
             input = scanner.nextLine();
             String inputUpperCase = input.toUpperCase();
 
@@ -89,8 +129,15 @@ public class Client {
                 } else {
                     ClientLogger.log(node.getNodeId(), "Invalid DELETE syntax");
                 }
+            } else if (inputUpperCase.startsWith("SCAN")) {
+                String[] parts = input.split(" ", 3);
+                if (parts.length == 3) {
+                    performScanRequest(parts[1], parts[2]);
+                } else {
+                    ClientLogger.log(node.getNodeId(), "Invalid SCAN syntax");
+                }
             } else if (inputUpperCase.equals("PRINT")) {
-                ClientLogger.log(node.getNodeId(), "Current keyValueStore:\n" + node.getAll().toString());
+                performScanRequest(null, null);
             } else if (!"exit".equalsIgnoreCase(input)) {
                 ClientLogger.log(node.getNodeId(), "Unknown command");
             }
@@ -115,8 +162,8 @@ public class Client {
      */
     void performPutRequest(UUID proposalId, String key, String value) throws RemoteException {
         try {
-            String reply = node.handlePutRequest(proposalId, key, value);
-            ClientLogger.log(node.getNodeId(), reply);
+            ClientReply reply = node.handlePutRequest(proposalId, key, value);
+            ClientLogger.log(node.getNodeId(), reply.getMessage());
         } catch (Exception e) {
             ClientLogger.log(node.getNodeId(), String.format("Error during PUT operation for %s with %s: %s", key, value, e.getMessage()));
         }
@@ -127,8 +174,8 @@ public class Client {
      */
     void performGetRequest(String key) throws RemoteException {
         try {
-            String reply = node.handleGetRequest(key);
-            ClientLogger.log(node.getNodeId(), reply);
+            ClientReply reply = node.handleGetRequest(key);
+            ClientLogger.log(node.getNodeId(), reply.getMessage());
         } catch (Exception e) {
             ClientLogger.log(node.getNodeId(), String.format("Error during GET operation for %s: %s", key, e.getMessage()));
         }
@@ -139,10 +186,29 @@ public class Client {
      */
     void performDeleteRequest(UUID proposalId, String key) throws RemoteException {
         try {
-            String reply = node.handleDeleteRequest(proposalId, key);
-            ClientLogger.log(node.getNodeId(), reply);
+            ClientReply reply = node.handleDeleteRequest(proposalId, key);
+            ClientLogger.log(node.getNodeId(), reply.getMessage());
         } catch (Exception e) {
             ClientLogger.log(node.getNodeId(), String.format("Error during DELETE operation for %s: %s", key, e.getMessage()));
         }
     }
+
+    /**
+     * Log the key value pairs with keys in [startKey, endKey), one page per call,
+     * so neither side ever holds more than a page however large the store is.
+     * A null bound leaves that end of the range open.
+     */
+    void performScanRequest(String startKey, String endKey) throws RemoteException {
+        String pageSize = System.getenv("CLIENT_SCAN_PAGE_SIZE");
+        String cursor = startKey;
+        try {
+            do {
+                ScanPage page = node.scan(cursor, endKey, pageSize == null ? 100 : Integer.parseInt(pageSize));
+                ClientLogger.log(node.getNodeId(), "Key value pairs from " + (cursor == null ? "the first key" : cursor) + ":\n" + page);
+                cursor = page.getNextKey();
+            } while (cursor != null);
+        } catch (Exception e) {
+            ClientLogger.log(node.getNodeId(), String.format("Error during SCAN operation from %s: %s", cursor, e.getMessage()));
+        }
+    }
 }
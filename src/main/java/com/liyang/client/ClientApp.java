@@ -1,6 +1,7 @@
 package com.liyang.client;
 
 import com.liyang.paxosNode.PaxosNode;
+import com.liyang.server.ClientReply;
 
 import java.rmi.Naming;
 import java.rmi.RemoteException;
@@ -18,12 +19,22 @@ public class ClientApp {
     public static void main(String[] args) {
         // Check for correct number of arguments
         if (args.length < 1 || args.length > 2 || (args.length == 2 && !args[1].equalsIgnoreCase("-t"))) {
-            ClientLogger.log(null, "Usage: java client.ClientApp <node ID> [-t]");
+            ClientLogger.log(null, "Usage: java client.ClientApp <node ID> [-t] | -c");
             return;
         }
 
         String nodeId = args[0];
         ConcurrentHashMap<String, String> nodeRmiAddresses = getAddresses();
+
+        // Talk to the whole cluster rather than one node
+        if (nodeId.equalsIgnoreCase("-c")) {
+            try {
+                performClusterRequests(ClusterClient.connect(nodeRmiAddresses.values(), ConsistencyLevel.fromEnv()));
+            } catch (Exception e) {
+                ClientLogger.log(null, "Client exception: " + e.getMessage());
+            }
+            return;
+        }
         String nodeRmiAddress = nodeRmiAddresses.get(nodeId);
 
         if (nodeRmiAddress == null) {
@@ -49,11 +60,11 @@ public class ClientApp {
             );
 
             if (!testFlag) {
-                Client client = new Client(node);
+                Client client = new Client(node, nodeRmiAddress);
                 client.performAutomatedRequests();
 
                 // Check current status of the keyValueStore
-                ClientLogger.log(nodeId, "Current keyValueStore:\n" + node.getAll().toString());
+                client.performScanRequest(null, null);
                 client.enterInteractiveMode();
             } else {
                 // Test one proposer
@@ -78,7 +89,7 @@ public class ClientApp {
      * Retrieves server configuration from environment variables.
      * Constructs RMI addresses for each server and returns them as a ConcurrentHashMap.
      */
-    private static ConcurrentHashMap<String, String> getAddresses() {
+    static ConcurrentHashMap<String, String> getAddresses() {
         ConcurrentHashMap<String, String> nodeRmiAddresses = new ConcurrentHashMap<>();
 
         for (int i = 1; i <= Integer.parseInt(System.getenv("NODE_NUM")); i++) {
@@ -92,6 +103,41 @@ public class ClientApp {
         return nodeRmiAddresses;
     }
 
+    /**
+     * Perform automated PUT, GET, and DELETE operations through a cluster-aware client,
+     * which sends writes to the leader and spreads GETs over the nodes.
+     */
+    private static void performClusterRequests(ClusterClient client) {
+        ClientLogger.log(null, "Connected to nodes " + client.getNodeIds() + " running " + client.getGroupCount() + " groups, leaders: " + client.getLeaderIds());
+
+        for (int i = 0; i < Integer.parseInt(System.getenv("PUT_OPERATIONS")); i++) {
+            String key = "key_" + i;
+            String value = "value_" + i;
+            logClusterReply(client, "PUT", key, () -> client.put(UUID.randomUUID(), key, value));
+        }
+        for (int i = 0; i < Integer.parseInt(System.getenv("GET_OPERATIONS")); i++) {
+            String key = "key_" + i;
+            logClusterReply(client, "GET", key, () -> client.get(key));
+        }
+        for (int i = 0; i < Integer.parseInt(System.getenv("DELETE_OPERATIONS")); i++) {
+            String key = "key_" + i;
+            logClusterReply(client, "DELETE", key, () -> client.delete(UUID.randomUUID(), key));
+        }
+    }
+
+    private static void logClusterReply(ClusterClient client, String operation, String key, ClusterCall call) {
+        try {
+            ClientLogger.log(client.getLeaderId(key), call.invoke().getMessage());
+        } catch (RemoteException e) {
+            ClientLogger.log(client.getLeaderId(key), String.format("Error during %s operation for %s: %s", operation, key, e.getMessage()));
+        }
+    }
+
+    @FunctionalInterface
+    private interface ClusterCall {
+        ClientReply invoke() throws RemoteException;
+    }
+
     /**
      * Single proposer test.
      */
@@ -101,14 +147,14 @@ public class ClientApp {
 
         ClientLogger.log(node.getNodeId(), "==========Test PUT Operation by One Proposer in PAXOS==========");
         client.performPutRequest(proposalId, key, value);
-        ClientLogger.log(node.getNodeId(), "Current key value pairs:\n" + node.getAll().toString());
+        client.performScanRequest(null, null);
 
         ClientLogger.log(node.getNodeId(), "==========Test GET Operation==========");
         client.performGetRequest(key);
 
         ClientLogger.log(node.getNodeId(), "==========Test DELETE Operation by One Proposer in PAXOS==========");
         client.performDeleteRequest(proposalId, key);
-        ClientLogger.log(node.getNodeId(), "Current key value pairs:\n" + node.getAll().toString());
+        client.performScanRequest(null, null);
     }
 
     /**
@@ -144,8 +190,8 @@ public class ClientApp {
         t2.join();
 
         // Retrieve the value after the operations
-        String finalValueNode1 = node1.handleGetRequest(key);
-        String finalValueNode2 = node2.handleGetRequest(key);
+        String finalValueNode1 = node1.handleGetRequest(key).getMessage();
+        String finalValueNode2 = node2.handleGetRequest(key).getMessage();
 
         // Assert that both nodes have the same final value
         ClientLogger.log(node1.getNodeId(), "Final value on Node1: " + finalValueNode1);
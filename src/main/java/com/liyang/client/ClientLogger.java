@@ -11,7 +11,7 @@ public class ClientLogger {
      * Log a message to the console and to the log file of the client,
      * prepending it with the server name, thread ID, and a timestamp.
      */
-    public static void log(String nodeId, String message) {
+    public static synchronized void log(String nodeId, String message) {
         String logMessage;
         if (nodeId == null) {
             logMessage = message;
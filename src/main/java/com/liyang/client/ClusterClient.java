@@ -0,0 +1,217 @@
+package com.liyang.client;
+
+import com.liyang.paxosNode.PaxosNode;
+import com.liyang.server.ClientReply;
+import com.liyang.server.ShardedNode;
+
+import java.rmi.Naming;
+import java.rmi.RemoteException;
+import java.rmi.ServerException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * A client that talks to the whole cluster instead of one fixed node.
+ * It discovers every node from the seeds it is given, keeps a connection to each,
+ * and caches which node leads, sending writes straight to the leader so they skip the forwarding hop.
+ * Every reply names the leader as the replying node knows it, which re-routes the next write after a change of leader;
+ * a node that cannot be reached is left out for a while and the request is retried on another node.
+ * GETs are spread over the nodes as their consistency level allows,
+ * with the highest applied-index token seen so far carried on SESSION reads.
+ * When nodes run several Paxos groups, each key belongs to one group with its own leader and its own log,
+ * so the leader and the session token are kept per group and requests go to the leader of the key's group.
+ */
+public class ClusterClient {
+    private static final long RETRY_DOWN_NODE_MILLIS = 1000;
+
+    private final Map<String, PaxosNode> nodes = new ConcurrentHashMap<>();
+    private volatile List<String> nodeIds = List.of();  // sorted, the round-robin order
+    private final Map<String, Long> downUntil = new ConcurrentHashMap<>();  // nodes left out after a failed call
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final Map<Integer, Long> sessionIndexes = new ConcurrentHashMap<>();  // highest applied-index token seen per group
+    private final Map<Integer, String> leaderIds = new ConcurrentHashMap<>();  // per group, absent while not known
+    private final ConsistencyLevel consistencyLevel;
+    private volatile int groupCount = 1;
+
+    public ClusterClient(ConsistencyLevel consistencyLevel) {
+        this.consistencyLevel = consistencyLevel;
+    }
+
+    /**
+     * Connects to the nodes at the given RMI addresses, and to every node they know about.
+     * Fails only if no node at all could be reached.
+     */
+    public static ClusterClient connect(Collection<String> rmiAddresses, ConsistencyLevel consistencyLevel) throws RemoteException {
+        ClusterClient client = new ClusterClient(consistencyLevel);
+        for (String rmiAddress : rmiAddresses) {
+            try {
+                client.discover((PaxosNode) Naming.lookup(rmiAddress));
+            } catch (Exception e) {
+                ClientLogger.log(null, "Cannot reach node at " + rmiAddress + ": " + e.getMessage());
+            }
+        }
+        if (client.nodes.isEmpty()) throw new RemoteException("No node of the cluster could be reached");
+        return client;
+    }
+
+    /**
+     * Adds a node and the nodes it knows about to the pool, and learns how many groups it runs and the leader it knows for each.
+     */
+    public void discover(PaxosNode node) throws RemoteException {
+        nodes.put(node.getNodeId(), node);
+        groupCount = node.getGroupCount();
+        for (PaxosNode otherNode : node.getOtherNodes()) {
+            try {
+                nodes.putIfAbsent(otherNode.getNodeId(), otherNode);
+            } catch (RemoteException e) {
+                // Down for now, another seed or a later reply will bring it in
+            }
+        }
+        List<String> ids = new ArrayList<>(nodes.keySet());
+        ids.sort(null);
+        nodeIds = List.copyOf(ids);
+        List<String> groupLeaderIds = node.getLeaderIds();
+        for (int group = 0; group < groupLeaderIds.size(); group++) {
+            String leaderId = groupLeaderIds.get(group);
+            if (leaderId != null) leaderIds.putIfAbsent(group, leaderId);
+        }
+    }
+
+    public List<String> getNodeIds() {
+        return nodeIds;
+    }
+
+    public int getGroupCount() {
+        return groupCount;
+    }
+
+    /**
+     * The node believed to lead the group owning the key, null if not known yet or the cluster runs basic Paxos.
+     */
+    public String getLeaderId(String key) {
+        return leaderIds.get(groupOf(key));
+    }
+
+    /**
+     * The known leaders by group.
+     */
+    public Map<Integer, String> getLeaderIds() {
+        return Map.copyOf(leaderIds);
+    }
+
+    /**
+     * The highest applied-index token seen from the group owning the key.
+     */
+    public long getSessionIndex(String key) {
+        return sessionIndexes.getOrDefault(groupOf(key), 0L);
+    }
+
+    public ClientReply put(UUID proposalId, String key, String value) throws RemoteException {
+        return callWriter(groupOf(key), node -> node.handlePutRequest(proposalId, key, value));
+    }
+
+    public ClientReply delete(UUID proposalId, String key) throws RemoteException {
+        return callWriter(groupOf(key), node -> node.handleDeleteRequest(proposalId, key));
+    }
+
+    public ClientReply get(String key) throws RemoteException {
+        return get(key, consistencyLevel);
+    }
+
+    public ClientReply get(String key, ConsistencyLevel level) throws RemoteException {
+        int group = groupOf(key);
+        return switch (level) {
+            case LINEARIZABLE -> callWriter(group, node -> node.handleGetRequest(key));
+            case SESSION -> callReplica(group, node -> node.handleGetRequest(key, getSessionIndex(key), 0));
+            case EVENTUAL -> callReplica(group, node -> node.handleGetRequest(key, 0, Long.MAX_VALUE));
+        };
+    }
+
+    private int groupOf(String key) {
+        return ShardedNode.groupOf(key, groupCount);
+    }
+
+    /**
+     * Calls the cached leader of the group, or any live node while no leader is known.
+     * A write retried on another node keeps its proposal ID, so it is applied at most once.
+     */
+    private ClientReply callWriter(int group, NodeCall call) throws RemoteException {
+        RemoteException failure = null;
+        for (int attempt = 0; attempt < nodes.size(); attempt++) {
+            String target = leaderIds.get(group);
+            if (target == null || !isLive(target)) target = pickReplica();
+            try {
+                return call(target, group, call);
+            } catch (ServerException e) {
+                throw e;  // The node was reached but failed the request itself
+            } catch (RemoteException e) {
+                failure = e;
+            }
+        }
+        throw new RemoteException("No node could handle the request", failure);
+    }
+
+    /**
+     * Calls the live nodes in turn, moving on to the next one when a node is unreachable or too far behind.
+     */
+    private ClientReply callReplica(int group, NodeCall call) throws RemoteException {
+        RemoteException failure = null;
+        for (int attempt = 0; attempt < nodes.size(); attempt++) {
+            try {
+                return call(pickReplica(), group, call);
+            } catch (RemoteException e) {
+                failure = e;
+            }
+        }
+        throw new RemoteException("No node could handle the read", failure);
+    }
+
+    private ClientReply call(String nodeId, int group, NodeCall call) throws RemoteException {
+        PaxosNode node = nodes.get(nodeId);
+        try {
+            ClientReply reply = call.invoke(node);
+            sessionIndexes.merge(group, reply.getAppliedIndex(), Math::max);
+            if (reply.getLeaderId() != null && nodes.containsKey(reply.getLeaderId())) leaderIds.put(group, reply.getLeaderId());
+            return reply;
+        } catch (ServerException e) {
+            throw e;
+        } catch (RemoteException e) {
+            ClientLogger.log(nodeId, "Node unreachable, routing around it: " + e.getMessage());
+            downUntil.put(nodeId, System.currentTimeMillis() + RETRY_DOWN_NODE_MILLIS);
+            leaderIds.values().removeIf(nodeId::equals);
+            throw e;
+        }
+    }
+
+    private boolean isLive(String nodeId) {
+        Long until = downUntil.get(nodeId);
+        if (until == null) return true;
+        if (System.currentTimeMillis() < until) return false;
+        downUntil.remove(nodeId, until);
+        return true;
+    }
+
+    /**
+     * The next live node in round-robin order, or the next node at all if every node was found down.
+     */
+    private String pickReplica() {
+        List<String> ids = nodeIds;
+        int start = Math.floorMod(nextReplica.getAndIncrement(), ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            String nodeId = ids.get((start + i) % ids.size());
+            if (isLive(nodeId)) return nodeId;
+        }
+        return ids.get(start);
+    }
+
+    @FunctionalInterface
+    private interface NodeCall {
+        ClientReply invoke(PaxosNode node) throws RemoteException;
+    }
+}
@@ -0,0 +1,29 @@
+package com.liyang.client;
+
+/**
+ * How fresh a GET sent through a {@link ClusterClient} must be:
+ * LINEARIZABLE reads go to the leader and see every write acknowledged before them,
+ * SESSION reads go to any replica that has applied the client's own writes and earlier reads,
+ * EVENTUAL reads go to any replica and are answered at once from whatever it has applied.
+ */
+public enum ConsistencyLevel {
+    LINEARIZABLE("LINEARIZABLE"),
+    SESSION("SESSION"),
+    EVENTUAL("EVENTUAL");
+
+    private final String level;
+
+    ConsistencyLevel(String level) {
+        this.level = level;
+    }
+
+    public static ConsistencyLevel fromEnv() {
+        String level = System.getenv("CLIENT_READ_CONSISTENCY");
+        return level == null || level.isBlank() ? SESSION : ConsistencyLevel.valueOf(level.trim().toUpperCase());
+    }
+
+    @Override
+    public String toString() {
+        return level;
+    }
+}
@@ -0,0 +1,80 @@
+package com.liyang.client;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+
+/**
+ * Picks the keys a load run touches out of a fixed number of records, either uniformly
+ * or following a Zipfian distribution as YCSB does, where a few popular records receive most requests.
+ * Zipfian ranks are hashed onto the records so the popular ones are scattered over the key space.
+ */
+public class KeyGenerator {
+    private final long records;
+    private final boolean zipfian;
+    private final double theta;
+    private final double alpha;
+    private final double zetaN;
+    private final double eta;
+
+    private KeyGenerator(long records, boolean zipfian, double theta) {
+        this.records = records;
+        this.zipfian = zipfian;
+        this.theta = theta;
+        this.alpha = 1 / (1 - theta);
+        this.zetaN = zipfian ? zeta(records, theta) : 0;
+        this.eta = zipfian ? (1 - Math.pow(2.0 / records, 1 - theta)) / (1 - zeta(2, theta) / zetaN) : 0;
+    }
+
+    public static KeyGenerator uniform(long records) {
+        return new KeyGenerator(records, false, 0);
+    }
+
+    /**
+     * A Zipfian generator with the given skew, 0.99 in the YCSB workloads.
+     */
+    public static KeyGenerator zipfian(long records, double theta) {
+        return new KeyGenerator(records, true, theta);
+    }
+
+    public String nextKey() {
+        return keyOf(nextRecord());
+    }
+
+    public static String keyOf(long record) {
+        return "user" + record;
+    }
+
+    private long nextRecord() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (!zipfian) return random.nextLong(records);
+
+        // Gray et al., Quickly Generating Billion-Record Synthetic Databases
+        double u = random.nextDouble();
+        double uz = u * zetaN;
+        long rank;
+        if (uz < 1) {
+            rank = 0;
+        } else if (uz < 1 + Math.pow(0.5, theta)) {
+            rank = 1;
+        } else {
+            rank = Math.min(records - 1, (long) (records * Math.pow(eta * u - eta + 1, alpha)));
+        }
+        return Math.floorMod(fnvHash(rank), records);
+    }
+
+    private static double zeta(long n, double theta) {
+        double sum = 0;
+        for (long i = 1; i <= n; i++) sum += 1 / Math.pow(i, theta);
+        return sum;
+    }
+
+    private static long fnvHash(long value) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < 8; i++) {
+            hash ^= value & 0xFF;
+            hash *= 0x100000001B3L;
+            value >>>= 8;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,204 @@
+package com.liyang.client;
+
+import com.liyang.common.LatencyHistogram;
+import com.liyang.common.ServerConfig;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Drives a YCSB-style workload against the cluster and reports throughput and latency percentiles,
+ * for sizing clusters and catching performance regressions.
+ * Threads share LOAD_CONNECTIONS cluster clients and pick keys uniformly or following a Zipfian distribution;
+ * LOAD_WORKLOAD sets the read/update mix: A is 50% reads, B 95%, C 100%, W 0%, or LOAD_READ_PROPORTION sets it exactly.
+ * With LOAD_TARGET_RATE unset each thread issues its next request when the previous one returns (closed loop);
+ * with it set requests are issued on a fixed schedule (open loop), and latency is counted from when
+ * a request was due rather than when it was sent, so a stalled cluster is not hidden by requests that were never sent.
+ * Requests still due when the run ends are counted as missed.
+ */
+public class LoadGenerator {
+    private final List<ClusterClient> connections;
+    private final KeyGenerator keys;
+    private final String workload;
+    private final double readProportion;
+    private final long records;
+    private final int valueSize;
+    private final int threads;
+    private final double targetRate;
+    private final long warmupNanos;
+    private final long durationNanos;
+    private final LatencyHistogram readLatency = new LatencyHistogram();
+    private final LatencyHistogram updateLatency = new LatencyHistogram();
+    private final LatencyHistogram serviceTime = new LatencyHistogram();  // from when the request was sent
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder missed = new LongAdder();  // due in open loop but not sent by the end of the run
+    private final AtomicLong measuredNanos = new AtomicLong();  // from the end of the warmup to the last measured reply
+
+    public LoadGenerator(List<ClusterClient> connections) {
+        this.connections = connections;
+        this.workload = ServerConfig.getString("LOAD_WORKLOAD", "A").toUpperCase();
+        this.readProportion = ServerConfig.getDouble("LOAD_READ_PROPORTION", switch (workload) {
+            case "A" -> 0.5;
+            case "B" -> 0.95;
+            case "C" -> 1.0;
+            case "W" -> 0.0;
+            default -> throw new IllegalArgumentException("Unknown workload " + workload + ", expected A, B, C or W");
+        });
+        this.records = ServerConfig.getLong("LOAD_RECORD_COUNT", 1000);
+        this.keys = ServerConfig.getString("LOAD_KEY_DISTRIBUTION", "ZIPFIAN").equalsIgnoreCase("UNIFORM")
+                ? KeyGenerator.uniform(records)
+                : KeyGenerator.zipfian(records, ServerConfig.getDouble("LOAD_ZIPFIAN_CONSTANT", 0.99));
+        this.valueSize = ServerConfig.getInt("LOAD_VALUE_SIZE", 100);
+        this.threads = ServerConfig.getInt("LOAD_THREADS", 8);
+        this.targetRate = ServerConfig.getDouble("LOAD_TARGET_RATE", 0);
+        this.warmupNanos = TimeUnit.SECONDS.toNanos(ServerConfig.getLong("LOAD_WARMUP_SECONDS", 5));
+        this.durationNanos = TimeUnit.SECONDS.toNanos(ServerConfig.getLong("LOAD_DURATION_SECONDS", 30));
+    }
+
+    public static void main(String[] args) {
+        try {
+            List<ClusterClient> connections = new ArrayList<>();
+            for (int i = 0; i < ServerConfig.getInt("LOAD_CONNECTIONS", 1); i++) {
+                connections.add(ClusterClient.connect(ClientApp.getAddresses().values(), ConsistencyLevel.fromEnv()));
+            }
+            LoadGenerator generator = new LoadGenerator(connections);
+            if (ServerConfig.getBoolean("LOAD_PRELOAD", true)) generator.preload();
+            generator.run();
+            generator.report();
+        } catch (Exception e) {
+            ClientLogger.log(null, "Load generator exception: " + e.getMessage());
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Writes every record once, so reads find a value.
+     */
+    public void preload() throws InterruptedException {
+        ClientLogger.log(null, String.format("Load - Preloading %d records", records));
+        runThreads(thread -> {
+            ClusterClient client = connections.get(thread % connections.size());
+            for (long record = thread; record < records; record += threads) {
+                try {
+                    client.put(UUID.randomUUID(), KeyGenerator.keyOf(record), randomValue());
+                } catch (RemoteException e) {
+                    errors.increment();
+                }
+            }
+        });
+        errors.reset();
+    }
+
+    /**
+     * Runs the workload for the warmup and then the measured duration.
+     * Only requests due after the warmup are recorded.
+     */
+    public void run() throws InterruptedException {
+        ClientLogger.log(null, String.format(Locale.ROOT,
+                "Load - Workload %s: %.0f%% reads over %d records, %d byte values, %d threads on %d connections, %s",
+                workload, readProportion * 100, records, valueSize, threads, connections.size(),
+                targetRate > 0 ? String.format(Locale.ROOT, "open loop at %.0f ops/s", targetRate) : "closed loop"));
+
+        long start = System.nanoTime();
+        long measureFrom = start + warmupNanos;
+        long end = measureFrom + durationNanos;
+        long intervalNanos = targetRate > 0 ? (long) (threads * TimeUnit.SECONDS.toNanos(1) / targetRate) : 0;
+
+        runThreads(thread -> {
+            ClusterClient client = connections.get(thread % connections.size());
+            long due = start + intervalNanos * thread / threads;  // staggered so the threads do not fire together
+            while (true) {
+                long now = System.nanoTime();
+                if (intervalNanos > 0) {
+                    if (due >= end) break;
+                    if (now >= end) {  // fell behind schedule
+                        missed.add((end - due + intervalNanos - 1) / intervalNanos);
+                        break;
+                    }
+                    while (now < due) {
+                        LockSupport.parkNanos(due - now);
+                        now = System.nanoTime();
+                    }
+                } else {
+                    if (now >= end) break;
+                    due = now;
+                }
+
+                boolean read = ThreadLocalRandom.current().nextDouble() < readProportion;
+                String key = keys.nextKey();
+                long sent = System.nanoTime();
+                boolean failed = false;
+                try {
+                    if (read) {
+                        client.get(key);
+                    } else {
+                        client.put(UUID.randomUUID(), key, randomValue());
+                    }
+                } catch (RemoteException e) {
+                    failed = true;
+                }
+                long completed = System.nanoTime();
+
+                if (due >= measureFrom) {
+                    if (failed) {
+                        errors.increment();
+                    } else {
+                        (read ? readLatency : updateLatency).record(completed - due);
+                        serviceTime.record(completed - sent);
+                    }
+                    measuredNanos.accumulateAndGet(completed - measureFrom, Math::max);
+                }
+                due += intervalNanos;
+            }
+        });
+    }
+
+    public void report() {
+        long completed = readLatency.getCount() + updateLatency.getCount();
+        double seconds = Math.max(durationNanos, measuredNanos.get()) / 1e9;
+        ClientLogger.log(null, String.format(Locale.ROOT, "Load - %d operations in %.1f s: %.1f ops/s, %d errors, %d missed",
+                completed, seconds, completed / seconds, errors.sum(), missed.sum()));
+        if (readLatency.getCount() > 0) ClientLogger.log(null, summary("READ", readLatency));
+        if (updateLatency.getCount() > 0) ClientLogger.log(null, summary("UPDATE", updateLatency));
+        if (targetRate > 0 && serviceTime.getCount() > 0) ClientLogger.log(null, summary("SERVICE", serviceTime));
+    }
+
+    private static String summary(String name, LatencyHistogram histogram) {
+        return String.format(Locale.ROOT,
+                "Load - %-7s latency (us): count=%d mean=%.1f p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f p99.99=%.1f max=%.1f",
+                name, histogram.getCount(), histogram.getMean() / 1e3,
+                histogram.getValueAtPercentile(50) / 1e3, histogram.getValueAtPercentile(90) / 1e3,
+                histogram.getValueAtPercentile(99) / 1e3, histogram.getValueAtPercentile(99.9) / 1e3,
+                histogram.getValueAtPercentile(99.99) / 1e3, histogram.getMax() / 1e3);
+    }
+
+    private String randomValue() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        char[] value = new char[valueSize];
+        for (int i = 0; i < valueSize; i++) value[i] = (char) ('a' + random.nextInt(26));
+        return new String(value);
+    }
+
+    private void runThreads(ThreadBody body) throws InterruptedException {
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            int thread = i;
+            workers.add(Thread.ofPlatform().name("load-" + i).start(() -> body.run(thread)));
+        }
+        for (Thread worker : workers) worker.join();
+    }
+
+    @FunctionalInterface
+    private interface ThreadBody {
+        void run(int thread);
+    }
+}
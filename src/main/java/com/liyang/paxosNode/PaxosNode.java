@@ -1,12 +1,12 @@
 package com.liyang.paxosNode;
 
+import com.liyang.server.ClientReply;
 import com.liyang.server.PaxosMessage;
-import com.liyang.server.ProposalContext;
+import com.liyang.server.ScanPage;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.util.List;
-import java.util.Map;
 import java.util.UUID;
 
 public interface PaxosNode extends Remote {
@@ -14,21 +14,29 @@ public interface PaxosNode extends Remote {
 
     List<PaxosNode> getOtherNodes() throws RemoteException;
 
-    Map<UUID, ProposalContext> getContextStore() throws RemoteException;
-
     void setOtherNodes(List<PaxosNode> otherNodes) throws RemoteException;
 
-    String handlePutRequest(UUID proposalId, String key, String value) throws RemoteException;
+    /**
+     * The leader this node knows for its first Paxos group, null if none is known; see {@link #getLeaderIds()}.
+     */
+    String getLeaderId() throws RemoteException;
 
-    String handleGetRequest(String key) throws RemoteException;
+    /**
+     * The leader this node knows for each of its Paxos groups, by group, null where none is known.
+     */
+    List<String> getLeaderIds() throws RemoteException;
 
-    String handleDeleteRequest(UUID proposalId, String key) throws RemoteException;
+    int getGroupCount() throws RemoteException;
 
-    void sendMessage(PaxosMessage message) throws RemoteException;
+    ClientReply handlePutRequest(UUID proposalId, String key, String value) throws RemoteException;
 
-    void receiveMessage(PaxosMessage message) throws RemoteException;
+    ClientReply handleGetRequest(String key) throws RemoteException;
+
+    ClientReply handleGetRequest(String key, long appliedIndex, long maxStaleness) throws RemoteException;
 
-    void updateContextStore(UUID proposalId, ProposalContext context) throws RemoteException;
+    ClientReply handleDeleteRequest(UUID proposalId, String key) throws RemoteException;
+
+    void receiveMessage(PaxosMessage message) throws RemoteException;
 
-    List<String> getAll() throws RemoteException;
+    ScanPage scan(String startKey, String endKey, int pageSize) throws RemoteException;
 }
@@ -0,0 +1,28 @@
+package com.liyang.server;
+
+import lombok.Getter;
+
+import java.io.Serializable;
+
+
+/**
+ * A value an Acceptor has accepted for one log slot,
+ * reported back in COMMIT replies so a proposer or a new leader never overrides a value that may have been chosen.
+ */
+@Getter
+public class AcceptedInstance implements Serializable {
+    private final long slot;
+    private final ProposalNumber acceptedProposalNumber;
+    private final Operation operation;
+
+    public AcceptedInstance(long slot, ProposalNumber acceptedProposalNumber, Operation operation) {
+        this.slot = slot;
+        this.acceptedProposalNumber = acceptedProposalNumber;
+        this.operation = operation;
+    }
+
+    @Override
+    public String toString() {
+        return slot + "@" + acceptedProposalNumber + ":" + operation;
+    }
+}
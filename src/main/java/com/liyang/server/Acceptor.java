@@ -1,11 +1,12 @@
 package com.liyang.server;
 
-import com.liyang.paxosNode.PaxosNode;
-
+import java.io.IOException;
 import java.rmi.RemoteException;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
-import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 
 /**
@@ -14,63 +15,118 @@ import java.util.UUID;
  */
 public class Acceptor {
     private final PaxosNodeImpl node;
-    private final Map<UUID, ProposalContext> contextStore;
+    private final Map<Long, ProposalContext> contextStore;
+    private final ReplicatedLog log;
+    private final AcceptorLog acceptorLog;
     private final Random random = new Random();
+    private ProposalNumber promisedBallot = null;  // the highest ballot promised across all slots in Multi-Paxos mode
+    private ProposalNumber leaseBallot = null;  // the leader this acceptor last granted a read lease to
+    private long leaseGrantedNanos = 0;
 
-    public Acceptor(PaxosNodeImpl node, Map<UUID, ProposalContext> contextStore) {
+    public Acceptor(PaxosNodeImpl node, Map<Long, ProposalContext> contextStore, ReplicatedLog log, AcceptorLog acceptorLog) {
         this.node = node;
         this.contextStore = contextStore;
+        this.log = log;
+        this.acceptorLog = acceptorLog;
+    }
+
+    /**
+     * Restores the promises and accepted values written to the acceptor log before a restart.
+     * Records of one slot may be out of order, as concurrent handlers append them,
+     * so the highest number always wins.
+     */
+    public void recover() throws IOException {
+        acceptorLog.replay(new AcceptorLog.Visitor() {
+            @Override
+            public void promised(long slot, ProposalNumber proposalNumber) {
+                ProposalContext context = contextStore.computeIfAbsent(slot, ProposalContext::new);
+                if (context.getPromisedProposalNumber() == null || proposalNumber.compareTo(context.getPromisedProposalNumber()) > 0) {
+                    context.setPromisedProposalNumber(proposalNumber);
+                }
+            }
+
+            @Override
+            public void accepted(long slot, ProposalNumber proposalNumber, Operation operation) {
+                promised(slot, proposalNumber);
+                ProposalContext context = contextStore.get(slot);
+                if (context.getAcceptedProposalNumber() == null || proposalNumber.compareTo(context.getAcceptedProposalNumber()) >= 0) {
+                    context.setAcceptedProposalNumber(proposalNumber);
+                    context.setAcceptedOperation(operation);
+                }
+                if (node.getMode() == PaxosMode.MULTI) ballotPromised(proposalNumber);
+            }
+
+            @Override
+            public void ballotPromised(ProposalNumber ballot) {
+                if (promisedBallot == null || ballot.compareTo(promisedBallot) > 0) promisedBallot = ballot;
+            }
+        });
+        if (promisedBallot != null) node.getLeader().observeBallot(promisedBallot);
     }
 
     /**
      * Processes PREPARE requests from Proposers.
      * If the proposal number is higher than any previously promised,
-     * it promises not to accept lower numbered proposals.
+     * it promises not to accept lower numbered proposals
+     * and reports the value it has already accepted for the slot, if any.
      */
     public void handlePrepareRequest(PaxosMessage request) throws RemoteException {
 
-        ServerLogger.log(node.getNodeId(), "Acceptor - Received PREPARE request from proposer " + request.getFromNode().getNodeId() + ":\n" + request);
+        ServerLogger.debug(node.getNodeId(), "Acceptor - Received PREPARE request from proposer {}:\n{}", request.getFromNodeId(), request);
 
         maybeFail();  // Simulate potential failure before handling prepare request
 
-        UUID proposalId = request.getProposalId();
+        if (answerIfRetired(request)) return;
+        if (node.getMode() == PaxosMode.MULTI) {
+            handleLeaderPrepareRequest(request);
+            return;
+        }
+
+        long slot = request.getSlot();
         ProposalNumber proposalNumber = request.getProposalNumber();
-        ProposalContext context = contextStore.get(proposalId);
-        ProposalNumber promisedNumber = context.getPromisedProposalNumber();
+        ProposalContext context = contextStore.computeIfAbsent(slot, ProposalContext::new);  // first message about the slot sets it up
 
         PaxosMessage reply;
         String log;
-        if (promisedNumber == null || proposalNumber.compareTo(promisedNumber) > 0) {
-            context.setPromisedProposalNumber(proposalNumber);
-            node.updateContextStore(proposalId, context);
-
-            reply = new PaxosMessage(
-                    proposalId,
-                    PaxosMessageType.COMMIT,
-                    proposalNumber,
-                    node,
-                    request.getFromNode(),
-                    request.getOperationType(),
-                    request.getKey(),
-                    request.getValue()
-            );
-            log = "Acceptor - Proposal number higher than current promised number. Sending COMMIT reply to proposer " + request.getFromNode().getNodeId()+ ":\n" + reply;
-        } else {
-            reply = new PaxosMessage(
-                    proposalId,
-                    PaxosMessageType.REJECT,
-                    promisedNumber,  // Reply with the promised higher number
-                    node,
-                    request.getFromNode(),
-                    request.getOperationType(),
-                    request.getKey(),
-                    request.getValue()
-            );
-            log = "Acceptor - Proposal number smaller than or equal to current promised number. Sending REJECT reply to proposer " + request.getFromNode().getNodeId()+ ":\n" + reply;
+        CompletableFuture<Void> durable = null;
+        synchronized (context) {
+            if (answerIfRetired(request)) return;  // retired since the check above, the context may be a fresh one
+
+            ProposalNumber promisedNumber = context.getPromisedProposalNumber();
+            if (promisedNumber == null || proposalNumber.compareTo(promisedNumber) > 0) {
+                context.setPromisedProposalNumber(proposalNumber);
+                durable = acceptorLog.logPromise(slot, proposalNumber);
+
+                List<AcceptedInstance> acceptedInstances = context.getAcceptedOperation() == null
+                        ? List.of()
+                        : List.of(new AcceptedInstance(slot, context.getAcceptedProposalNumber(), context.getAcceptedOperation()));
+
+                reply = new PaxosMessage(
+                        slot,
+                        PaxosMessageType.COMMIT,
+                        proposalNumber,
+                        node.getNodeId(),
+                        request.getFromNodeId(),
+                        request.getOperation(),
+                        acceptedInstances
+                );
+                log = "Acceptor - Proposal number higher than current promised number. Sending COMMIT reply to proposer {}:\n{}";
+            } else {
+                reply = new PaxosMessage(
+                        slot,
+                        PaxosMessageType.REJECT,
+                        promisedNumber,  // Reply with the promised higher number
+                        node.getNodeId(),
+                        request.getFromNodeId(),
+                        request.getOperation()
+                );
+                log = "Acceptor - Proposal number smaller than or equal to current promised number. Sending REJECT reply to proposer {}:\n{}";
+            }
         }
 
-        ServerLogger.log(node.getNodeId(), log);
-        node.sendMessage(reply);
+        if (durable != null) awaitDurable(durable);
+        ServerLogger.debug(node.getNodeId(), log, request.getFromNodeId(), reply);
+        node.sendOneWay(reply);
     }
 
     /**
@@ -80,34 +136,286 @@ public class Acceptor {
      */
     public void handleAcceptRequest(PaxosMessage request) throws RemoteException {
 
-        ServerLogger.log(node.getNodeId(), "Acceptor - Received ACCEPT request from proposal " + request.getFromNode().getNodeId() + ":\n" + request);
+        ServerLogger.debug(node.getNodeId(), "Acceptor - Received ACCEPT request from proposal {}:\n{}", request.getFromNodeId(), request);
 
         maybeFail();  // Simulate potential failure before handling accept request
 
-        UUID proposalId = request.getProposalId();
+        if (answerIfRetired(request)) return;
+        if (node.getMode() == PaxosMode.MULTI) {
+            handleLeaderAcceptRequest(request);
+            return;
+        }
+
+        long slot = request.getSlot();
         ProposalNumber proposalNumber = request.getProposalNumber();
+        ProposalContext context = contextStore.computeIfAbsent(slot, ProposalContext::new);  // first message about the slot sets it up
 
-        ProposalContext context = contextStore.get(proposalId);
-        ProposalNumber promisedNumber = context.getPromisedProposalNumber();
+        CompletableFuture<Void> durable;
+        synchronized (context) {
+            if (answerIfRetired(request)) return;  // retired since the check above, the context may be a fresh one
 
-        if (promisedNumber == null || proposalNumber.compareTo(promisedNumber) >= 0) {
-            ServerLogger.log(node.getNodeId(), "Acceptor - Proposal number higher than or equal to current promised number. Accepted proposal, send ACCEPTED notification to all learners");
+            ProposalNumber promisedNumber = context.getPromisedProposalNumber();
+            if (promisedNumber != null && proposalNumber.compareTo(promisedNumber) < 0) return;
 
+            ServerLogger.debug(node.getNodeId(), "Acceptor - Proposal number higher than or equal to current promised number. Accepted proposal, send ACCEPTED notification to all learners");
             context.setPromisedProposalNumber(proposalNumber);  // Update the promised number to the current
-            node.updateContextStore(proposalId, context);
+            context.setAcceptedProposalNumber(proposalNumber);
+            context.setAcceptedOperation(request.getOperation());
+            durable = acceptorLog.logAccept(slot, proposalNumber, request.getOperation());
+        }
+        awaitDurable(durable);
 
-            PaxosMessage notification = new PaxosMessage(
-                    proposalId,
-                    PaxosMessageType.ACCEPTED,
-                    request.getProposalNumber(),
-                    node,
-                    node,  // Send to self learner, can be changed in sendAcceptedNotification
-                    request.getOperationType(),
-                    request.getKey(),
-                    request.getValue()
+        PaxosMessage notification = new PaxosMessage(
+                slot,
+                PaxosMessageType.ACCEPTED,
+                request.getProposalNumber(),
+                node.getNodeId(),
+                node.getNodeId(),  // Send to self learner, can be changed in sendAcceptedNotification
+                request.getOperation()
+        );
+        sendAcceptedNotification(notification);
+    }
+
+    /**
+     * Processes an election PREPARE from a Multi-Paxos leader candidate.
+     * The promise covers every slot from the one named in the request onwards,
+     * and the reply reports every value accepted in those slots so the new leader can finish them.
+     * While a read lease granted to another node runs, the candidate gets no promise.
+     */
+    private void handleLeaderPrepareRequest(PaxosMessage request) throws RemoteException {
+        ProposalNumber ballot = request.getProposalNumber();
+
+        PaxosMessage reply;
+        String log;
+        CompletableFuture<Void> durable = null;
+        synchronized (this) {
+            if (isLeasedToOther(ballot)) {
+                // No reply, a REJECT would name the lease holder as leader even if it is gone
+                ServerLogger.debug(node.getNodeId(), "Acceptor - Read lease granted to another leader still running. Ignoring PREPARE from leader candidate {}", request.getFromNodeId());
+                return;
+            }
+            if (promisedBallot == null || ballot.compareTo(promisedBallot) > 0) {
+                promisedBallot = ballot;
+                durable = acceptorLog.logBallotPromise(ballot);
+
+                List<AcceptedInstance> acceptedInstances = contextStore.values().stream()
+                        .filter(context -> context.getSlot() >= request.getSlot() && context.getAcceptedOperation() != null)
+                        .map(context -> new AcceptedInstance(
+                                context.getSlot(),
+                                context.getAcceptedProposalNumber(),
+                                context.getAcceptedOperation()))
+                        .toList();
+
+                reply = new PaxosMessage(
+                        request.getSlot(),
+                        PaxosMessageType.COMMIT,
+                        ballot,
+                        node.getNodeId(),
+                        request.getFromNodeId(),
+                        null,
+                        acceptedInstances
+                );
+                log = "Acceptor - Ballot higher than current promised ballot. Sending COMMIT reply to leader candidate {}:\n{}";
+            } else {
+                reply = new PaxosMessage(
+                        request.getSlot(),
+                        PaxosMessageType.REJECT,
+                        promisedBallot,  // Reply with the promised higher ballot
+                        node.getNodeId(),
+                        request.getFromNodeId(),
+                        null
+                );
+                log = "Acceptor - Ballot smaller than or equal to current promised ballot. Sending REJECT reply to leader candidate {}:\n{}";
+            }
+        }
+        node.getLeader().observeBallot(ballot);
+        if (answerIfRetired(request)) return;  // retired while the accepted values were collected, the report may miss some
+
+        if (durable != null) awaitDurable(durable);
+        ServerLogger.debug(node.getNodeId(), log, request.getFromNodeId(), reply);
+        node.sendOneWay(reply);
+    }
+
+    /**
+     * Handles a steady-state ACCEPT from a Multi-Paxos leader.
+     * It is accepted if its ballot is at least the ballot promised at election,
+     * otherwise the leader is told about the higher ballot so it steps down.
+     */
+    private void handleLeaderAcceptRequest(PaxosMessage request) throws RemoteException {
+        long slot = request.getSlot();
+        ProposalNumber ballot = request.getProposalNumber();
+
+        ProposalNumber rejectingBallot = null;
+        CompletableFuture<Void> durable = null;
+        synchronized (this) {
+            if (answerIfRetired(request)) return;  // retired since the check above, the context may be a fresh one
+
+            if (promisedBallot == null || ballot.compareTo(promisedBallot) >= 0) {
+                promisedBallot = ballot;
+
+                ProposalContext context = contextStore.computeIfAbsent(slot, ProposalContext::new);
+                context.setPromisedProposalNumber(ballot);
+                context.setAcceptedProposalNumber(ballot);
+                context.setAcceptedOperation(request.getOperation());
+                durable = acceptorLog.logAccept(slot, ballot, request.getOperation());
+            } else {
+                rejectingBallot = promisedBallot;
+            }
+        }
+
+        if (rejectingBallot != null) {
+            PaxosMessage reply = new PaxosMessage(
+                    slot,
+                    PaxosMessageType.REJECT,
+                    rejectingBallot,  // Reply with the promised higher ballot
+                    node.getNodeId(),
+                    request.getFromNodeId(),
+                    request.getOperation()
             );
-            sendAcceptedNotification(notification);
+            ServerLogger.debug(node.getNodeId(), "Acceptor - Ballot smaller than current promised ballot. Sending REJECT reply to leader {}:\n{}", request.getFromNodeId(), reply);
+            node.sendOneWay(reply);
+            return;
         }
+
+        awaitDurable(durable);
+        ServerLogger.debug(node.getNodeId(), "Acceptor - Ballot higher than or equal to current promised ballot. Accepted proposal, send ACCEPTED notification to all learners");
+        node.getLeader().observeBallot(ballot);
+
+        PaxosMessage notification = new PaxosMessage(
+                slot,
+                PaxosMessageType.ACCEPTED,
+                ballot,
+                node.getNodeId(),
+                node.getNodeId(),  // Send to self learner, can be changed in sendAcceptedNotification
+                request.getOperation()
+        );
+        sendAcceptedNotification(notification);
+    }
+
+    /**
+     * Handles a LEASE request from a Multi-Paxos leader by granting it a read lease, unless a higher ballot was promised.
+     * The grant echoes the time the leader sent the request, as read on the leader's clock.
+     */
+    public void handleLeaseRequest(PaxosMessage request) {
+        ProposalNumber ballot = request.getProposalNumber();
+        if (!grantLease(ballot)) return;
+        node.getLeader().observeBallot(ballot);
+
+        node.sendOneWay(new PaxosMessage(
+                request.getSlot(),
+                PaxosMessageType.LEASE_GRANT,
+                ballot,
+                node.getNodeId(),
+                request.getFromNodeId(),
+                null
+        ));
+    }
+
+    /**
+     * Handles a READ_INDEX request from a Multi-Paxos leader confirming it still leads,
+     * answering it unless a higher ballot was promised.
+     */
+    public void handleReadIndexRequest(PaxosMessage request) {
+        ProposalNumber ballot = request.getProposalNumber();
+        if (!followsBallot(ballot)) return;
+        node.getLeader().observeBallot(ballot);
+
+        node.sendOneWay(new PaxosMessage(
+                request.getSlot(),
+                PaxosMessageType.READ_INDEX_ACK,
+                ballot,
+                node.getNodeId(),
+                request.getFromNodeId(),
+                null
+        ));
+    }
+
+    /**
+     * Whether this acceptor has promised no ballot higher than the given one.
+     */
+    synchronized boolean followsBallot(ProposalNumber ballot) {
+        return promisedBallot == null || ballot.compareTo(promisedBallot) >= 0;
+    }
+
+    /**
+     * Grants or renews a read lease to the leader with the given ballot.
+     * Until the lease runs out on this node's clock, no other node gets a promise from this acceptor,
+     * so no other node can be elected and write while a majority has granted the lease.
+     */
+    synchronized boolean grantLease(ProposalNumber ballot) {
+        if (promisedBallot != null && ballot.compareTo(promisedBallot) < 0) return false;
+        if (isLeaseActive() && ballot.compareTo(leaseBallot) < 0) return false;
+        leaseBallot = ballot;
+        leaseGrantedNanos = System.nanoTime();
+        return true;
+    }
+
+    /**
+     * How long the read lease this acceptor granted to a node other than the given one still runs, 0 if none does.
+     */
+    synchronized long leaseRemainingNanos(String candidateNodeId) {
+        if (!isLeaseActive() || leaseBallot.getNodeId().equals(candidateNodeId)) return 0;
+        return node.getLeader().getLeaseDurationNanos() - (System.nanoTime() - leaseGrantedNanos);
+    }
+
+    private boolean isLeasedToOther(ProposalNumber ballot) {
+        return isLeaseActive() && !leaseBallot.getNodeId().equals(ballot.getNodeId());
+    }
+
+    private boolean isLeaseActive() {
+        return leaseBallot != null && System.nanoTime() - leaseGrantedNanos < node.getLeader().getLeaseDurationNanos();
+    }
+
+    /**
+     * Answers a request about a retired slot with what was decided there instead of promising or accepting.
+     * The acceptor state of a slot covered by the snapshot or applied by every node may already be gone,
+     * and a fresh promise there could let a node that fell behind choose a second value for the slot.
+     * An election PREPARE covers every slot from the one it names, so it gets every retired slot from there.
+     * Checked again under the lock of the state a request changes, since the collector sets the retired index
+     * before it drops the contexts below it.
+     */
+    private boolean answerIfRetired(PaxosMessage request) {
+        long slot = request.getSlot();
+        long retiredIndex = Math.max(log.getSnapshotIndex(), node.getContextCollector().getRetiredIndex());
+        if (slot > retiredIndex) return false;
+
+        boolean election = node.getMode() == PaxosMode.MULTI && request.getMessageType() == PaxosMessageType.PREPARE;
+        ServerLogger.debug(node.getNodeId(), "Acceptor - Slot {} is retired, sending what was decided to {} instead", slot, request.getFromNodeId());
+        node.getLearner().catchUp(request.getFromNodeId(), slot, election ? retiredIndex : slot);
+        return true;
+    }
+
+    /**
+     * Whether promises and accepts are kept in the write-ahead log, which compaction rebuilds from the context store.
+     */
+    public boolean isDurable() {
+        return acceptorLog.isEnabled();
+    }
+
+    /**
+     * Rewrites the acceptor log with the promises and accepted values of the slots after the snapshot index
+     * and the promised ballot, dropping the records of the slots the snapshot covers.
+     */
+    public CompletableFuture<Void> compact(long snapshotIndex) {
+        return acceptorLog.rewrite(records -> {
+            ProposalNumber ballot;
+            synchronized (this) {
+                ballot = promisedBallot;
+            }
+            if (ballot != null) records.ballotPromised(ballot);
+
+            for (ProposalContext context : contextStore.values()) {
+                if (context.getSlot() <= snapshotIndex) continue;
+                synchronized (context) {
+                    if (context.getAcceptedOperation() != null) {
+                        records.accepted(context.getSlot(), context.getAcceptedProposalNumber(), context.getAcceptedOperation());
+                    }
+                    if (context.getPromisedProposalNumber() != null) {
+                        records.promised(context.getSlot(), context.getPromisedProposalNumber());
+                    }
+                }
+            }
+        });
     }
 
     /**
@@ -118,27 +426,38 @@ public class Acceptor {
         maybeFail();  // Simulate potential failure before sending accepted notification
 
         // Notify learner of self node
-        ServerLogger.log(node.getNodeId(), "Acceptor - Sending ACCEPTED notification to learner of self node:\n" + notification);
-        node.sendMessage(notification);
+        ServerLogger.debug(node.getNodeId(), "Acceptor - Sending ACCEPTED notification to learner of self node:\n{}", notification);
+        node.sendOneWay(notification);
 
         // Notify other learners
-        for (PaxosNode otherNode : node.getOtherNodes()) {
+        for (String otherNodeId : node.getOtherNodeIds()) {
             PaxosMessage otherNotification = new PaxosMessage(
-                    notification.getProposalId(),
+                    notification.getSlot(),
                     PaxosMessageType.ACCEPTED,
                     notification.getProposalNumber(),
-                    node,
-                    otherNode,
-                    notification.getOperationType(),
-                    notification.getKey(),
-                    notification.getValue()
+                    node.getNodeId(),
+                    otherNodeId,
+                    notification.getOperation()
             );
-            try {
-                ServerLogger.log(node.getNodeId(), "Acceptor - Sending ACCEPTED notification to learner " + otherNode.getNodeId() + ":\n" + otherNotification);
-                node.sendMessage(otherNotification);
-            } catch (RemoteException e) {
-                ServerLogger.log(node.getNodeId(), "Acceptor - RMI exception during send ACCEPTED notification to learner " + otherNode.getNodeId() + ": " + e.getMessage());
-            }
+            ServerLogger.debug(node.getNodeId(), "Acceptor - Sending ACCEPTED notification to learner {}:\n{}", otherNodeId, otherNotification);
+            node.sendOneWay(otherNotification);
+        }
+    }
+
+    /**
+     * Holds a reply back until the promise or acceptance it reports is on disk.
+     * The record is queued while the state is locked, so records keep the order of the state changes,
+     * but the wait happens outside the lock, letting other handlers join the same fsync.
+     */
+    private void awaitDurable(CompletableFuture<Void> durable) throws RemoteException {
+        try {
+            durable.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while writing the acceptor log");
+        } catch (ExecutionException e) {
+            ServerLogger.warn(node.getNodeId(), "Acceptor - Failed to write the acceptor log, not replying: {}", e.getCause().getMessage());
+            throw new RemoteException("Failed to write the acceptor log", e.getCause());
         }
     }
 
@@ -147,6 +466,7 @@ public class Acceptor {
      */
     private void maybeFail() throws RemoteException {
         if (random.nextDouble() < Double.parseDouble(System.getenv("FAILURE_RATE"))) {  // random failure chance
+            node.getMetrics().countSimulatedFailure();
             throw new RemoteException("SIMULATED ACCEPTOR FAILURE");
         }
     }
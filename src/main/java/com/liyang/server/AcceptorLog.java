@@ -0,0 +1,444 @@
+package com.liyang.server;
+
+import com.liyang.common.ServerConfig;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+
+/**
+ * Write-ahead log of an acceptor's promises and accepted values, so a restarted acceptor keeps its word.
+ * Each record is framed as [int length][int CRC32C][byte type][payload] and appended to one file.
+ * A writer thread takes every record queued since its last flush, writes them together
+ * and forces them to disk with a single fsync, so concurrent handlers share the cost of durability.
+ * Once a snapshot covers the early slots, the log is rewritten with only the state that still matters.
+ */
+public class AcceptorLog implements AutoCloseable {
+    private static final int HEADER_BYTES = 8;  // length and checksum
+    private static final int MAX_RECORD_BYTES = 64 * 1024 * 1024;  // anything larger is a torn or corrupt length
+
+    private final String nodeId;
+    private final Path file;
+    private volatile FileChannel channel;  // replaced when the log is compacted
+    private final BlockingQueue<PendingRecord> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean closed = false;
+
+    private AcceptorLog(String nodeId, Path file) throws IOException {
+        this.nodeId = nodeId;
+        this.file = file;
+        if (file == null) {
+            this.channel = null;
+            this.writer = null;
+            return;
+        }
+        Files.createDirectories(file.getParent());
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.writer = new Thread(this::writeLoop, "acceptor-log-" + nodeId);
+        this.writer.setDaemon(true);
+    }
+
+    /**
+     * Opens the log kept in the data directory of a node, or an in-memory stand-in when ACCEPTOR_WAL is turned off.
+     */
+    public static AcceptorLog open(String nodeId, Path directory) throws IOException {
+        if (!ServerConfig.getBoolean("ACCEPTOR_WAL", true)) return new AcceptorLog(nodeId, null);
+        return new AcceptorLog(nodeId, directory.resolve("acceptor.wal"));
+    }
+
+    public boolean isEnabled() {
+        return channel != null;
+    }
+
+    /**
+     * Reads every intact record back, in the order they were written, then starts accepting new ones.
+     * A record cut short or failing its checksum marks the end of what reached the disk:
+     * it and anything after it is cut off, so new records follow the last good one.
+     */
+    public void replay(Visitor visitor) throws IOException {
+        if (!isEnabled()) return;
+
+        long validEnd = 0;
+        int records = 0;
+        channel.position(0);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        while (true) {
+            byte[] body;
+            try {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length <= 0 || length > MAX_RECORD_BYTES) break;
+                body = new byte[length];
+                in.readFully(body);
+                if (checksum(body) != checksum) break;
+            } catch (EOFException e) {
+                break;
+            }
+            decode(body, visitor);
+            validEnd += HEADER_BYTES + body.length;
+            records++;
+        }
+
+        if (channel.size() > validEnd) {
+            ServerLogger.warn(nodeId, "Acceptor log - Discarding {} bytes of a torn record at the end of {}", channel.size() - validEnd, file);
+            channel.truncate(validEnd);
+            channel.force(true);
+        }
+        channel.position(validEnd);
+        ServerLogger.info(nodeId, "Acceptor log - Recovered {} records from {}", records, file);
+        writer.start();
+    }
+
+    /**
+     * Records a promise made for one slot in basic mode.
+     */
+    public CompletableFuture<Void> logPromise(long slot, ProposalNumber proposalNumber) {
+        if (!isEnabled()) return CompletableFuture.completedFuture(null);
+        return append(RecordType.PROMISE, promisePayload(slot, proposalNumber));
+    }
+
+    /**
+     * Records a value accepted in a slot, which also promises its proposal number.
+     */
+    public CompletableFuture<Void> logAccept(long slot, ProposalNumber proposalNumber, Operation operation) {
+        if (!isEnabled()) return CompletableFuture.completedFuture(null);
+        return append(RecordType.ACCEPT, acceptPayload(slot, proposalNumber, operation));
+    }
+
+    /**
+     * Records the ballot promised to a Multi-Paxos leader candidate, which covers every slot.
+     */
+    public CompletableFuture<Void> logBallotPromise(ProposalNumber ballot) {
+        if (!isEnabled()) return CompletableFuture.completedFuture(null);
+        return append(RecordType.BALLOT_PROMISE, out -> writeProposalNumber(out, ballot));
+    }
+
+    /**
+     * Queues a record for the writer thread.
+     * The future completes once the record is on disk, or fails if it could not be written.
+     */
+    private CompletableFuture<Void> append(RecordType type, RecordWriter payload) {
+        CompletableFuture<Void> durable = new CompletableFuture<>();
+        if (closed) {
+            durable.completeExceptionally(new IOException("Acceptor log is closed"));
+            return durable;
+        }
+        try {
+            queue.add(new PendingRecord(encode(type, payload), null, durable));
+        } catch (IOException e) {
+            durable.completeExceptionally(e);
+        }
+        return durable;
+    }
+
+    /**
+     * Replaces the log with the records written by the given state, dropping everything else.
+     * Runs on the writer thread between two groups: records queued before it are already in the old log,
+     * records queued after it go to the new one, so nothing written before or during the rewrite is lost.
+     */
+    public CompletableFuture<Void> rewrite(Consumer<Visitor> state) {
+        if (!isEnabled()) return CompletableFuture.completedFuture(null);
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        if (closed) {
+            done.completeExceptionally(new IOException("Acceptor log is closed"));
+            return done;
+        }
+        queue.add(new PendingRecord(null, state, done));
+        return done;
+    }
+
+    private static ByteBuffer encode(RecordType type, RecordWriter payload) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(type.ordinal());
+        payload.write(out);
+        byte[] body = bytes.toByteArray();
+
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + body.length);
+        record.putInt(body.length).putInt(checksum(body)).put(body).flip();
+        return record;
+    }
+
+    /**
+     * Group commit: whatever queued up while the previous fsync was running goes to disk under the next one.
+     */
+    private void writeLoop() {
+        List<PendingRecord> group = new ArrayList<>();
+        List<PendingRecord> records = new ArrayList<>();
+        while (!closed) {
+            try {
+                group.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(group);
+
+            for (PendingRecord pending : group) {
+                if (pending.rewrite() == null) {
+                    records.add(pending);
+                    continue;
+                }
+                writeGroup(records);
+                records.clear();
+                rewriteLog(pending);
+            }
+            writeGroup(records);
+            records.clear();
+            group.clear();
+        }
+    }
+
+    private void writeGroup(List<PendingRecord> records) {
+        if (records.isEmpty()) return;
+        try {
+            ByteBuffer[] buffers = records.stream().map(PendingRecord::record).toArray(ByteBuffer[]::new);
+            long remaining = 0;
+            for (ByteBuffer buffer : buffers) remaining += buffer.remaining();
+            while (remaining > 0) remaining -= channel.write(buffers);
+            channel.force(false);
+            records.forEach(pending -> pending.durable().complete(null));
+        } catch (IOException e) {
+            ServerLogger.error(nodeId, "Acceptor log - Failed to write {} records, refusing further records: {}", records.size(), e.getMessage());
+            closed = true;  // a partly written group would hide any record appended after it
+            records.forEach(pending -> pending.durable().completeExceptionally(e));
+        }
+    }
+
+    /**
+     * Writes the state into a new file beside the log, then moves it over the log once it is on disk,
+     * so a crash during the rewrite leaves the old log in place.
+     * The directory is forced after the move, before any record is appended to the new file.
+     */
+    private void rewriteLog(PendingRecord pending) {
+        if (closed) {
+            pending.durable().completeExceptionally(new IOException("Acceptor log is closed"));
+            return;
+        }
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        boolean replaced = false;
+        try {
+            long records;
+            try (FileChannel rewritten = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                RecordCollector collector = new RecordCollector(rewritten);
+                pending.rewrite().accept(collector);
+                records = collector.finish();
+                rewritten.force(true);
+            }
+            long before = channel.size();
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            replaced = true;
+            forceDirectory(file.getParent());  // records appended from here on go to the new file, its name must survive a crash
+
+            FileChannel previous = channel;
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+            previous.close();
+            ServerLogger.info(nodeId, "Acceptor log - Compacted from {} to {} bytes, {} records kept", before, channel.size(), records);
+            pending.durable().complete(null);
+        } catch (IOException | RuntimeException e) {
+            ServerLogger.warn(nodeId, "Acceptor log - Failed to compact: {}", e.getMessage());
+            if (replaced) closed = true;  // the open channel still points at the replaced file
+            pending.durable().completeExceptionally(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!isEnabled()) return;
+        closed = true;
+        writer.interrupt();
+        channel.close();
+    }
+
+    /**
+     * Forces a directory to disk, which makes a file moved into it durable.
+     */
+    private static void forceDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    private static int checksum(byte[] body) {
+        CRC32C crc = new CRC32C();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+    private static void decode(byte[] body, Visitor visitor) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+        switch (RecordType.values()[in.readUnsignedByte()]) {
+            case PROMISE -> visitor.promised(in.readLong(), readProposalNumber(in));
+            case ACCEPT -> visitor.accepted(in.readLong(), readProposalNumber(in), readOperation(in));
+            case BALLOT_PROMISE -> visitor.ballotPromised(readProposalNumber(in));
+        }
+    }
+
+    private static RecordWriter promisePayload(long slot, ProposalNumber proposalNumber) {
+        return out -> {
+            out.writeLong(slot);
+            writeProposalNumber(out, proposalNumber);
+        };
+    }
+
+    private static RecordWriter acceptPayload(long slot, ProposalNumber proposalNumber, Operation operation) {
+        return out -> {
+            out.writeLong(slot);
+            writeProposalNumber(out, proposalNumber);
+            writeOperation(out, operation);
+        };
+    }
+
+    private static void writeProposalNumber(DataOutputStream out, ProposalNumber proposalNumber) throws IOException {
+        out.writeInt(proposalNumber.getSequenceNumber());
+        writeString(out, proposalNumber.getNodeId());
+    }
+
+    private static ProposalNumber readProposalNumber(DataInputStream in) throws IOException {
+        return new ProposalNumber(in.readInt(), readString(in));
+    }
+
+    private static void writeOperation(DataOutputStream out, Operation operation) throws IOException {
+        out.writeByte(operation.getOperationType().ordinal());
+        out.writeLong(operation.getProposalId().getMostSignificantBits());
+        out.writeLong(operation.getProposalId().getLeastSignificantBits());
+        if (operation.getOperationType() == OperationType.BATCH) {
+            out.writeInt(operation.getBatch().size());
+            for (Operation member : operation.getBatch()) writeOperation(out, member);
+            return;
+        }
+        writeString(out, operation.getKey());
+        writeString(out, operation.getValue());
+    }
+
+    private static Operation readOperation(DataInputStream in) throws IOException {
+        OperationType type = OperationType.values()[in.readUnsignedByte()];
+        UUID proposalId = new UUID(in.readLong(), in.readLong());
+        if (type == OperationType.BATCH) {
+            int size = in.readInt();
+            List<Operation> batch = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) batch.add(readOperation(in));
+            return Operation.batch(proposalId, batch);
+        }
+        return new Operation(proposalId, type, readString(in), readString(in));
+    }
+
+    /**
+     * Writes a string as its UTF-8 length and bytes, -1 standing for null.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Receives the records of the log as it is replayed.
+     */
+    public interface Visitor {
+        void promised(long slot, ProposalNumber proposalNumber);
+
+        void accepted(long slot, ProposalNumber proposalNumber, Operation operation);
+
+        void ballotPromised(ProposalNumber ballot);
+    }
+
+    private enum RecordType {
+        PROMISE, ACCEPT, BALLOT_PROMISE
+    }
+
+    @FunctionalInterface
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Encodes the records of a rewrite and writes them out in large chunks.
+     */
+    private static class RecordCollector implements Visitor {
+        private final FileChannel target;
+        private final List<ByteBuffer> buffered = new ArrayList<>();
+        private long bufferedBytes = 0;
+        private long records = 0;
+
+        RecordCollector(FileChannel target) {
+            this.target = target;
+        }
+
+        @Override
+        public void promised(long slot, ProposalNumber proposalNumber) {
+            add(RecordType.PROMISE, promisePayload(slot, proposalNumber));
+        }
+
+        @Override
+        public void accepted(long slot, ProposalNumber proposalNumber, Operation operation) {
+            add(RecordType.ACCEPT, acceptPayload(slot, proposalNumber, operation));
+        }
+
+        @Override
+        public void ballotPromised(ProposalNumber ballot) {
+            add(RecordType.BALLOT_PROMISE, out -> writeProposalNumber(out, ballot));
+        }
+
+        private void add(RecordType type, RecordWriter payload) {
+            try {
+                ByteBuffer record = encode(type, payload);
+                buffered.add(record);
+                bufferedBytes += record.remaining();
+                records++;
+                if (bufferedBytes >= 256 * 1024) flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void flush() throws IOException {
+            ByteBuffer[] buffers = buffered.toArray(ByteBuffer[]::new);
+            while (bufferedBytes > 0) bufferedBytes -= target.write(buffers);
+            buffered.clear();
+        }
+
+        long finish() throws IOException {
+            flush();
+            return records;
+        }
+    }
+
+    private record PendingRecord(ByteBuffer record, Consumer<Visitor> rewrite, CompletableFuture<Void> durable) {
+    }
+}
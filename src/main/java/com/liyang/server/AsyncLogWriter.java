@@ -0,0 +1,264 @@
+package com.liyang.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * Writes the log of one node from a single background thread, so logging never does IO on the calling thread.
+ * Callers claim a slot in a preallocated ring and store the message pattern and its arguments there;
+ * formatting, encoding and writing to the one open file channel all happen on the writer thread,
+ * which drains whatever has accumulated in one batch.
+ * When the ring is full, messages below WARN are dropped and counted unless LOG_OVERFLOW is BLOCK,
+ * in which case the caller waits for room; WARN and ERROR messages always wait.
+ */
+public class AsyncLogWriter implements Runnable {
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final String nodeId;
+    private final Path file;
+    private final boolean console;
+    private final boolean blockWhenFull;
+    private final Entry[] ring;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();  // next position to be claimed by a caller
+    private long head = 0;  // next position to be written, owned by the writer thread
+    private final LongAdder dropped = new LongAdder();
+    private final Thread thread;
+    private volatile boolean idle = false;
+    private volatile boolean running = true;
+
+    private FileChannel channel;
+    private final StringBuilder text = new StringBuilder(16 * 1024);
+    private final ByteBuffer bytes = ByteBuffer.allocateDirect(64 * 1024);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    public AsyncLogWriter(String nodeId, Path file, int capacity, boolean blockWhenFull, boolean console) {
+        this.nodeId = nodeId;
+        this.file = file;
+        this.console = console;
+        this.blockWhenFull = blockWhenFull;
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1) << 1);  // next power of two
+        this.ring = new Entry[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) ring[i] = new Entry(i);
+        this.thread = new Thread(this, "log-" + (nodeId == null ? "server" : nodeId));
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queues a message, returning false if it was dropped because the ring was full.
+     * The arguments are only turned into strings on the writer thread.
+     */
+    public boolean append(LogLevel level, String pattern, Object first, Object second, Object third, Object[] rest) {
+        boolean block = blockWhenFull || level.compareTo(LogLevel.WARN) >= 0;
+        Entry entry;
+        long position;
+        while (true) {
+            position = tail.get();
+            entry = ring[(int) position & mask];
+            long difference = entry.sequence - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) break;
+            } else if (difference < 0) {  // the writer has not freed this slot yet
+                if (!block || !running) {
+                    dropped.increment();
+                    return false;
+                }
+                LockSupport.unpark(thread);
+                LockSupport.parkNanos(FULL_PARK_NANOS);
+            }
+        }
+
+        entry.millis = System.currentTimeMillis();
+        entry.level = level;
+        entry.pattern = pattern;
+        entry.first = first;
+        entry.second = second;
+        entry.third = third;
+        entry.rest = rest;
+        entry.sequence = position + 1;  // publishes the entry to the writer
+        if (idle) LockSupport.unpark(thread);
+        return true;
+    }
+
+    /**
+     * Stops taking messages and waits for the writer to write out those already queued.
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(2));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            System.err.println("Error opening log file " + file + ": " + e.getMessage());
+        }
+
+        while (true) {
+            boolean stopping = !running;
+            int written = drain();
+            reportDropped();
+            if (text.length() > 0) flush();
+            if (written > 0) continue;
+            if (stopping) break;
+
+            idle = true;
+            if (!hasPending()) LockSupport.parkNanos(IDLE_PARK_NANOS);
+            idle = false;
+        }
+
+        try {
+            if (channel != null) channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private boolean hasPending() {
+        return ring[(int) head & mask].sequence == head + 1;
+    }
+
+    /**
+     * Formats the queued entries into the text buffer, freeing their slots as it goes.
+     */
+    private int drain() {
+        int count = 0;
+        while (count < ring.length) {
+            Entry entry = ring[(int) head & mask];
+            if (entry.sequence != head + 1) break;
+
+            format(entry);
+            entry.clear();
+            entry.sequence = head + ring.length;  // hands the slot back to the callers
+            head++;
+            count++;
+            if (text.length() >= bytes.capacity()) flush();
+        }
+        return count;
+    }
+
+    private void format(Entry entry) {
+        TIME_FORMAT.formatTo(Instant.ofEpochMilli(entry.millis), text);
+        text.append(' ').append(entry.level);
+        for (int i = entry.level.toString().length(); i < 6; i++) text.append(' ');
+        if (nodeId != null) text.append("[Node ").append(nodeId).append("] ");
+
+        String pattern = entry.pattern;
+        int argument = 0;
+        int start = 0;
+        int placeholder;
+        while ((placeholder = pattern.indexOf("{}", start)) >= 0) {
+            text.append(pattern, start, placeholder);
+            appendArgument(entry.argument(argument++));
+            start = placeholder + 2;
+        }
+        text.append(pattern, start, pattern.length()).append(System.lineSeparator());
+    }
+
+    private void appendArgument(Object argument) {
+        try {
+            text.append(argument);
+        } catch (RuntimeException e) {
+            text.append("[toString failed: ").append(e).append(']');
+        }
+    }
+
+    private void reportDropped() {
+        long count = dropped.sumThenReset();
+        if (count == 0) return;
+        Entry entry = new Entry(0);
+        entry.millis = System.currentTimeMillis();
+        entry.level = LogLevel.WARN;
+        entry.pattern = "Logger - Dropped {} messages, the log buffer was full";
+        entry.first = count;
+        format(entry);
+    }
+
+    /**
+     * Writes the text buffer to the console and the log file.
+     */
+    private void flush() {
+        if (console) System.out.print(text);
+        if (channel != null) {
+            CharBuffer chars = CharBuffer.wrap(text);
+            encoder.reset();
+            try {
+                while (encoder.encode(chars, bytes, true).isOverflow()) writeBytes();
+                while (encoder.flush(bytes).isOverflow()) writeBytes();
+                writeBytes();
+            } catch (IOException e) {
+                System.err.println("Error writing to log file " + file + ": " + e.getMessage());
+            }
+        }
+        text.setLength(0);
+    }
+
+    private void writeBytes() throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) channel.write(bytes);
+        bytes.clear();
+    }
+
+    /**
+     * A slot of the ring. The sequence says whose turn it is: equal to the position when free for a caller,
+     * one past it when filled for the writer.
+     */
+    private static final class Entry {
+        volatile long sequence;
+        long millis;
+        LogLevel level;
+        String pattern;
+        Object first;
+        Object second;
+        Object third;
+        Object[] rest;
+
+        Entry(long sequence) {
+            this.sequence = sequence;
+        }
+
+        Object argument(int index) {
+            return switch (index) {
+                case 0 -> rest != null ? rest[0] : first;
+                case 1 -> rest != null ? (rest.length > 1 ? rest[1] : null) : second;
+                case 2 -> rest != null ? (rest.length > 2 ? rest[2] : null) : third;
+                default -> rest != null && index < rest.length ? rest[index] : null;
+            };
+        }
+
+        void clear() {
+            pattern = null;
+            first = null;
+            second = null;
+            third = null;
+            rest = null;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.liyang.server;
+
+import lombok.Getter;
+
+import java.io.Serializable;
+
+
+/**
+ * The reply to a client request, carrying the applied-index token along with the message.
+ * For a write the token is the log slot the write was decided in; for a read it is how far the serving node
+ * had applied its log, so the value read reflects at least every write up to that slot.
+ * A client presenting the highest token it has seen on its next GET reads its own writes from any node.
+ * The reply also names the current leader, so a client can send its next write there directly.
+ */
+@Getter
+public class ClientReply implements Serializable {
+    private final String message;
+    private final long appliedIndex;
+    private final String leaderId;  // the Multi-Paxos leader as the replying node knows it, null if unknown
+
+    public ClientReply(String message, long appliedIndex, String leaderId) {
+        this.message = message;
+        this.appliedIndex = appliedIndex;
+        this.leaderId = leaderId;
+    }
+
+    @Override
+    public String toString() {
+        return message;
+    }
+}
@@ -0,0 +1,144 @@
+package com.liyang.server;
+
+import com.liyang.common.ServerConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Collects client operations arriving concurrently on a node and proposes them together,
+ * so one consensus instance and its round trips are shared by many writes.
+ * A batch is flushed when it reaches the size or byte limit, or when the linger time runs out.
+ * The linger follows the offered load: operations arriving faster than the maximum linger are worth waiting for,
+ * while under sparse load each operation is proposed as soon as it arrives.
+ */
+public class CommandBatcher implements Runnable {
+    private static final double ARRIVAL_SMOOTHING = 0.2;  // weight of the latest gap in the moving average
+
+    private final PaxosNodeImpl node;
+    private final ReplicatedLog log;
+    private final ProposalPipeline pipeline;
+    private final BlockingQueue<PendingOperation> queue = new LinkedBlockingQueue<>();
+    private final int maxBatchSize = ServerConfig.getInt("BATCH_MAX_SIZE", 1);
+    private final int maxBatchBytes = ServerConfig.getInt("BATCH_MAX_BYTES", 64 * 1024);
+    private final long maxLingerNanos = TimeUnit.MICROSECONDS.toNanos(ServerConfig.getLong("BATCH_MAX_LINGER_MICROS", 2000));
+    private double interArrivalNanos = Double.MAX_VALUE;  // moving average of the gap between operations
+    private long lastArrivalNanos = 0;
+
+    public CommandBatcher(PaxosNodeImpl node, ReplicatedLog log, ProposalPipeline pipeline) {
+        this.node = node;
+        this.log = log;
+        this.pipeline = pipeline;
+    }
+
+    /**
+     * Batching is on when a batch may hold more than one operation.
+     */
+    public boolean isEnabled() {
+        return maxBatchSize > 1;
+    }
+
+    public void start() {
+        Thread thread = new Thread(this, "batcher-" + node.getNodeId());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues an operation for the next batch.
+     * The future completes with the slot of the batch holding it once that slot has been applied,
+     * or fails if the batch could not be decided.
+     */
+    public CompletableFuture<Long> submit(Operation operation) {
+        PendingOperation pending = new PendingOperation(operation, System.nanoTime(), new CompletableFuture<>());
+        queue.add(pending);
+        return pending.result();
+    }
+
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                flush(collectBatch());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Waits for an operation, then keeps adding operations until a limit is reached or the linger runs out.
+     * Operations that queued up while the previous batch was being decided are taken without waiting.
+     */
+    private List<PendingOperation> collectBatch() throws InterruptedException {
+        List<PendingOperation> batch = new ArrayList<>();
+        PendingOperation first = queue.take();
+        batch.add(first);
+        observeArrival(first);
+        int batchBytes = first.operation().estimateSize();
+
+        long deadline = System.nanoTime() + lingerNanos();
+        while (batch.size() < maxBatchSize && batchBytes < maxBatchBytes) {
+            PendingOperation next = queue.poll();
+            if (next == null) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) break;
+                next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                if (next == null) break;
+            }
+            batch.add(next);
+            observeArrival(next);
+            batchBytes += next.operation().estimateSize();
+        }
+        return batch;
+    }
+
+    /**
+     * Hands the batch to the proposal pipeline and completes every caller's future once its slot is applied.
+     * Only waits for room in the pipeline window, not for the batch to be decided.
+     */
+    private void flush(List<PendingOperation> batch) {
+        Operation operation = batch.size() == 1
+                ? batch.get(0).operation()
+                : Operation.batch(batch.stream().map(PendingOperation::operation).toList());
+        ServerLogger.debug(node.getNodeId(), "Batcher - Proposing {} operations in one instance: {}", batch.size(), operation.getProposalId());
+
+        pipeline.submit(operation, System.currentTimeMillis() + node.getConsensusTimeout())
+                .thenCompose(node::awaitApplied)
+                .whenComplete((slot, error) -> {
+                    if (error == null) {
+                        batch.forEach(pending -> pending.result().complete(slot));
+                        return;
+                    }
+                    ServerLogger.warn(node.getNodeId(), "Batcher - Failed to decide batch {}: {}", operation.getProposalId(), error.getMessage());
+                    batch.forEach(pending -> pending.result().completeExceptionally(error));
+                });
+    }
+
+    private void observeArrival(PendingOperation pending) {
+        if (lastArrivalNanos != 0) {
+            long gap = Math.max(0, pending.arrivalNanos() - lastArrivalNanos);
+            interArrivalNanos = interArrivalNanos == Double.MAX_VALUE
+                    ? gap
+                    : ARRIVAL_SMOOTHING * gap + (1 - ARRIVAL_SMOOTHING) * interArrivalNanos;
+        }
+        lastArrivalNanos = Math.max(lastArrivalNanos, pending.arrivalNanos());
+    }
+
+    /**
+     * Lingers long enough to fill the batch at the current arrival rate, capped by the maximum linger,
+     * and not at all when the next operation is not expected within the maximum linger.
+     */
+    private long lingerNanos() {
+        if (interArrivalNanos >= maxLingerNanos) return 0;
+        return (long) Math.min(maxLingerNanos, interArrivalNanos * (maxBatchSize - 1));
+    }
+
+    private record PendingOperation(Operation operation, long arrivalNanos, CompletableFuture<Long> result) {
+    }
+}
@@ -0,0 +1,149 @@
+package com.liyang.server;
+
+import com.liyang.common.LatencyHistogram;
+
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Records where the time of a node's consensus instances goes, published over JMX.
+ * Phases are timed on the node proposing the slot:
+ * prepare from sending PREPARE to a majority of promises, or an election from its PREPARE to winning it,
+ * accept from sending ACCEPT to this node learning the slot decided,
+ * and learn from the slot being decided to it being applied, which includes waiting for earlier slots.
+ * Window wait is the time a proposal waits for room in the proposal pipeline, apply the time to apply a run of slots.
+ * Everything is recorded with atomic adds, nothing takes a lock on the consensus path.
+ */
+public class ConsensusMetrics implements ConsensusMetricsMXBean {
+    private final Map<Long, ProposalContext> contextStore;
+    private final ProposalPipeline pipeline;
+    private final LatencyHistogram preparePhase = new LatencyHistogram();
+    private final LatencyHistogram acceptPhase = new LatencyHistogram();
+    private final LatencyHistogram learnPhase = new LatencyHistogram();
+    private final LatencyHistogram windowWait = new LatencyHistogram();
+    private final LatencyHistogram apply = new LatencyHistogram();
+    private final LongAdder rejects = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder simulatedFailures = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder droppedMessages = new LongAdder();
+
+    public ConsensusMetrics(Map<Long, ProposalContext> contextStore, ProposalPipeline pipeline) {
+        this.contextStore = contextStore;
+        this.pipeline = pipeline;
+    }
+
+    public void recordPreparePhase(long startNanos) {
+        preparePhase.record(System.nanoTime() - startNanos);
+    }
+
+    public void recordAcceptPhase(long startNanos) {
+        acceptPhase.record(System.nanoTime() - startNanos);
+    }
+
+    public void recordLearnPhase(long startNanos) {
+        learnPhase.record(System.nanoTime() - startNanos);
+    }
+
+    public void recordWindowWait(long startNanos) {
+        windowWait.record(System.nanoTime() - startNanos);
+    }
+
+    public void recordApply(long startNanos) {
+        apply.record(System.nanoTime() - startNanos);
+    }
+
+    public void countReject() {
+        rejects.increment();
+    }
+
+    public void countRetry() {
+        retries.increment();
+    }
+
+    public void countSimulatedFailure() {
+        simulatedFailures.increment();
+    }
+
+    public void countTimeout() {
+        timeouts.increment();
+    }
+
+    public void countDroppedMessage() {
+        droppedMessages.increment();
+    }
+
+    @Override
+    public LatencySummary getPreparePhase() {
+        return LatencySummary.of(preparePhase);
+    }
+
+    @Override
+    public LatencySummary getAcceptPhase() {
+        return LatencySummary.of(acceptPhase);
+    }
+
+    @Override
+    public LatencySummary getLearnPhase() {
+        return LatencySummary.of(learnPhase);
+    }
+
+    @Override
+    public LatencySummary getWindowWait() {
+        return LatencySummary.of(windowWait);
+    }
+
+    @Override
+    public LatencySummary getApply() {
+        return LatencySummary.of(apply);
+    }
+
+    @Override
+    public long getRejects() {
+        return rejects.sum();
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    @Override
+    public long getSimulatedFailures() {
+        return simulatedFailures.sum();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public long getDroppedMessages() {
+        return droppedMessages.sum();
+    }
+
+    @Override
+    public int getContextStoreSize() {
+        return contextStore.size();
+    }
+
+    @Override
+    public int getInFlightProposals() {
+        return pipeline.getInFlight();
+    }
+
+    /**
+     * Starts every histogram and counter over, for measuring one run at a time.
+     */
+    @Override
+    public void reset() {
+        for (LatencyHistogram histogram : new LatencyHistogram[]{preparePhase, acceptPhase, learnPhase, windowWait, apply}) {
+            histogram.reset();
+        }
+        for (LongAdder counter : new LongAdder[]{rejects, retries, simulatedFailures, timeouts, droppedMessages}) {
+            counter.reset();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.liyang.server;
+
+
+/**
+ * JMX view of where a node's consensus time goes. Latencies are in microseconds.
+ */
+public interface ConsensusMetricsMXBean {
+    LatencySummary getPreparePhase();
+
+    LatencySummary getAcceptPhase();
+
+    LatencySummary getLearnPhase();
+
+    LatencySummary getWindowWait();
+
+    LatencySummary getApply();
+
+    long getRejects();
+
+    long getRetries();
+
+    long getSimulatedFailures();
+
+    long getTimeouts();
+
+    long getDroppedMessages();
+
+    int getContextStoreSize();
+
+    int getInFlightProposals();
+
+    void reset();
+}
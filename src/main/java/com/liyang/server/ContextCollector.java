@@ -0,0 +1,92 @@
+package com.liyang.server;
+
+import com.liyang.common.ServerConfig;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Retires the Paxos instances of slots that are settled for good, so the context store stays bounded.
+ * Nodes tell each other how far they have applied with periodic PROGRESS messages.
+ * A slot every node has applied, or one covered by the snapshot, never needs its instance again:
+ * its context is dropped, and requests still arriving for it are answered from the log or the snapshot.
+ * With the acceptor log on, only slots the snapshot covers are retired: compaction rewrites the log from the
+ * context store, so a slot retired above the snapshot would lose its accepted value on the next restart.
+ * A node refuses to start with the acceptor log on and snapshots off, since nothing would ever be retired.
+ * The proposals decided in applied slots move into the compact retired record used for duplicate detection.
+ */
+public class ContextCollector {
+    private final PaxosNodeImpl node;
+    private final ConcurrentNavigableMap<Long, ProposalContext> contextStore;
+    private final ReplicatedLog log;
+    private final long interval = ServerConfig.getLong("CONTEXT_GC_INTERVAL", 1000);
+    private final Map<String, Long> appliedIndexes = new ConcurrentHashMap<>();  // as last reported by each other node
+    private volatile long retiredIndex = 0;
+
+    public ContextCollector(PaxosNodeImpl node, ConcurrentNavigableMap<Long, ProposalContext> contextStore, ReplicatedLog log) {
+        this.node = node;
+        this.contextStore = contextStore;
+        this.log = log;
+    }
+
+    public void start() {
+        node.getExecutors().getScheduler().scheduleWithFixedDelay(this::collect, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The highest slot whose instance has been retired. Nothing at or below it is in the context store.
+     */
+    public long getRetiredIndex() {
+        return retiredIndex;
+    }
+
+    /**
+     * Records how far another node has applied its log.
+     */
+    public void handleProgress(PaxosMessage progress) {
+        appliedIndexes.merge(progress.getFromNodeId(), progress.getSlot(), Math::max);
+    }
+
+    private void collect() {
+        try {
+            long appliedIndex = log.getAppliedIndex();
+            for (String otherNodeId : node.getOtherNodeIds()) {
+                node.sendOneWay(new PaxosMessage(appliedIndex, PaxosMessageType.PROGRESS, null, node.getNodeId(), otherNodeId, null));
+            }
+
+            int retiredProposals = log.retireProposals(appliedIndex);
+
+            long retireTo = node.getAcceptor().isDurable()
+                    ? log.getSnapshotIndex()
+                    : Math.max(learnedByAll(appliedIndex), log.getSnapshotIndex());
+            if (retireTo > retiredIndex) retiredIndex = retireTo;  // set before the contexts go, see Acceptor
+            ConcurrentNavigableMap<Long, ProposalContext> retired = contextStore.headMap(retiredIndex, true);
+            int retiredContexts = retired.size();  // also catches a context recreated by a late message
+            retired.clear();
+
+            if (retiredProposals > 0 || retiredContexts > 0) {
+                ServerLogger.debug(node.getNodeId(),
+                        "Context GC - Retired {} instances up to slot {} and {} proposals, {} instances and {} retired proposals kept",
+                        retiredContexts, retiredIndex, retiredProposals, contextStore.size(), log.getRetiredProposalCount());
+            }
+        } catch (Exception e) {
+            ServerLogger.warn(node.getNodeId(), "Context GC - Error retiring instances: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * The highest slot every node has applied, 0 until every other node has reported.
+     */
+    private long learnedByAll(long appliedIndex) {
+        long learned = appliedIndex;
+        for (String otherNodeId : node.getOtherNodeIds()) {
+            Long reported = appliedIndexes.get(otherNodeId);
+            if (reported == null) return 0;
+            learned = Math.min(learned, reported);
+        }
+        return learned;
+    }
+}
@@ -0,0 +1,46 @@
+package com.liyang.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Keeps the pairs in a ConcurrentHashMap on the Java heap.
+ */
+public class HeapStorageEngine implements StorageEngine {
+    private final ConcurrentHashMap<String, String> map = new ConcurrentHashMap<>();
+
+    @Override
+    public String get(String key) {
+        return map.get(key);
+    }
+
+    @Override
+    public void put(String key, String value) {
+        map.put(key, value);
+    }
+
+    @Override
+    public void remove(String key) {
+        map.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        map.clear();
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, String> action) {
+        map.forEach(action);
+    }
+
+    @Override
+    public long size() {
+        return map.mappingCount();
+    }
+
+    @Override
+    public boolean isParallelWritable() {
+        return true;
+    }
+}
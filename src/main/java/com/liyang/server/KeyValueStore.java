@@ -1,48 +1,228 @@
 package com.liyang.server;
 
-import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 /**
- * A thread-safe key-value store using ConcurrentHashMap for storing data.
+ * A thread-safe key-value store keeping its pairs in a {@link StorageEngine} chosen by STORAGE_ENGINE.
+ * A read-write lock lets a group of writes be applied atomically, readers never see part of it.
+ * A point-in-time view for snapshots is kept copy-on-write: while one is open,
+ * the first write to a key saves the value it replaces, so writes never wait for the snapshot.
  */
 public class KeyValueStore {
-    private final ConcurrentHashMap<String, String> store = new ConcurrentHashMap<>();
+    private static final String ABSENT = new String("absent");  // pre-image of a key created after the view was opened, compared by identity
+
+    private final StorageEngine store;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile Map<String, String> preImages = null;  // values replaced since the open view was taken
+
+    public KeyValueStore() {
+        this(StorageEngineType.fromEnv().create());
+    }
+
+    public KeyValueStore(StorageEngine store) {
+        this.store = store;
+    }
 
     /**
      * Store the key-value pair.
      */
     public void put(String key, String value) {
-        store.put(key, value);
-
+        lock.writeLock().lock();
+        try {
+            savePreImage(key);
+            store.put(key, value);
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     /**
      * Retrieve the value for the key, or a default message.
      */
     public String get(String key) {
-        return store.getOrDefault(key, "Key not found");
+        lock.readLock().lock();
+        try {
+            String value = store.get(key);
+            return value == null ? "Key not found" : value;
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
      * Remove the key-value pair if the key exists.
      */
     public void delete(String key) {
-        store.remove(key);
+        lock.writeLock().lock();
+        try {
+            savePreImage(key);
+            store.remove(key);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Apply PUT and DELETE operations in order as one atomic step.
+     */
+    public void applyAll(List<Operation> operations) {
+        lock.writeLock().lock();
+        try {
+            for (Operation operation : operations) applyOne(operation);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Apply partitions of operations as one atomic step, the first on the calling thread and the others on the executor.
+     * No key may appear in two partitions; within a partition operations apply in order.
+     * Returns once every partition is applied, rethrowing the first failure.
+     * An engine that serializes writes itself gets all partitions on the calling thread, workers would only queue.
+     */
+    public void applyPartitioned(List<List<Operation>> partitions, Executor executor) {
+        lock.writeLock().lock();
+        try {
+            if (!store.isParallelWritable()) {
+                for (List<Operation> partition : partitions) partition.forEach(this::applyOne);
+                return;
+            }
+            CompletableFuture<?>[] others = new CompletableFuture<?>[partitions.size() - 1];
+            for (int i = 1; i < partitions.size(); i++) {
+                List<Operation> partition = partitions.get(i);
+                others[i - 1] = CompletableFuture.runAsync(() -> partition.forEach(this::applyOne), executor);
+            }
+            try {
+                partitions.get(0).forEach(this::applyOne);
+            } finally {
+                CompletableFuture.allOf(others).join();  // never release the lock while a worker still writes
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Called with the write lock held, by the owner or on its behalf by a worker owning the key.
+     */
+    private void applyOne(Operation operation) {
+        savePreImage(operation.getKey());
+        switch (operation.getOperationType()) {
+            case PUT -> store.put(operation.getKey(), operation.getValue());
+            case DELETE -> store.remove(operation.getKey());
+            default -> { }
+        }
+    }
+
+    /**
+     * Replace the whole content of the store with the pairs the source produces, as when a snapshot is loaded.
+     */
+    public void restore(Consumer<BiConsumer<String, String>> source) {
+        lock.writeLock().lock();
+        try {
+            store.clear();
+            source.accept(store::put);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Opens a view of the store as it is now, which stays unchanged while later writes go ahead.
+     * Only one view may be open at a time, and it must be closed once read.
+     */
+    public SnapshotView openSnapshotView() {
+        lock.writeLock().lock();
+        try {
+            if (preImages != null) throw new IllegalStateException("A snapshot view is already open");
+            preImages = new ConcurrentHashMap<>();
+            return new SnapshotView(preImages);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Saves the value a write is about to replace, if a view is open and the key has not been written since.
+     * Called with the write lock held and each key written by one thread at a time, so writers never race on the same pre-image.
+     */
+    private void savePreImage(String key) {
+        Map<String, String> saved = preImages;
+        if (saved == null || key == null || saved.containsKey(key)) return;
+        String current = store.get(key);
+        saved.put(key, current == null ? ABSENT : current);
+    }
+
+    /**
+     * Whether the engine keeps keys in order, so a scan seeks to its range instead of reading the whole store.
+     */
+    public boolean isScannable() {
+        return store.isOrdered();
     }
 
     /**
-     * Retrieve all key-value pairs in the store.
+     * One page of the pairs with keys in [startKey, endKey), at most pageSize of them in key order,
+     * read in one atomic step. A null bound leaves that end of the range open.
+     * The page names the key the next one starts at, so a range of any size is read with bounded memory.
+     * Only an ordered engine can scan, see {@link #isScannable()}.
      */
-    public List<String> getAll() {
-        List<String> keyValuePairs = new ArrayList<>();
-        for (Map.Entry<String, String> entry : store.entrySet()) {
-            String key = entry.getKey();
-            String value = entry.getValue();
-            keyValuePairs.add(key + "->" + value);
+    public ScanPage scan(String startKey, String endKey, int pageSize) {
+        if (!store.isOrdered()) throw new UnsupportedOperationException("Range scans need STORAGE_ENGINE=ORDERED");
+        Map<String, String> entries = new LinkedHashMap<>();
+        String[] nextKey = {null};
+        lock.readLock().lock();
+        try {
+            store.scan(startKey, endKey, pageSize + 1, (key, value) -> {  // one past the page tells whether more follow
+                if (entries.size() < pageSize) entries.put(key, value);
+                else nextKey[0] = key;
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+        return new ScanPage(entries, nextKey[0]);
+    }
+
+    /**
+     * The content of the store at the time the view was opened.
+     */
+    public class SnapshotView implements AutoCloseable {
+        private final Map<String, String> saved;
+
+        private SnapshotView(Map<String, String> saved) {
+            this.saved = saved;
+        }
+
+        /**
+         * Visits every pair of the view. Keys untouched since the view was opened are read from the store,
+         * the others from their pre-images. A key written while the visit runs may be visited twice,
+         * both times with its value in the view.
+         */
+        public void forEach(BiConsumer<String, String> action) {
+            store.forEach((key, value) -> {
+                if (!saved.containsKey(key)) action.accept(key, value);  // checked after the read, so the value predates any write
+            });
+            for (Map.Entry<String, String> entry : saved.entrySet()) {
+                if (entry.getValue() != ABSENT) action.accept(entry.getKey(), entry.getValue());
+            }
+        }
+
+        @Override
+        public void close() {
+            lock.writeLock().lock();
+            try {
+                if (preImages == saved) preImages = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
         }
-        return keyValuePairs;
     }
 }
@@ -0,0 +1,46 @@
+package com.liyang.server;
+
+import com.liyang.common.LatencyHistogram;
+import lombok.Getter;
+
+import javax.management.ConstructorParameters;
+
+
+/**
+ * Percentiles of a {@link LatencyHistogram} in microseconds, as published over JMX.
+ */
+@Getter
+public class LatencySummary {
+    private final long count;
+    private final double mean;
+    private final double p50;
+    private final double p90;
+    private final double p99;
+    private final double p999;
+    private final double max;
+
+    @ConstructorParameters({"count", "mean", "p50", "p90", "p99", "p999", "max"})
+    public LatencySummary(long count, double mean, double p50, double p90, double p99, double p999, double max) {
+        this.count = count;
+        this.mean = mean;
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.p999 = p999;
+        this.max = max;
+    }
+
+    /**
+     * Summarises a histogram of nanoseconds.
+     */
+    public static LatencySummary of(LatencyHistogram histogram) {
+        return new LatencySummary(
+                histogram.getCount(),
+                histogram.getMean() / 1e3,
+                histogram.getValueAtPercentile(50) / 1e3,
+                histogram.getValueAtPercentile(90) / 1e3,
+                histogram.getValueAtPercentile(99) / 1e3,
+                histogram.getValueAtPercentile(99.9) / 1e3,
+                histogram.getMax() / 1e3);
+    }
+}
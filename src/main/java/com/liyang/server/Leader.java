@@ -0,0 +1,539 @@
+package com.liyang.server;
+
+import com.liyang.common.ServerConfig;
+import com.liyang.paxosNode.PaxosNode;
+
+import java.rmi.RemoteException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Implements the distinguished proposer of Multi-Paxos.
+ * A node wins a ballot once through a PREPARE round that covers every undecided log slot,
+ * then assigns slots to new operations and streams ACCEPT requests for them without a per-operation PREPARE.
+ * With every heartbeat the leader also asks for a read lease: while a majority has granted one,
+ * no other node can be elected, so the leader serves linearizable reads from its own store.
+ */
+public class Leader {
+    private final PaxosNodeImpl node;
+    private final Map<Long, ProposalContext> contextStore;
+    private final ReplicatedLog log;
+    private final Proposer proposer;
+    private final Object electionLock = new Object();
+    private final Map<String, Boolean> promisedNodes = new ConcurrentHashMap<>();
+    private final Map<Long, AcceptedInstance> recoveredInstances = new ConcurrentHashMap<>();
+    private final Map<Long, PaxosMessage> abandonedSlots = new ConcurrentHashMap<>();  // ACCEPTs of timed-out writes, until repaired
+    private final AtomicLong nextSlot = new AtomicLong(1);
+    private final long heartbeatInterval = ServerConfig.getLong("HEARTBEAT_INTERVAL", 500);
+    private final long leaderTimeout = ServerConfig.getLong("LEADER_TIMEOUT", 2000);
+    private final long leaseDurationNanos = TimeUnit.MILLISECONDS.toNanos(ServerConfig.getLong("READ_LEASE_DURATION", 1500));
+    private final long leaderLeaseNanos;  // the lease as the leader counts it, short enough for any drift within the bound
+    private final Map<String, Long> leaseGrants = new ConcurrentHashMap<>();  // latest lease request granted by each node, on this node's clock
+    private volatile ProposalNumber ballot = null;  // the ballot this node campaigns with or leads under
+    private volatile boolean leading = false;
+    private volatile ProposalNumber leaderBallot = null;  // the highest ballot observed from another node
+    private volatile long lastHeartbeatMillis = 0;
+    private volatile int highestSequenceNumber = 0;
+    private volatile CompletableFuture<Boolean> electionOutcome = null;  // completes when the running election is won or lost
+    private volatile ProposalNumber leaseBallot = null;  // the ballot the read lease was granted to
+    private volatile long leaseStartNanos = 0;  // when the latest lease request granted by a majority was sent
+    private volatile long leadingSinceNanos = 0;  // when this node was last elected
+    private volatile boolean readable = false;  // every slot left by earlier leaders has been finished
+    private volatile long readBarrierSlot = 0;  // reads wait for the store to apply up to here
+    private ScheduledFuture<?> heartbeats = null;
+
+    public Leader(PaxosNodeImpl node, Map<Long, ProposalContext> contextStore, ReplicatedLog log, Proposer proposer) {
+        this.node = node;
+        this.contextStore = contextStore;
+        this.log = log;
+        this.proposer = proposer;
+        double drift = ServerConfig.getDouble("CLOCK_DRIFT_BOUND", 0.05);
+        this.leaderLeaseNanos = (long) (leaseDurationNanos * (1 - drift) / (1 + drift));
+    }
+
+    public boolean isLeading() {
+        return leading;
+    }
+
+    /**
+     * The ID of the node this node believes leads, null if its heartbeats are stale or no leader was elected yet.
+     */
+    public String getLeaderId() {
+        if (leading) return node.getNodeId();
+        ProposalNumber observed = leaderBallot;
+        return observed != null && isLeaderAlive() ? observed.getNodeId() : null;
+    }
+
+    /**
+     * The ballot this node campaigns with or leads under, null before its first election.
+     */
+    ProposalNumber getBallot() {
+        return ballot;
+    }
+
+    /**
+     * The last slot left by earlier leaders, which a read must see applied.
+     */
+    long getReadBarrierSlot() {
+        return readBarrierSlot;
+    }
+
+    public boolean isReadLeaseEnabled() {
+        return node.getReadMode() == ReadMode.LEASE;
+    }
+
+    /**
+     * How long a node that granted a read lease refuses to promise any other leader candidate.
+     */
+    long getLeaseDurationNanos() {
+        return leaseDurationNanos;
+    }
+
+    /**
+     * Whether this node may serve reads from its own store: it leads, has finished the slots of earlier leaders,
+     * and a majority granted its lease recently enough that no other node can have been elected.
+     */
+    public boolean hasReadLease() {
+        return leading && readable && leaseBallot == ballot && System.nanoTime() - leaseStartNanos < leaderLeaseNanos;
+    }
+
+    /**
+     * Waits until this node may serve reads, having finished the slots of earlier leaders
+     * and, with read leases on, holding the lease.
+     * Returns the slot the store must have applied before a read reflects every write acknowledged so far.
+     */
+    public long awaitReadable(long timeoutMillis) throws RemoteException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (this) {
+            while (isReadLeaseEnabled() ? !hasReadLease() : !(leading && readable)) {
+                if (!leading) throw new RemoteException("Deposed while waiting to serve a read");
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) throw new RemoteException("Not ready to serve reads within " + timeoutMillis + " ms");
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RemoteException("Interrupted while waiting to serve a read");
+                }
+            }
+            return readBarrierSlot;
+        }
+    }
+
+    /**
+     * Returns the node that should handle a write: this node if it leads,
+     * the current leader if its heartbeats are fresh, or the winner of a new election.
+     */
+    public PaxosNode ensureLeader() throws RemoteException {
+        synchronized (electionLock) {
+            if (leading) return node;
+
+            if (isLeaderAlive()) {
+                PaxosNode leaderNode = node.findNode(leaderBallot.getNodeId());
+                if (leaderNode != null) return leaderNode;
+            }
+
+            elect();
+            if (leading) return node;
+
+            // Lost the election to a higher ballot, forward to its owner
+            if (leaderBallot != null) {
+                PaxosNode leaderNode = node.findNode(leaderBallot.getNodeId());
+                if (leaderNode != null) return leaderNode;
+            }
+            throw new RemoteException("No Multi-Paxos leader could be elected");
+        }
+    }
+
+    /**
+     * Marks the current leader as unreachable so the next write triggers an election.
+     */
+    public void suspectLeader() {
+        lastHeartbeatMillis = 0;
+    }
+
+    /**
+     * Replicates an operation in a new log slot with ACCEPT rounds under the leader ballot,
+     * repeating the round until the slot is decided, this node is deposed, or the deadline passes.
+     * A slot can still be decided for another operation, when a leader that has not noticed it was deposed
+     * raced the recovery of its successor; the operation then moves on to a new slot.
+     * A slot given up on the deadline is remembered for {@link #repairAbandoned}, as no later write will fill it.
+     * Returns the slot the operation was chosen in.
+     */
+    public long replicate(Operation operation, long deadline) throws RemoteException {
+        while (true) {
+            Long chosenSlot = log.getSlotOf(operation.getProposalId());
+            if (chosenSlot != null) return chosenSlot;  // already chosen through an earlier attempt
+
+            long slot = nextSlot.getAndIncrement();
+            PaxosMessage request = initiateProposal(slot, operation);
+            try {
+                replicateSlot(request, deadline);
+            } catch (RemoteException e) {
+                if (leading) abandonedSlots.put(slot, request);
+                throw e;
+            }
+            Operation decided = log.getDecided(slot);
+            if (decided == null || decided.getProposalId().equals(operation.getProposalId())) return slot;
+            ServerLogger.info(node.getNodeId(), "Leader - Slot {} was chosen for another operation, moving to the next slot", slot);
+        }
+    }
+
+    /**
+     * Runs phase 1 for every slot the node has not seen decided, with a ballot higher than any seen so far.
+     * Values the acceptors already accepted are re-proposed under the new ballot once elected.
+     */
+    private void elect() throws RemoteException {
+        awaitGrantedLease();
+        ProposalNumber electionBallot;
+        synchronized (this) {
+            electionBallot = new ProposalNumber(highestSequenceNumber + 1, node.getNodeId());
+            highestSequenceNumber = electionBallot.getSequenceNumber();
+            ballot = electionBallot;
+            promisedNodes.clear();
+            recoveredInstances.clear();
+            abandonedSlots.clear();  // the election recovers every undecided slot
+            leaseGrants.clear();
+            readable = false;
+            electionOutcome = new CompletableFuture<>();
+        }
+        CompletableFuture<Boolean> outcome = electionOutcome;
+        long fromSlot = log.getFirstUndecidedSlot();
+        ServerLogger.info(node.getNodeId(), "Leader - Starting election with ballot {} from slot {}", electionBallot, fromSlot);
+
+        PaxosMessage prepareRequest = new PaxosMessage(
+                fromSlot,  // covers this slot and every later one
+                PaxosMessageType.PREPARE,
+                electionBallot,
+                node.getNodeId(),
+                null, // set when sending request
+                null
+        );
+
+        long electionStartNanos = System.nanoTime();
+        proposer.sendToAllAcceptors(prepareRequest, PaxosMessageType.PREPARE);
+
+        // Promises arrive asynchronously, the election is decided by the first majority of them
+        boolean won;
+        try {
+            won = outcome.get(node.getRoundTimeout(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            node.getMetrics().countTimeout();
+            won = false;
+        } catch (ExecutionException | InterruptedException e) {
+            won = false;
+        }
+        if (won) node.getMetrics().recordPreparePhase(electionStartNanos);
+
+        if (won && leading && ballot == electionBallot) {
+            recover(fromSlot);
+            markReadable(electionBallot);
+        }
+    }
+
+    /**
+     * Waits until the read lease this node granted to another leader has run out, plus the drift margin,
+     * since the other nodes granted that lease at about the same time and would ignore the election until then.
+     * A leader that cannot reach a majority stops renewing within a lease duration, see {@link #sendHeartbeats()},
+     * so a lease still renewed after that belongs to a live leader and the election goes ahead to find it.
+     */
+    private void awaitGrantedLease() throws RemoteException {
+        long deadline = System.nanoTime() + 2 * leaseDurationNanos + TimeUnit.MILLISECONDS.toNanos(heartbeatInterval);
+        long remaining;
+        while ((remaining = node.getAcceptor().leaseRemainingNanos(node.getNodeId())) > 0 && System.nanoTime() < deadline) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(remaining + leaseDurationNanos - leaderLeaseNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RemoteException("Interrupted while waiting for the read lease of the previous leader to run out");
+            }
+        }
+    }
+
+    /**
+     * Processes COMMIT replies to an election PREPARE.
+     * Collects the highest-numbered accepted value of every slot and becomes leader on a majority.
+     */
+    public void handlePromiseReply(PaxosMessage reply) throws RemoteException {
+        ServerLogger.debug(node.getNodeId(), "Leader - Received COMMIT rely from acceptor {}:\n{}", reply.getFromNodeId(), reply);
+
+        ProposalNumber electionBallot = ballot;
+        if (leading || electionBallot == null || reply.getProposalNumber().compareTo(electionBallot) != 0) {
+            ServerLogger.debug(node.getNodeId(), "Leader - Reply ignored: not campaigning with ballot {}", reply.getProposalNumber());
+            return;
+        }
+
+        for (AcceptedInstance instance : reply.getAcceptedInstances()) {
+            recoveredInstances.merge(instance.getSlot(), instance,
+                    (current, other) -> current.getAcceptedProposalNumber().compareTo(other.getAcceptedProposalNumber()) >= 0 ? current : other);
+        }
+        promisedNodes.put(reply.getFromNodeId(), Boolean.TRUE);
+
+        if (promisedNodes.size() > node.getClusterSize() / 2) {
+            becomeLeader(electionBallot);
+        }
+    }
+
+    /**
+     * Handles REJECT replies to an election PREPARE or a steady-state ACCEPT:
+     * a higher ballot exists, so this node steps down in favour of its owner.
+     */
+    public void handleRejectReply(PaxosMessage reply) throws RemoteException {
+        ServerLogger.debug(node.getNodeId(), "Leader - Received REJECT rely from acceptor {}:\n{}", reply.getFromNodeId(), reply);
+        node.getMetrics().countReject();
+        observeBallot(reply.getProposalNumber());
+    }
+
+    /**
+     * Handles HEARTBEAT messages that a leader sends periodically to keep followers from starting elections.
+     * The heartbeat also carries the leader's highest decided slot, so a follower notices slots it missed.
+     */
+    public void handleHeartbeat(PaxosMessage heartbeat) {
+        observeBallot(heartbeat.getProposalNumber());
+        log.observeDecidedSlot(heartbeat.getSlot());
+    }
+
+    /**
+     * Handles a LEASE_GRANT reply. The lease starts when the request was sent rather than when it was granted,
+     * and holds from the latest request granted by a majority, this node included.
+     */
+    public synchronized void handleLeaseGrant(PaxosMessage grant) {
+        if (!leading || ballot == null || grant.getProposalNumber().compareTo(ballot) != 0) return;
+        leaseGrants.merge(grant.getFromNodeId(), grant.getSlot(), (current, other) -> other - current > 0 ? other : current);
+
+        int needed = node.getClusterSize() / 2;  // grants from other nodes needed for a majority
+        long[] starts = node.getOtherNodeIds().stream()
+                .map(leaseGrants::get)
+                .filter(Objects::nonNull)
+                .mapToLong(Long::longValue)
+                .sorted()
+                .toArray();
+        if (starts.length < needed) return;
+
+        long start = starts[starts.length - needed];
+        if (leaseBallot != ballot || start - leaseStartNanos > 0) {
+            leaseStartNanos = start;
+            leaseBallot = ballot;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Records a ballot seen in any PREPARE, ACCEPT, REJECT or HEARTBEAT.
+     * A ballot from another node at least as high as the known leader's refreshes that leader,
+     * and one higher than this node's own ballot deposes it.
+     */
+    public synchronized void observeBallot(ProposalNumber observed) {
+        highestSequenceNumber = Math.max(highestSequenceNumber, observed.getSequenceNumber());
+
+        if (observed.getNodeId().equals(node.getNodeId())) return;
+
+        if (leaderBallot == null || observed.compareTo(leaderBallot) >= 0) {
+            leaderBallot = observed;
+            lastHeartbeatMillis = System.currentTimeMillis();
+        }
+
+        if (ballot != null && observed.compareTo(ballot) > 0) {
+            if (leading) {
+                ServerLogger.info(node.getNodeId(), "Leader - Stepping down: observed higher ballot {}", observed);
+            }
+            stepDown();
+        }
+    }
+
+    private synchronized void stepDown() {
+        leading = false;
+        readable = false;
+        leaseBallot = null;
+        stopHeartbeats();
+        if (electionOutcome != null) electionOutcome.complete(false);
+        notifyAll();  // readers waiting for the lease give up
+    }
+
+    /**
+     * Builds an ACCEPT request for an operation in the given slot under the current leader ballot,
+     * skipping phase 1 entirely.
+     */
+    private PaxosMessage initiateProposal(long slot, Operation operation) {
+        ProposalContext context = contextStore.computeIfAbsent(slot, ProposalContext::new);
+        context.setLargestProposalNumber(ballot);
+        context.setCommitConsensus(true);  // phase 1 was won once for all slots at election
+        context.setPhaseStartNanos(System.nanoTime());
+
+        PaxosMessage proposal = new PaxosMessage(
+                slot,
+                PaxosMessageType.ACCEPT,
+                ballot,
+                node.getNodeId(),
+                null,
+                operation
+        );
+        ServerLogger.debug(node.getNodeId(), "Leader - Initiated a new proposal:\n{}", proposal);
+
+        return proposal;
+    }
+
+    /**
+     * Sends ACCEPT requests for one slot to all Acceptors until the slot is decided,
+     * giving each round the round timeout to gather a majority before resending.
+     */
+    private void replicateSlot(PaxosMessage request, long deadline) throws RemoteException {
+        while (!log.isDecided(request.getSlot())) {
+            if (!leading) {
+                throw new RemoteException("Deposed while replicating slot " + request.getSlot());
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new RemoteException("Timed out replicating slot " + request.getSlot());
+            }
+            proposer.sendToAllAcceptors(request, PaxosMessageType.ACCEPT);
+            try {
+                if (!log.awaitDecided(request.getSlot(), node.getRoundTimeout())) node.getMetrics().countTimeout();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RemoteException("Interrupted while replicating slot " + request.getSlot());
+            }
+        }
+    }
+
+    /**
+     * Finishes a slot a timed-out write left undecided, which would otherwise stall every applier on it.
+     * The slot is re-sent with the operation it was given rather than a no-op: a majority may already have
+     * accepted that operation, and one ballot must never propose two values for a slot.
+     * Should the client have retried the operation meanwhile, the copy in the later slot is applied once only.
+     * Returns false if this node no longer leads under the ballot the slot was proposed with, or never gave it up.
+     */
+    public boolean repairAbandoned(long slot, long deadline) throws RemoteException {
+        PaxosMessage request = abandonedSlots.get(slot);
+        if (request == null || !leading || request.getProposalNumber() != ballot) return false;
+
+        ServerLogger.info(node.getNodeId(), "Leader - Repairing slot {} abandoned by a timed-out write", slot);
+        try {
+            replicateSlot(request, deadline);
+        } finally {
+            if (log.isDecided(slot)) abandonedSlots.remove(slot, request);
+        }
+        return true;
+    }
+
+    private synchronized void becomeLeader(ProposalNumber electionBallot) {
+        if (leading || ballot != electionBallot) return;
+
+        ServerLogger.info(node.getNodeId(), "Leader - Elected leader with ballot {}! Received COMMIT replies from majority of acceptors", electionBallot);
+        leading = true;
+        leadingSinceNanos = System.nanoTime();
+        startHeartbeats();
+        electionOutcome.complete(true);
+    }
+
+    /**
+     * Finishes every slot from fromSlot up to the highest slot reported by the promising majority:
+     * a reported value is re-proposed under the new ballot so it stays chosen,
+     * and a slot nobody in the majority accepted cannot have been chosen, so it is filled with a no-op.
+     */
+    private void recover(long fromSlot) throws RemoteException {
+        long lastSlot = Math.max(log.getHighestDecidedSlot(),
+                recoveredInstances.keySet().stream().mapToLong(Long::longValue).max().orElse(0));
+        nextSlot.set(Math.max(fromSlot, lastSlot + 1));
+
+        long deadline = System.currentTimeMillis() + node.getConsensusTimeout();
+        for (long slot = fromSlot; slot <= lastSlot; slot++) {
+            if (log.isDecided(slot)) continue;
+
+            AcceptedInstance instance = recoveredInstances.get(slot);
+            Operation operation = instance != null ? instance.getOperation() : Operation.noop();
+            ServerLogger.info(node.getNodeId(), "Leader - Recovering slot {} left undecided by a previous leader: {}", slot, operation);
+            replicateSlot(initiateProposal(slot, operation), deadline);
+        }
+        recoveredInstances.clear();
+    }
+
+    private synchronized boolean isLeaseLost() {
+        long confirmedNanos = leaseBallot == ballot ? leaseStartNanos : leadingSinceNanos;
+        return System.nanoTime() - confirmedNanos > leaseDurationNanos;
+    }
+
+    private synchronized void markReadable(ProposalNumber electionBallot) {
+        if (!leading || ballot != electionBallot) return;
+        readBarrierSlot = nextSlot.get() - 1;
+        readable = true;
+        notifyAll();
+    }
+
+    private boolean isLeaderAlive() {
+        return leaderBallot != null && System.currentTimeMillis() - lastHeartbeatMillis < leaderTimeout;
+    }
+
+    private void startHeartbeats() {
+        stopHeartbeats();
+        heartbeats = node.getExecutors().getScheduler().scheduleAtFixedRate(this::sendHeartbeats, 0, heartbeatInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private void stopHeartbeats() {
+        if (heartbeats != null) {
+            heartbeats.cancel(false);
+            heartbeats = null;
+        }
+    }
+
+    /**
+     * Sends a heartbeat and a lease request to every other node.
+     * With read leases on, a leader no majority has granted a lease for a whole lease duration steps down,
+     * otherwise its requests alone would keep the other nodes from electing a leader they can reach.
+     */
+    private void sendHeartbeats() {
+        ProposalNumber heartbeatBallot = ballot;
+        if (!leading) return;
+        if (isReadLeaseEnabled() && isLeaseLost()) {
+            ServerLogger.info(node.getNodeId(), "Leader - Stepping down: no majority granted a read lease for {} ms",
+                    TimeUnit.NANOSECONDS.toMillis(leaseDurationNanos));
+            stepDown();
+            return;
+        }
+
+        for (String otherNodeId : node.getOtherNodeIds()) {
+            PaxosMessage heartbeat = new PaxosMessage(
+                    log.getHighestDecidedSlot(),
+                    PaxosMessageType.HEARTBEAT,
+                    heartbeatBallot,
+                    node.getNodeId(),
+                    otherNodeId,
+                    null
+            );
+            // A follower being down is expected, it catches up through the next heartbeat
+            node.sendMessage(heartbeat);
+        }
+        if (isReadLeaseEnabled()) requestLease(heartbeatBallot);
+    }
+
+    /**
+     * Asks every other node for a read lease, after granting one to itself.
+     * The request carries the time it was sent, which each grant echoes back.
+     */
+    private void requestLease(ProposalNumber leaseRequestBallot) {
+        long sentNanos = System.nanoTime();
+        if (!node.getAcceptor().grantLease(leaseRequestBallot)) return;  // a higher ballot was promised, about to step down
+
+        if (node.getClusterSize() == 1) {
+            synchronized (this) {
+                if (!leading || ballot != leaseRequestBallot) return;
+                leaseStartNanos = sentNanos;
+                leaseBallot = leaseRequestBallot;
+                notifyAll();
+            }
+            return;
+        }
+        for (String otherNodeId : node.getOtherNodeIds()) {
+            node.sendMessage(new PaxosMessage(
+                    sentNanos,
+                    PaxosMessageType.LEASE,
+                    leaseRequestBallot,
+                    node.getNodeId(),
+                    otherNodeId,
+                    null
+            ));
+        }
+    }
+}
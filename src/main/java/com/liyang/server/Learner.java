@@ -1,47 +1,113 @@
 package com.liyang.server;
 
+import com.liyang.common.ServerConfig;
+
 import java.rmi.RemoteException;
 import java.util.*;
 
 
 /**
  * Responsible for finalizing the consensus process by receiving notifications of accepted proposals,
- * confirming when a majority is achieved, and ensuring the system learns the agreed-upon values.
+ * confirming when a majority is achieved, and recording the agreed-upon operation in the replicated log.
  */
 public class Learner {
     private final PaxosNodeImpl node;
-    private final Map<UUID, ProposalContext> contextStore;
+    private final Map<Long, ProposalContext> contextStore;
+    private final ReplicatedLog log;
+    private final int catchupBatchSize = ServerConfig.getInt("CATCHUP_BATCH_SIZE", 1024);
 
-    public Learner(PaxosNodeImpl node, Map<UUID, ProposalContext> contextStore) {
+    public Learner(PaxosNodeImpl node, Map<Long, ProposalContext> contextStore, ReplicatedLog log) {
         this.node = node;
         this.contextStore = contextStore;
+        this.log = log;
     }
 
     /**
      * Handles notifications of accepted proposals,
-     * verifying if a majority has been reached and setting the final operation accordingly.
+     * verifying if a majority accepted the same proposal number and deciding the slot accordingly.
      */
     public void handleAcceptedNotification(PaxosMessage notification) throws RemoteException {
 
-        ServerLogger.log(node.getNodeId(), "Learner - Received ACCEPTED notification from acceptor " + notification.getFromNode().getNodeId() + ":\n" + notification);
+        ServerLogger.debug(node.getNodeId(), "Learner - Received ACCEPTED notification from acceptor {}:\n{}", notification.getFromNodeId(), notification);
+
+        long slot = notification.getSlot();
+        if (slot <= log.getAppliedIndex()) return;  // already learned, and its instance may be retired
+
+        ProposalContext context = contextStore.computeIfAbsent(slot, ProposalContext::new);
+        Operation finalOperation;
+        synchronized (context) {
+            if (context.isAcceptedConsensus()) return;
 
-        UUID proposalId = notification.getProposalId();
-        ProposalContext context = contextStore.get(proposalId);
-        context.addAcceptedNode(notification.getFromNode());
-        node.updateContextStore(proposalId, context);
+            // Only acceptances of the same proposal number count towards a majority
+            ProposalNumber proposalNumber = notification.getProposalNumber();
+            ProposalNumber learningNumber = context.getLearningProposalNumber();
+            if (learningNumber != null && proposalNumber.compareTo(learningNumber) < 0) return;
+            if (learningNumber == null || proposalNumber.compareTo(learningNumber) > 0) {
+                context.clearAcceptedNodes();
+                context.setLearningProposalNumber(proposalNumber);
+            }
 
-        // Check if this acceptance leads to a majority
-        if (context.achieveMajorityAccepted(node.getOtherNodes().size() + 1)) {
-            ServerLogger.log(node.getNodeId(), "Learner - Achieved consensus! Received ACCEPTED notifications from majority of acceptors");
+            context.addAcceptedNode(notification.getFromNodeId());
+
+            // Check if this acceptance leads to a majority
+            if (!context.achieveMajorityAccepted(node.getClusterSize())) return;
+
+            ServerLogger.debug(node.getNodeId(), "Learner - Achieved consensus! Received ACCEPTED notifications from majority of acceptors");
             context.setAcceptedConsensus(true);
+            if (context.getPhaseStartNanos() != 0) {  // this node proposed the value
+                node.getMetrics().recordAcceptPhase(context.getPhaseStartNanos());
+                context.setPhaseStartNanos(0);
+            }
 
-            Operation finalOperation = new Operation(
-                    notification.getOperationType(),
-                    notification.getKey(),
-                    notification.getValue()
-            );
+            finalOperation = notification.getOperation();
             context.setFinalOperation(finalOperation);
-            node.updateContextStore(proposalId, context);
         }
+        log.decide(slot, finalOperation);
+    }
+
+    /**
+     * Answers another learner asking for a slot it missed,
+     * replying with the decided operations of that slot and up to CATCHUP_BATCH_SIZE slots after it,
+     * since a learner missing one slot usually misses the ones that follow,
+     * or with the snapshot if the slot has been truncated from the log.
+     */
+    public void handleCatchupRequest(PaxosMessage request) {
+        long toSlot = Math.min(request.getSlot() + catchupBatchSize - 1, log.getHighestDecidedSlot());
+        catchUp(request.getFromNodeId(), request.getSlot(), Math.max(request.getSlot(), toSlot));
+    }
+
+    /**
+     * Sends another node the operations decided in a range of slots,
+     * or the snapshot if the range starts in slots that have been truncated from the log.
+     */
+    public void catchUp(String toNodeId, long fromSlot, long toSlot) {
+        if (fromSlot <= log.getSnapshotIndex()) {
+            node.getSnapshotManager().sendSnapshot(toNodeId);
+            return;
+        }
+
+        for (long slot = fromSlot; slot <= toSlot; slot++) {
+            Operation decided = log.getDecided(slot);
+            if (decided == null) continue;
+
+            PaxosMessage reply = new PaxosMessage(
+                    slot,
+                    PaxosMessageType.DECIDED,
+                    null,
+                    node.getNodeId(),
+                    toNodeId,
+                    decided
+            );
+            ServerLogger.debug(node.getNodeId(), "Learner - Sending decided slot {} to learner {}", slot, toNodeId);
+            node.sendOneWay(reply);
+        }
+    }
+
+    /**
+     * Records a slot decision learned from another learner. Decisions are final, so it can be taken as is.
+     */
+    public void handleDecidedNotification(PaxosMessage notification) {
+        ServerLogger.debug(node.getNodeId(), "Learner - Learned decided slot {} from another learner: {}", notification.getSlot(), notification.getOperation());
+        log.decide(notification.getSlot(), notification.getOperation());
     }
 }
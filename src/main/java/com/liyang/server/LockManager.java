@@ -1,53 +1,116 @@
 package com.liyang.server;
 
-import java.util.concurrent.ConcurrentHashMap;
+import com.liyang.common.ServerConfig;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Handles the acquisition and release of locks on keys to ensure that
  * concurrent operations on the same key are executed safely.
+ * Keys hash onto a fixed number of lock stripes, LOCK_STRIPES, so memory stays bounded however many keys are written;
+ * two keys sharing a stripe are serialized together, which only costs throughput.
+ * A released stripe is handed to the longest waiting thread alone rather than waking every waiter.
+ * Locks are reentrant and must be released by the thread that acquired them.
  */
 public class LockManager {
-    private final ConcurrentHashMap<String, Object> locks = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, Boolean> lockStatus = new ConcurrentHashMap<>();
+    private final ReentrantLock[] stripes;
+    private final int mask;
+    private final long defaultTimeout = ServerConfig.getLong("ACQUIRE_LOCK_TIME_OUT", 1000);
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder contendedAcquisitions = new LongAdder();  // had to wait for another holder
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+
+    public LockManager() {
+        this(ServerConfig.getInt("LOCK_STRIPES", 1024));
+    }
+
+    public LockManager(int stripeCount) {
+        int size = Integer.highestOneBit(Math.max(2, stripeCount - 1) << 1);  // next power of two
+        this.stripes = new ReentrantLock[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) stripes[i] = new ReentrantLock(true);
+    }
+
+    /**
+     * Acquires the lock on a key, waiting up to ACQUIRE_LOCK_TIME_OUT milliseconds.
+     */
+    public boolean acquireLock(String key) {
+        return acquireLock(key, defaultTimeout);
+    }
 
     /**
      * Attempts to acquire a lock on a given key.
      * If the lock is already held, it waits for the specified timeout for the lock to become available.
+     * Returns false if the timeout expires or the thread is interrupted.
      */
-    public Object acquireLock(String key, long timeout) {
-        // Create a new lock if not exist
-        Object lock = locks.computeIfAbsent(key, k -> new Object());
-
-        synchronized (lock) {
-            long endTime = System.currentTimeMillis() + timeout;
-            while (lockStatus.getOrDefault(key, false)) {
-                long waitTime = endTime - System.currentTimeMillis();
-                if (waitTime <= 0) {return null;}
-                try {
-                    lock.wait(waitTime);
-                } catch(InterruptedException e) {
-                    // Returns null if the timeout expires or thread is interrupted
-                    Thread.currentThread().interrupt();
-                    return null;
-                }
-            }
-
-            lockStatus.put(key, true); // Mark the lock as held
-            return locks.get(key);
+    public boolean acquireLock(String key, long timeout) {
+        ReentrantLock lock = stripeOf(key);
+        if (lock.tryLock()) {  // barges in when free, ignoring fairness on the fast path
+            acquisitions.increment();
+            return true;
+        }
+
+        contendedAcquisitions.increment();
+        long startNanos = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = lock.tryLock(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
         }
+        waitNanos.add(System.nanoTime() - startNanos);
+        (acquired ? acquisitions : timeouts).increment();
+        return acquired;
     }
 
     /**
-     * Releases the lock held on a given key and notifies all threads waiting for this lock.
+     * Releases the lock held on a given key, handing it to the next waiting thread.
      */
     public void releaseLock(String key) {
-        Object lock = locks.get(key);
-        if (lock != null) {
-            synchronized (lock) {
-                lockStatus.put(key, false);
-                // Once a lock is released, other threads waiting on the lock can proceed
-                lock.notifyAll();
-            }
-        }
+        stripeOf(key).unlock();
+    }
+
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    public long getAcquisitions() {
+        return acquisitions.sum();
+    }
+
+    /**
+     * Acquisitions that found the stripe held and had to wait, successful or not.
+     */
+    public long getContendedAcquisitions() {
+        return contendedAcquisitions.sum();
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * Total time threads spent waiting for a held stripe.
+     */
+    public long getWaitNanos() {
+        return waitNanos.sum();
+    }
+
+    /**
+     * The number of threads waiting for any stripe right now, an estimate.
+     */
+    public int getQueuedThreads() {
+        int queued = 0;
+        for (ReentrantLock stripe : stripes) queued += stripe.getQueueLength();
+        return queued;
+    }
+
+    private ReentrantLock stripeOf(String key) {
+        int hash = key.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & mask];
     }
 }
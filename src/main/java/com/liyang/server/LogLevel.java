@@ -0,0 +1,29 @@
+package com.liyang.server;
+
+import com.liyang.common.ServerConfig;
+
+/**
+ * Severity of a server log message. Messages below the level set by LOG_LEVEL are discarded
+ * before anything is formatted.
+ */
+public enum LogLevel {
+    DEBUG("DEBUG"),
+    INFO("INFO"),
+    WARN("WARN"),
+    ERROR("ERROR");
+
+    private final String level;
+
+    LogLevel(String level) {
+        this.level = level;
+    }
+
+    public static LogLevel fromEnv() {
+        return LogLevel.valueOf(ServerConfig.getString("LOG_LEVEL", "INFO").toUpperCase());
+    }
+
+    @Override
+    public String toString() {
+        return level;
+    }
+}
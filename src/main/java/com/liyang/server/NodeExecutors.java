@@ -0,0 +1,66 @@
+package com.liyang.server;
+
+import com.liyang.common.ServerConfig;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * The thread pools of one physical node, shared by every Paxos group it hosts.
+ * The scheduler runs the periodic work of the groups, heartbeats and context collection,
+ * consensus instances run on virtual threads, and the apply workers take the partitions of large apply batches.
+ * Each group still applies its own log on its own thread, which is what lets several groups apply at once.
+ */
+public class NodeExecutors {
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService proposals;
+    private final ExecutorService applyWorkers;  // null when applies are not split
+    private final int applyWorkerCount;
+
+    public NodeExecutors(String nodeId) {
+        this.scheduler = Executors.newScheduledThreadPool(ServerConfig.getInt("SCHEDULER_THREADS", 2), daemonThreads("scheduler-" + nodeId));
+        // Instances block on round timeouts, virtual threads keep a wide window cheap
+        this.proposals = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("proposal-" + nodeId + "-", 0).factory());
+        this.applyWorkerCount = Math.max(1, ServerConfig.getInt("APPLY_WORKERS", Runtime.getRuntime().availableProcessors()));
+        // the applier thread of a group itself takes the first partition
+        this.applyWorkers = applyWorkerCount > 1 ? Executors.newFixedThreadPool(applyWorkerCount - 1, daemonThreads("apply-worker-" + nodeId)) : null;
+    }
+
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    public ExecutorService getProposals() {
+        return proposals;
+    }
+
+    ExecutorService getApplyWorkers() {
+        return applyWorkers;
+    }
+
+    /**
+     * The number of partitions a large apply batch is split into, the applier thread included.
+     */
+    int getApplyWorkerCount() {
+        return applyWorkerCount;
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+        proposals.shutdownNow();
+        if (applyWorkers != null) applyWorkers.shutdownNow();
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
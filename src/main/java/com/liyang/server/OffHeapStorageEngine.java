@@ -0,0 +1,375 @@
+package com.liyang.server;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Keeps the pairs as UTF-8 bytes in native memory, so a store of tens of millions of keys
+ * holds almost nothing on the Java heap for the GC to trace.
+ * Each pair is one record [int key hash][int key length][int value length][key][value],
+ * placed in a block of a 1 MiB slab. Every slab is cut into blocks of one size class, classes growing by a quarter,
+ * and a freed block goes on the free list of its class for the next record of that class, so memory is reused
+ * without compaction. A record larger than a slab gets a slab of its own, released when the record is.
+ * An open-addressing hash index, also in native memory, maps keys to records by linear probing.
+ * One read-write lock guards the engine, so writes are serialized.
+ */
+public class OffHeapStorageEngine implements StorageEngine {
+    private static final int SLAB_BYTES = 1 << 20;
+    private static final int HASH = 0;
+    private static final int KEY_LENGTH = Integer.BYTES;
+    private static final int VALUE_LENGTH = 2 * Integer.BYTES;
+    private static final int HEADER_BYTES = 3 * Integer.BYTES;
+    private static final int NEXT_FREE = HEADER_BYTES;  // where a free block keeps the reference of the next one
+    private static final int FREE = -1;  // key length of a free block
+    private static final long EMPTY = 0;
+    private static final long DELETED = -1;
+    private static final int[] BLOCK_SIZES = blockSizes();
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED;
+    private static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final long initialCapacity;
+    private final List<Slab> slabs = new ArrayList<>();  // by id, null once a large slab is released
+    private final Deque<Integer> releasedSlabIds = new ArrayDeque<>();
+    private final Slab[] carving = new Slab[BLOCK_SIZES.length];  // slab each class takes new blocks from
+    private final long[] freeBlocks = new long[BLOCK_SIZES.length];  // head of each class's free list
+    private Arena indexArena;
+    private MemorySegment index;  // slots hold EMPTY, DELETED or a record reference
+    private long mask;
+    private long size;
+    private long occupied;  // slots holding a record or DELETED
+
+    public OffHeapStorageEngine(long expectedKeys) {
+        this.initialCapacity = capacityFor(expectedKeys);
+        allocateIndex(initialCapacity);
+    }
+
+    /**
+     * Block sizes from 32 bytes up to a whole slab, each a quarter larger than the last and a multiple of 8.
+     */
+    private static int[] blockSizes() {
+        List<Integer> sizes = new ArrayList<>();
+        for (int blockSize = 32; blockSize < SLAB_BYTES; blockSize = (blockSize + blockSize / 4 + 7) & ~7) sizes.add(blockSize);
+        sizes.add(SLAB_BYTES);
+        return sizes.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Smallest power of two that holds the keys below a load of one half.
+     */
+    private static long capacityFor(long keys) {
+        return Math.max(16, Long.highestOneBit(Math.max(1, keys * 2 - 1)) << 1);
+    }
+
+    private static int hash(byte[] key) {
+        int h = Arrays.hashCode(key) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    @Override
+    public String get(String key) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        lock.readLock().lock();
+        try {
+            long slot = find(keyBytes, hash(keyBytes));
+            if (slot < 0) return null;
+            long reference = index.getAtIndex(ValueLayout.JAVA_LONG, slot);
+            MemorySegment memory = memoryOf(reference);
+            long offset = offsetOf(reference);
+            return decode(memory, offset + HEADER_BYTES + keyBytes.length, memory.get(INT, offset + VALUE_LENGTH));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void put(String key, String value) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(keyBytes);
+        int recordBytes = HEADER_BYTES + keyBytes.length + valueBytes.length;
+        lock.writeLock().lock();
+        try {
+            long slot = find(keyBytes, hash);
+            if (slot >= 0) {
+                long reference = index.getAtIndex(ValueLayout.JAVA_LONG, slot);
+                Slab slab = slabOf(reference);
+                if (slab.sizeClass >= 0 && slab.sizeClass == sizeClassOf(recordBytes)) {  // still fits its block
+                    writeRecord(slab.memory, offsetOf(reference), hash, keyBytes, valueBytes);
+                    return;
+                }
+                long moved = allocate(recordBytes);
+                writeRecord(memoryOf(moved), offsetOf(moved), hash, keyBytes, valueBytes);
+                index.setAtIndex(ValueLayout.JAVA_LONG, slot, moved);
+                release(reference);
+                return;
+            }
+
+            if (occupied + 1 > (mask + 1) / 4 * 3) rehash();
+            long reference = allocate(recordBytes);
+            writeRecord(memoryOf(reference), offsetOf(reference), hash, keyBytes, valueBytes);
+            slot = insertionSlot(hash);
+            if (index.getAtIndex(ValueLayout.JAVA_LONG, slot) == EMPTY) occupied++;
+            index.setAtIndex(ValueLayout.JAVA_LONG, slot, reference);
+            size++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(String key) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        lock.writeLock().lock();
+        try {
+            long slot = find(keyBytes, hash(keyBytes));
+            if (slot < 0) return;
+            long reference = index.getAtIndex(ValueLayout.JAVA_LONG, slot);
+            index.setAtIndex(ValueLayout.JAVA_LONG, slot, DELETED);  // keeps the probe chains through it intact
+            release(reference);
+            size--;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            for (Slab slab : slabs) {
+                if (slab != null) slab.arena.close();
+            }
+            slabs.clear();
+            releasedSlabIds.clear();
+            Arrays.fill(carving, null);
+            Arrays.fill(freeBlocks, 0);
+            indexArena.close();
+            allocateIndex(initialCapacity);
+            size = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Visits the records slab by slab, decoding one slab under the read lock and calling the action after releasing it,
+     * so writers wait for at most one slab. A record never moves unless its key is written,
+     * so a pair left untouched is found in the block it started in.
+     */
+    @Override
+    public void forEach(BiConsumer<String, String> action) {
+        List<String> pairs = new ArrayList<>();
+        for (int id = 0; ; id++) {
+            lock.readLock().lock();
+            try {
+                if (id >= slabs.size()) return;
+                Slab slab = slabs.get(id);
+                if (slab != null) slab.decodeInto(pairs);
+            } finally {
+                lock.readLock().unlock();
+            }
+            for (int i = 0; i < pairs.size(); i += 2) action.accept(pairs.get(i), pairs.get(i + 1));
+            pairs.clear();
+        }
+    }
+
+    @Override
+    public long size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean isParallelWritable() {
+        return false;
+    }
+
+    /**
+     * The slot holding the key's record, or -1 if the key is absent.
+     */
+    private long find(byte[] key, int hash) {
+        for (long slot = hash & mask; ; slot = (slot + 1) & mask) {
+            long reference = index.getAtIndex(ValueLayout.JAVA_LONG, slot);
+            if (reference == EMPTY) return -1;
+            if (reference != DELETED && matches(reference, key, hash)) return slot;
+        }
+    }
+
+    /**
+     * The first slot free for a new key, reusing a DELETED one on the way.
+     */
+    private long insertionSlot(int hash) {
+        for (long slot = hash & mask; ; slot = (slot + 1) & mask) {
+            long reference = index.getAtIndex(ValueLayout.JAVA_LONG, slot);
+            if (reference == EMPTY || reference == DELETED) return slot;
+        }
+    }
+
+    private boolean matches(long reference, byte[] key, int hash) {
+        MemorySegment memory = memoryOf(reference);
+        long offset = offsetOf(reference);
+        if (memory.get(INT, offset + HASH) != hash || memory.get(INT, offset + KEY_LENGTH) != key.length) return false;
+        return MemorySegment.mismatch(memory, offset + HEADER_BYTES, offset + HEADER_BYTES + key.length,
+                MemorySegment.ofArray(key), 0, key.length) == -1;
+    }
+
+    /**
+     * Moves every record into an index sized for twice the keys, dropping the DELETED slots.
+     */
+    private void rehash() {
+        Arena oldArena = indexArena;
+        MemorySegment oldIndex = index;
+        long oldCapacity = mask + 1;
+        allocateIndex(capacityFor(Math.max(size + 1, (mask + 1) / 4)));
+        for (long slot = 0; slot < oldCapacity; slot++) {
+            long reference = oldIndex.getAtIndex(ValueLayout.JAVA_LONG, slot);
+            if (reference == EMPTY || reference == DELETED) continue;
+            int hash = memoryOf(reference).get(INT, offsetOf(reference) + HASH);
+            index.setAtIndex(ValueLayout.JAVA_LONG, insertionSlot(hash), reference);
+            occupied++;
+        }
+        oldArena.close();
+    }
+
+    private void allocateIndex(long capacity) {
+        indexArena = Arena.ofShared();
+        index = indexArena.allocate(capacity * Long.BYTES, Long.BYTES);  // zeroed, so every slot starts EMPTY
+        mask = capacity - 1;
+        occupied = 0;
+    }
+
+    private static void writeRecord(MemorySegment memory, long offset, int hash, byte[] key, byte[] value) {
+        memory.set(INT, offset + HASH, hash);
+        memory.set(INT, offset + KEY_LENGTH, key.length);
+        memory.set(INT, offset + VALUE_LENGTH, value.length);
+        MemorySegment.copy(key, 0, memory, ValueLayout.JAVA_BYTE, offset + HEADER_BYTES, key.length);
+        MemorySegment.copy(value, 0, memory, ValueLayout.JAVA_BYTE, offset + HEADER_BYTES + key.length, value.length);
+    }
+
+    private static String decode(MemorySegment memory, long offset, int length) {
+        byte[] bytes = new byte[length];
+        MemorySegment.copy(memory, ValueLayout.JAVA_BYTE, offset, bytes, 0, length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The class of the smallest block that holds the record, or -1 if it needs a slab of its own.
+     */
+    private static int sizeClassOf(int recordBytes) {
+        if (recordBytes > SLAB_BYTES) return -1;
+        int found = Arrays.binarySearch(BLOCK_SIZES, recordBytes);
+        return found >= 0 ? found : -found - 1;
+    }
+
+    /**
+     * A block for a record of the given size, from the free list of its class, the slab being carved,
+     * or a new slab.
+     */
+    private long allocate(int recordBytes) {
+        int sizeClass = sizeClassOf(recordBytes);
+        if (sizeClass < 0) return referenceOf(newSlab(recordBytes, -1), 0);
+
+        long free = freeBlocks[sizeClass];
+        if (free != 0) {
+            freeBlocks[sizeClass] = memoryOf(free).get(LONG, offsetOf(free) + NEXT_FREE);
+            return free;
+        }
+        Slab slab = carving[sizeClass];
+        if (slab == null || slab.carved == slab.blocks) slab = carving[sizeClass] = newSlab(SLAB_BYTES, sizeClass);
+        return referenceOf(slab, slab.carved++ * (long) slab.blockSize);
+    }
+
+    /**
+     * Frees the block of a record, releasing the whole slab if the record had one of its own.
+     */
+    private void release(long reference) {
+        Slab slab = slabOf(reference);
+        if (slab.sizeClass < 0) {
+            slabs.set(slab.id, null);
+            releasedSlabIds.push(slab.id);
+            slab.arena.close();
+            return;
+        }
+        long offset = offsetOf(reference);
+        slab.memory.set(INT, offset + KEY_LENGTH, FREE);
+        slab.memory.set(LONG, offset + NEXT_FREE, freeBlocks[slab.sizeClass]);
+        freeBlocks[slab.sizeClass] = reference;
+    }
+
+    private Slab newSlab(int bytes, int sizeClass) {
+        Integer released = releasedSlabIds.poll();
+        int id = released != null ? released : slabs.size();
+        Slab slab = new Slab(id, bytes, sizeClass);
+        if (released != null) slabs.set(id, slab);
+        else slabs.add(slab);
+        return slab;
+    }
+
+    /**
+     * Slab id plus one in the high half, so no reference is EMPTY or DELETED, and the offset in the low half.
+     */
+    private static long referenceOf(Slab slab, long offset) {
+        return ((long) (slab.id + 1) << 32) | offset;
+    }
+
+    private Slab slabOf(long reference) {
+        return slabs.get((int) (reference >>> 32) - 1);
+    }
+
+    private MemorySegment memoryOf(long reference) {
+        return slabOf(reference).memory;
+    }
+
+    private static long offsetOf(long reference) {
+        return reference & 0xFFFFFFFFL;
+    }
+
+    /**
+     * A run of native memory cut into blocks of one size class, or holding a single large record when the class is -1.
+     */
+    private static final class Slab {
+        private final int id;
+        private final Arena arena = Arena.ofShared();
+        private final MemorySegment memory;
+        private final int sizeClass;
+        private final int blockSize;
+        private final int blocks;
+        private int carved;  // blocks handed out so far, in order from the start
+
+        private Slab(int id, int bytes, int sizeClass) {
+            this.id = id;
+            this.memory = arena.allocate(bytes, Long.BYTES);
+            this.sizeClass = sizeClass;
+            this.blockSize = sizeClass < 0 ? bytes : BLOCK_SIZES[sizeClass];
+            this.blocks = bytes / blockSize;
+            this.carved = sizeClass < 0 ? 1 : 0;
+        }
+
+        /**
+         * Appends the key and value of every record in the slab to the list.
+         */
+        private void decodeInto(List<String> pairs) {
+            for (long offset = 0; offset < carved * (long) blockSize; offset += blockSize) {
+                int keyLength = memory.get(INT, offset + KEY_LENGTH);
+                if (keyLength == FREE) continue;
+                pairs.add(decode(memory, offset + HEADER_BYTES, keyLength));
+                pairs.add(decode(memory, offset + HEADER_BYTES + keyLength, memory.get(INT, offset + VALUE_LENGTH)));
+            }
+        }
+    }
+}
@@ -3,6 +3,8 @@ package com.liyang.server;
 import lombok.Getter;
 
 import java.io.Serializable;
+import java.util.List;
+import java.util.UUID;
 
 
 /**
@@ -10,20 +12,62 @@ import java.io.Serializable;
  */
 @Getter
 public class Operation implements Serializable {
+    private final UUID proposalId;  // Client-supplied identifier, used to detect the same operation chosen twice
     private final OperationType operationType;
     private final String key;
     private final String value;
+    private final List<Operation> batch;  // The operations of a BATCH, in the order they are applied
 
-    public Operation(OperationType operationType, String key, String value) {
+    public Operation(UUID proposalId, OperationType operationType, String key, String value) {
+        this(proposalId, operationType, key, value, List.of());
+    }
+
+    private Operation(UUID proposalId, OperationType operationType, String key, String value, List<Operation> batch) {
+        this.proposalId = proposalId;
         this.operationType = operationType;
         this.key = key;
         this.value = value;
+        this.batch = batch;
+    }
+
+    /**
+     * Groups client operations so they are decided in one log slot and applied together.
+     */
+    public static Operation batch(List<Operation> operations) {
+        return batch(UUID.randomUUID(), operations);
+    }
+
+    /**
+     * Rebuilds a batch with a known ID, as read back from the wire or from disk.
+     */
+    public static Operation batch(UUID proposalId, List<Operation> operations) {
+        return new Operation(proposalId, OperationType.BATCH, null, null, List.copyOf(operations));
+    }
+
+    /**
+     * Creates an operation that changes nothing, used to fill log slots left empty by a failed leader.
+     */
+    public static Operation noop() {
+        return new Operation(UUID.randomUUID(), OperationType.NOOP, null, null);
+    }
+
+    /**
+     * Roughly how many bytes the operation takes on the wire, used to bound batch sizes.
+     */
+    public int estimateSize() {
+        int size = 17 + (key == null ? 0 : key.length()) + (value == null ? 0 : value.length());
+        for (Operation operation : batch) size += operation.estimateSize();
+        return size;
     }
 
     @Override
     public String toString() {
+        if (operationType == OperationType.BATCH) {
+            return "Operation{proposalId=" + proposalId + ", operationType=BATCH, batch=" + batch + '}';
+        }
         return "Operation{" +
-                "operationType=" + operationType +
+                "proposalId=" + proposalId +
+                ", operationType=" + operationType +
                 ", key='" + key + '\'' +
                 ", value='" + value + '\'' +
                 '}';
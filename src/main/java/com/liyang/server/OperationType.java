@@ -3,7 +3,9 @@ package com.liyang.server;
 public enum OperationType {
     GET("GET"),
     PUT("PUT"),
-    DELETE("DELETE");
+    DELETE("DELETE"),
+    NOOP("NOOP"),  // fills a log slot that no operation was chosen for
+    BATCH("BATCH");  // several client operations decided together in one log slot
 
     private final String type;
 
@@ -1,38 +1,53 @@
 package com.liyang.server;
 
 
-import com.liyang.paxosNode.PaxosNode;
 import lombok.Getter;
 
 import java.io.Serializable;
-import java.util.UUID;
+import java.util.List;
 
 
 /**
  * Encapsulates a message used in the Paxos protocol,
- * carrying all necessary information such as proposal ID, type of message,
- * and operation details needed for decision-making in the consensus process.
+ * carrying all necessary information such as the log slot, type of message,
+ * and the operation needed for decision-making in the consensus process.
  */
 @Getter
 public class PaxosMessage implements Serializable {
-    private final UUID proposalId;
+    private final long slot;  // Log slot the message is about, or the first slot covered by an election PREPARE
     private final PaxosMessageType messageType;
     private final ProposalNumber proposalNumber;
-    private final PaxosNode fromNode;
-    private final PaxosNode toNode;
-    private final OperationType operationType;
-    private final String key;
-    private final String value;
-
-    public PaxosMessage(UUID proposalId, PaxosMessageType messageType, ProposalNumber proposalNumber, PaxosNode fromNode, PaxosNode toNode, OperationType operationType, String key, String value) {
-        this.proposalId = proposalId;
+    private final String fromNodeId;
+    private final String toNodeId;
+    private final Operation operation;  // The operation proposed, accepted or reported as decided, null if the message is about no value
+    private final List<AcceptedInstance> acceptedInstances;  // Carried by COMMIT replies, values accepted before the promise
+    private final int group;  // The Paxos group the message belongs to, 0 unless nodes host several
+
+    public PaxosMessage(long slot, PaxosMessageType messageType, ProposalNumber proposalNumber, String fromNodeId, String toNodeId, Operation operation) {
+        this(slot, messageType, proposalNumber, fromNodeId, toNodeId, operation, List.of());
+    }
+
+    public PaxosMessage(long slot, PaxosMessageType messageType, ProposalNumber proposalNumber, String fromNodeId, String toNodeId, Operation operation, List<AcceptedInstance> acceptedInstances) {
+        this(slot, messageType, proposalNumber, fromNodeId, toNodeId, operation, acceptedInstances, 0);
+    }
+
+    public PaxosMessage(long slot, PaxosMessageType messageType, ProposalNumber proposalNumber, String fromNodeId, String toNodeId, Operation operation, List<AcceptedInstance> acceptedInstances, int group) {
+        this.slot = slot;
         this.messageType = messageType;
         this.proposalNumber = proposalNumber;
-        this.fromNode = fromNode;
-        this.toNode = toNode;
-        this.operationType = operationType;
-        this.key = key;
-        this.value = value;
+        this.fromNodeId = fromNodeId;
+        this.toNodeId = toNodeId;
+        this.operation = operation;
+        this.acceptedInstances = acceptedInstances;
+        this.group = group;
+    }
+
+    /**
+     * This message addressed to the given group.
+     */
+    public PaxosMessage inGroup(int group) {
+        if (group == this.group) return this;
+        return new PaxosMessage(slot, messageType, proposalNumber, fromNodeId, toNodeId, operation, acceptedInstances, group);
     }
 
     @Override
@@ -41,16 +56,16 @@ public class PaxosMessage implements Serializable {
                 """
                 ========================================
                 PaxosMessage {
-                proposalId: %s
+                slot: %s
                 messageType: %s
                 proposalNumber: %s
-                fromNode: %s
-                toNode: %s
-                operationType: %s
-                key: %s
-                value: %s }
+                fromNodeId: %s
+                toNodeId: %s
+                operation: %s
+                acceptedInstances: %s
+                group: %s }
                 ========================================
                 """,
-                proposalId, messageType, proposalNumber, fromNode, toNode, operationType, key, value);
+                slot, messageType, proposalNumber, fromNodeId, toNodeId, operation, acceptedInstances, group);
     }
 }
@@ -5,7 +5,16 @@ public enum PaxosMessageType {
     COMMIT("COMMIT"),
     REJECT("REJECT"),
     ACCEPT("ACCEPT"),
-    ACCEPTED("ACCEPTED");
+    ACCEPTED("ACCEPTED"),
+    HEARTBEAT("HEARTBEAT"),
+    CATCHUP("CATCHUP"),
+    DECIDED("DECIDED"),
+    SNAPSHOT("SNAPSHOT"),
+    PROGRESS("PROGRESS"),
+    LEASE("LEASE"),
+    LEASE_GRANT("LEASE_GRANT"),
+    READ_INDEX("READ_INDEX"),
+    READ_INDEX_ACK("READ_INDEX_ACK");
 
     private final String type;
 
@@ -0,0 +1,28 @@
+package com.liyang.server;
+
+import com.liyang.common.ServerConfig;
+
+/**
+ * Selects how a node drives consensus:
+ * BASIC runs a full PREPARE/ACCEPT round for every operation,
+ * MULTI elects a stable leader once and streams ACCEPTs for subsequent operations.
+ */
+public enum PaxosMode {
+    BASIC("BASIC"),
+    MULTI("MULTI");
+
+    private final String mode;
+
+    PaxosMode(String mode) {
+        this.mode = mode;
+    }
+
+    public static PaxosMode fromEnv() {
+        return PaxosMode.valueOf(ServerConfig.getString("PAXOS_MODE", "BASIC").toUpperCase());
+    }
+
+    @Override
+    public String toString() {
+        return mode;
+    }
+}
@@ -1,13 +1,24 @@
 package com.liyang.server;
 
+import com.liyang.common.ServerConfig;
 import com.liyang.paxosNode.PaxosNode;
+import com.liyang.transport.RmiTransport;
+import com.liyang.transport.Transport;
 
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
 import java.rmi.RemoteException;
+import java.rmi.ServerException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.*;
+import java.util.function.Function;
 
 
 /**
@@ -17,133 +28,448 @@ import java.util.concurrent.*;
  */
 public class PaxosNodeImpl extends UnicastRemoteObject implements PaxosNode {
     private final String nodeId;
+    private final int group;
+    private final int groupCount;
+    private final Path dataDirectory;
+    private final NodeExecutors executors;
     private List<PaxosNode> otherNodes;
-    private final Map<UUID, ProposalContext> contextStore = new ConcurrentHashMap<>();
-    private final Proposer proposer = new Proposer(this, contextStore);
-    private final Acceptor acceptor = new Acceptor(this, contextStore);
-    private final Learner learner = new Learner(this, contextStore);
+    private volatile List<String> otherNodeIds = List.of();
+    private final Map<String, PaxosNode> nodesById = new ConcurrentHashMap<>();
+    private final PaxosMode mode = PaxosMode.fromEnv();
+    private final ReadMode readMode = ReadMode.fromEnv();
+    private final long consensusTimeout = ServerConfig.getLong("CONSENSUS_TIME_OUT", 10000);
+    private final long roundTimeout = ServerConfig.getLong("ROUND_TIME_OUT", 1000);
+    private final long sessionReadTimeout = ServerConfig.getLong("SESSION_READ_TIME_OUT", 1000);
+    private final int maxScanPageSize = ServerConfig.getInt("SCAN_MAX_PAGE_SIZE", 1000);
+    private final Transport transport;
+    private final ConcurrentNavigableMap<Long, ProposalContext> contextStore = new ConcurrentSkipListMap<>();  // ordered by slot so settled instances are dropped as a prefix
+    private final ReplicatedLog log = new ReplicatedLog();
+    private final Proposer proposer = new Proposer(this, contextStore, log);
+    private final Leader leader = new Leader(this, contextStore, log, proposer);
+    private final Acceptor acceptor;
+    private final Learner learner = new Learner(this, contextStore, log);
     private final KeyValueStore keyValueStore = new KeyValueStore();
-    private final LockManager lockManager = new LockManager();
+    private final SnapshotManager snapshotManager;
+    private final StateMachineApplier applier;
+    private final ContextCollector contextCollector = new ContextCollector(this, contextStore, log);
+    private final ProposalPipeline pipeline = new ProposalPipeline(this);
+    private final ReadIndex readIndex = new ReadIndex(this, log);
+    private final ConsensusMetrics metrics = new ConsensusMetrics(contextStore, pipeline);
+    private final CommandBatcher batcher = new CommandBatcher(this, log, pipeline);
 
     public PaxosNodeImpl(String nodeId, List<PaxosNode> otherNodes) throws RemoteException {
+        this(nodeId, otherNodes, node -> new RmiTransport(node::findNode));
+    }
+
+    /**
+     * Creates a node that exchanges Paxos messages through the transport built by the given factory.
+     */
+    public PaxosNodeImpl(String nodeId, List<PaxosNode> otherNodes, Function<PaxosNodeImpl, Transport> transportFactory) throws RemoteException {
+        this(nodeId, 0, 1, Path.of(ServerConfig.getString("DATA_DIR", "data"), nodeId), new NodeExecutors(nodeId), transportFactory);
+        if (otherNodes != null) setOtherNodes(otherNodes);
+    }
+
+    /**
+     * Creates one of the Paxos groups a {@link ShardedNode} hosts, keeping its durable state in its own directory
+     * and running on the thread pools of the host.
+     */
+    PaxosNodeImpl(String nodeId, int group, int groupCount, Path dataDirectory, NodeExecutors executors,
+                  Function<PaxosNodeImpl, Transport> transportFactory) throws RemoteException {
         super();
         this.nodeId = nodeId;
-        this.otherNodes = otherNodes;
+        this.group = group;
+        this.groupCount = groupCount;
+        this.dataDirectory = dataDirectory;
+        this.executors = executors;
+        this.acceptor = new Acceptor(this, contextStore, log, openAcceptorLog(nodeId, dataDirectory));
+        this.snapshotManager = new SnapshotManager(this, log, keyValueStore, acceptor);
+        if (acceptor.isDurable() && !snapshotManager.isEnabled()) {  // contexts are retired and the log compacted only below a snapshot
+            throw new IllegalArgumentException("ACCEPTOR_WAL needs a positive SNAPSHOT_INTERVAL, or the context store and the acceptor log grow without bound");
+        }
+        this.applier = new StateMachineApplier(this, log, keyValueStore, snapshotManager);
+        try {
+            snapshotManager.recover();
+            acceptor.recover();
+        } catch (IOException e) {
+            throw new RemoteException("Failed to recover the durable state of node " + nodeId, e);
+        }
+        this.transport = transportFactory.apply(this);
+        try {
+            transport.start(this::receiveMessage);
+        } catch (Exception e) {
+            throw new RemoteException("Failed to start transport for node " + nodeId, e);
+        }
+        applier.start();
+        contextCollector.start();
+        if (batcher.isEnabled()) batcher.start();
+        registerMBean(pipeline, "ProposalPipeline");
+        registerMBean(metrics, "ConsensusMetrics");
+    }
+
+    private static AcceptorLog openAcceptorLog(String nodeId, Path dataDirectory) throws RemoteException {
+        try {
+            return AcceptorLog.open(nodeId, dataDirectory);
+        } catch (IOException e) {
+            throw new RemoteException("Failed to open the acceptor log of node " + nodeId, e);
+        }
     }
 
     @Override
-    public String getNodeId() throws RemoteException{
+    public String getNodeId() {
         return nodeId;
     }
 
     @Override
-    public List<PaxosNode> getOtherNodes() throws RemoteException{
+    public List<PaxosNode> getOtherNodes() {
         return otherNodes;
     }
 
     @Override
-    public Map<UUID, ProposalContext> getContextStore() throws RemoteException {
-        return contextStore;
+    public void setOtherNodes(List<PaxosNode> otherNodes) throws RemoteException{
+        this.otherNodes = otherNodes;
+        nodesById.clear();
+        List<String> ids = new ArrayList<>();
+        for (PaxosNode otherNode : otherNodes) {
+            String otherNodeId = otherNode.getNodeId();
+            nodesById.put(otherNodeId, otherNode);
+            ids.add(otherNodeId);
+        }
+        otherNodeIds = List.copyOf(ids);
+    }
+
+    /**
+     * The node this node believes is the Multi-Paxos leader, null in basic mode or while no leader is known.
+     */
+    @Override
+    public String getLeaderId() {
+        return mode == PaxosMode.MULTI ? leader.getLeaderId() : null;
     }
 
     @Override
-    public void setOtherNodes(List<PaxosNode> otherNodes) throws RemoteException{
-        this.otherNodes = otherNodes;
+    public List<String> getLeaderIds() {
+        return Collections.singletonList(getLeaderId());
+    }
+
+    /**
+     * The IDs of the other nodes, which is how Paxos messages address them.
+     */
+    public List<String> getOtherNodeIds() {
+        return otherNodeIds;
+    }
+
+    /**
+     * The number of nodes in the cluster, this one included.
+     */
+    public int getClusterSize() {
+        return otherNodeIds.size() + 1;
+    }
+
+    /**
+     * The Paxos group this node is a member of, 0 unless its host runs several.
+     */
+    public int getGroup() {
+        return group;
+    }
+
+    @Override
+    public int getGroupCount() {
+        return groupCount;
+    }
+
+    /**
+     * Where the acceptor log and the snapshot of this node are kept.
+     */
+    Path getDataDirectory() {
+        return dataDirectory;
+    }
+
+    NodeExecutors getExecutors() {
+        return executors;
+    }
+
+    public PaxosMode getMode() {
+        return mode;
+    }
+
+    public ReadMode getReadMode() {
+        return readMode;
+    }
+
+    Leader getLeader() {
+        return leader;
+    }
+
+    Acceptor getAcceptor() {
+        return acceptor;
+    }
+
+    Learner getLearner() {
+        return learner;
+    }
+
+    SnapshotManager getSnapshotManager() {
+        return snapshotManager;
+    }
+
+    ContextCollector getContextCollector() {
+        return contextCollector;
+    }
+
+    ConsensusMetrics getMetrics() {
+        return metrics;
+    }
+
+    long getConsensusTimeout() {
+        return consensusTimeout;
+    }
+
+    /**
+     * How long a proposer waits for a round to decide its slot before starting another one.
+     */
+    long getRoundTimeout() {
+        return roundTimeout;
+    }
+
+    /**
+     * Publishes a management bean of this node over JMX, named after the node so several nodes can share a JVM,
+     * and after the group when the host runs several.
+     */
+    private void registerMBean(Object mbean, String type) {
+        try {
+            String name = "com.liyang.paxmesh:type=" + type + ",node=" + ObjectName.quote(nodeId) + (groupCount > 1 ? ",group=" + group : "");
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, new ObjectName(name));
+        } catch (Exception e) {
+            ServerLogger.warn(nodeId, "Failed to register {} MBean: {}", type, e.getMessage());
+        }
+    }
+
+    /**
+     * Looks up this node or one of the other nodes by its ID.
+     */
+    PaxosNode findNode(String id) {
+        return nodeId.equals(id) ? this : nodesById.get(id);
     }
 
     /**
      * This method handle client requests to put values in the key-value store
      * using the Paxos protocol to ensure consensus.
+     * The reply carries the slot the write was decided in as its applied-index token.
      */
     @Override
-    public String handlePutRequest(UUID proposalId, String key, String value) throws RemoteException {
-        PaxosMessage putRequest = proposer.initiateProposal(
-                proposalId, OperationType.PUT, key, value
-        );
-        getConsensus(putRequest);
-        return "Succeed to perform PUT " + key + " " + value;
+    public ClientReply handlePutRequest(UUID proposalId, String key, String value) throws RemoteException {
+        Operation operation = new Operation(proposalId, OperationType.PUT, key, value);
+        long slot = mode == PaxosMode.MULTI ? submitToLeader(operation) : getConsensus(operation);
+        return new ClientReply("Succeed to perform PUT " + key + " " + value, slot, getLeaderId());
     }
 
     /**
      * This method handle client requests to get values in the key-value store
      * using the Paxos protocol to ensure consensus.
+     * In Multi-Paxos mode the read is linearizable unless the read mode is LOCAL:
+     * it is served by the leader, other nodes forward it there.
      */
     @Override
-    public String handleGetRequest(String key) throws RemoteException {
-        return "Succeed to perform GET " + key + ": " + keyValueStore.get(key);
+    public ClientReply handleGetRequest(String key) throws RemoteException {
+        if (mode == PaxosMode.MULTI && readMode != ReadMode.LOCAL) return readThroughLeader(key);
+        return readLocally(key);
     }
 
     /**
-     * This method handle client requests to delete values in the key-value store
-     * using the Paxos protocol to ensure consensus.
+     * Serves a read from this node's own store once it has applied the log up to the given applied-index token,
+     * so a client presenting the highest token it has seen reads its own writes from any node.
+     * A node lagging the token by at most maxStaleness slots answers right away,
+     * one lagging further waits up to SESSION_READ_TIME_OUT for its applier to catch up.
      */
     @Override
-    public String handleDeleteRequest(UUID proposalId, String key) throws RemoteException {
-        PaxosMessage deleteRequest = proposer.initiateProposal(
-                proposalId, OperationType.DELETE, key, null
-        );
-        getConsensus(deleteRequest);
-        return "Succeed to perform DELETE " + key;
+    public ClientReply handleGetRequest(String key, long appliedIndex, long maxStaleness) throws RemoteException {
+        long required = appliedIndex - Math.max(0, maxStaleness);
+        try {
+            log.whenApplied(required).get(sessionReadTimeout, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            throw new RemoteException("Node " + nodeId + " has applied up to slot " + log.getAppliedIndex()
+                    + ", not slot " + required + ", within " + sessionReadTimeout + " ms");
+        }
+        return readLocally(key);
     }
 
     /**
-     * Orchestrates the consensus process for a given operation by initiating the proposal process,
-     * waiting for a majority agreement, and applying the operation.
+     * Reads from this node's store, tagging the reply with the applied index read first,
+     * which the value is at least as recent as.
      */
-    public void getConsensus(PaxosMessage request) throws RemoteException {
-        CompletableFuture<Void> operationFuture = CompletableFuture.runAsync(() -> {
-            try {
-                proposer.sendPrepareRequests(request);  // Initiate the proposal
-            } catch (Exception e) {
-                ServerLogger.log(nodeId, "Error during achieving the PAXOS consensus: " + e.getMessage());
-                throw new CompletionException(e);
+    private ClientReply readLocally(String key) {
+        long appliedIndex = log.getAppliedIndex();
+        return new ClientReply("Succeed to perform GET " + key + ": " + keyValueStore.get(key), appliedIndex, getLeaderId());
+    }
+
+    /**
+     * Serves a read from the store of the leader, forwarding it there from other nodes.
+     * The leader reads under its read lease, or once a READ_INDEX round confirmed it still leads,
+     * and only when every write acknowledged before the read is applied to its store.
+     */
+    private ClientReply readThroughLeader(String key) throws RemoteException {
+        for (int attempt = 0; attempt < 2; attempt++) {
+            PaxosNode leaderNode = leader.ensureLeader();
+
+            if (leaderNode == this) {
+                long barrier = leader.awaitReadable(roundTimeout);
+                try {
+                    if (readMode == ReadMode.READ_INDEX) barrier = readIndex.confirm().get(roundTimeout, TimeUnit.MILLISECONDS);
+                    log.whenApplied(barrier).get(roundTimeout, TimeUnit.MILLISECONDS);
+                } catch (Exception e) {
+                    throw new RemoteException("Error confirming a read: " + e.getMessage());
+                }
+                return readLocally(key);
             }
-        }).thenRun(() -> {
-            Operation finalOperation = contextStore.get(request.getProposalId()).getFinalOperation(); // Result of the proposal
-            ServerLogger.log(nodeId, "Final operation from learner that achieved consensus: " + finalOperation);
 
-            if (finalOperation == null) {
-                ServerLogger.log(nodeId, "Failed to get a final operation consensus due to simulated random errors in acceptors");
-                return;
+            try {
+                ServerLogger.debug(nodeId, "Forwarding GET {} to leader {}", key, leaderNode);
+                return leaderNode.handleGetRequest(key);
+            } catch (ServerException e) {
+                throw e;  // The leader was reached but failed the read itself
+            } catch (RemoteException e) {
+                ServerLogger.info(nodeId, "Leader unreachable, starting a new election: {}", e.getMessage());
+                leader.suspectLeader();
             }
+        }
+        throw new RemoteException("Failed to reach a Multi-Paxos leader for GET " + key);
+    }
 
-            try { // Perform the proposal result operation
-                long timeout = Long.parseLong(System.getenv("ACQUIRE_LOCK_TIME_OUT"));
-                if (lockManager.acquireLock(finalOperation.getKey(), timeout) != null) {
-                    try {
-                        if (request.getOperationType() == OperationType.PUT) {
-                            keyValueStore.put(finalOperation.getKey(), finalOperation.getValue());
-                        }
-                        if (request.getOperationType() == OperationType.DELETE) {
-                            keyValueStore.delete(finalOperation.getKey());
-                        }
-                    } finally {
-                        lockManager.releaseLock(finalOperation.getKey());
-                    }
-                } else {
-                    ServerLogger.log(nodeId, "Failed to acquire lock within timeout");
-                    throw new IllegalStateException();
+    /**
+     * This method handle client requests to delete values in the key-value store
+     * using the Paxos protocol to ensure consensus.
+     * The reply carries the slot the delete was decided in as its applied-index token.
+     */
+    @Override
+    public ClientReply handleDeleteRequest(UUID proposalId, String key) throws RemoteException {
+        Operation operation = new Operation(proposalId, OperationType.DELETE, key, null);
+        long slot = mode == PaxosMode.MULTI ? submitToLeader(operation) : getConsensus(operation);
+        return new ClientReply("Succeed to perform DELETE " + key, slot, getLeaderId());
+    }
+
+    /**
+     * Runs a write through the Multi-Paxos leader.
+     * The leader replicates it with a single ACCEPT round, other nodes forward it to the leader,
+     * and an unreachable or deposed leader is replaced through a new election before retrying.
+     * Returns the slot the write was decided in.
+     */
+    private long submitToLeader(Operation operation) throws RemoteException {
+        for (int attempt = 0; attempt < 2; attempt++) {
+            PaxosNode leaderNode = leader.ensureLeader();
+
+            if (leaderNode == this) {
+                try {
+                    return getConsensus(operation);
+                } catch (RemoteException e) {
+                    if (leader.isLeading()) throw e;
+                    continue;  // Deposed while replicating, hand the write over to the new leader
                 }
-            } catch (Exception e) {
-                ServerLogger.log(nodeId, "Error executing the PAXOS consensus: " + e.getMessage());
-                throw new CompletionException(e);
             }
-        });
+
+            try {
+                ServerLogger.debug(nodeId, "Forwarding {} to leader {}", operation, leaderNode);
+                ClientReply reply = operation.getOperationType() == OperationType.PUT
+                        ? leaderNode.handlePutRequest(operation.getProposalId(), operation.getKey(), operation.getValue())
+                        : leaderNode.handleDeleteRequest(operation.getProposalId(), operation.getKey());
+                return reply.getAppliedIndex();
+            } catch (ServerException e) {
+                throw e;  // The leader was reached but failed the write itself
+            } catch (RemoteException e) {
+                ServerLogger.info(nodeId, "Leader unreachable, starting a new election: {}", e.getMessage());
+                leader.suspectLeader();
+            }
+        }
+        throw new RemoteException("Failed to reach a Multi-Paxos leader for " + operation);
+    }
+
+    /**
+     * Orchestrates the consensus process for a given operation by getting it chosen in a log slot,
+     * then waiting until the applier has applied the log up to that slot.
+     * With batching on, the operation shares its slot with other operations submitted around the same time.
+     * Returns the slot the operation was decided in.
+     */
+    public long getConsensus(Operation operation) throws RemoteException {
+        long deadline = System.currentTimeMillis() + consensusTimeout;
+        CompletableFuture<Long> operationFuture;
+        if (batcher.isEnabled()) {
+            operationFuture = batcher.submit(operation);
+        } else {
+            operationFuture = pipeline.submit(operation, deadline).thenCompose(slot -> {
+                ServerLogger.debug(nodeId, "Operation achieved consensus in slot {}: {}", slot, operation);
+                return awaitApplied(slot);
+            });
+        }
 
         try {
-            operationFuture.get(10, TimeUnit.SECONDS); // wait for consensus with a timeout
+            return operationFuture.get(consensusTimeout, TimeUnit.MILLISECONDS); // wait for consensus with a timeout
         } catch (Exception e) {
-            ServerLogger.log(nodeId, "Error process PAXOS consensus: " + e.getMessage());
+            if (e instanceof TimeoutException) metrics.countTimeout();
+            ServerLogger.warn(nodeId, "Error process PAXOS consensus: {}", e.getMessage());
             throw new RemoteException("Error process PAXOS consensus: " + e.getMessage());
         }
     }
 
+    /**
+     * Completes with the slot once the applier has applied it, timing the wait as the learn phase.
+     */
+    CompletableFuture<Long> awaitApplied(long slot) {
+        long decidedNanos = System.nanoTime();
+        return log.whenApplied(slot).thenApply(ignored -> {
+            metrics.recordLearnPhase(decidedNanos);
+            return slot;
+        });
+    }
+
+    /**
+     * Gets the operation chosen in a log slot and returns that slot.
+     */
+    long chooseSlot(Operation operation, long deadline) throws RemoteException, InterruptedException {
+        return mode == PaxosMode.MULTI
+                ? leader.replicate(operation, deadline)  // Phase 1 already won at election
+                : proposer.propose(operation, deadline);
+    }
+
+    /**
+     * Asks the other learners for a slot this node missed, so the applier can move past it.
+     * In basic mode a slot nobody learned is settled by proposing a no-op for it,
+     * which still ends up with the chosen value if there was one.
+     * In Multi-Paxos mode the leader finishes the slot if a write it timed out on left it behind.
+     */
+    void repairGap(long slot) {
+        ServerLogger.info(nodeId, "Applier stuck on undecided slot {}, asking other learners", slot);
+        for (String otherNodeId : otherNodeIds) {
+            sendOneWay(new PaxosMessage(slot, PaxosMessageType.CATCHUP, null, nodeId, otherNodeId, null));
+        }
+
+        try {
+            if (mode == PaxosMode.BASIC && !log.awaitDecided(slot, roundTimeout)) {
+                proposer.sendPrepareRequests(proposer.initiateProposal(slot, Operation.noop()));
+            } else if (mode == PaxosMode.MULTI && leader.isLeading()) {
+                leader.repairAbandoned(slot, System.currentTimeMillis() + roundTimeout);
+            }
+        } catch (Exception e) {
+            ServerLogger.warn(nodeId, "Error settling slot {}: {}", slot, e.getMessage());
+        }
+    }
+
     /**
      * Facilitates sending messages between nodes to propagate the Paxos protocol messages.
+     * The returned future completes once the receiving node has handled the message.
      */
-    @Override
-    public void sendMessage(PaxosMessage message) throws RemoteException {
-        message.getToNode().receiveMessage(message);
+    public CompletableFuture<Void> sendMessage(PaxosMessage message) {
+        return transport.send(message);
+    }
+
+    /**
+     * Sends a reply or notification nobody waits on, logging it if it cannot be delivered.
+     */
+    void sendOneWay(PaxosMessage message) {
+        sendMessage(message).whenComplete((ignored, error) -> {
+            if (error == null) return;
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            ServerLogger.info(nodeId, "Failed to deliver {} message to node {}: {}",
+                    message.getMessageType(), message.getToNodeId(), cause.getMessage());
+            metrics.countDroppedMessage();
+        });
     }
 
     /**
@@ -153,10 +479,25 @@ public class PaxosNodeImpl extends UnicastRemoteObject implements PaxosNode {
     public void receiveMessage(PaxosMessage message) throws RemoteException {
         switch (message.getMessageType()) {
             case PREPARE -> acceptor.handlePrepareRequest(message);
-            case COMMIT -> proposer.handleCommitReply(message);
-            case REJECT -> proposer.handleRejectReply(message);
+            case COMMIT -> {
+                if (mode == PaxosMode.MULTI) leader.handlePromiseReply(message);
+                else proposer.handleCommitReply(message);
+            }
+            case REJECT -> {
+                if (mode == PaxosMode.MULTI) leader.handleRejectReply(message);
+                else proposer.handleRejectReply(message);
+            }
             case ACCEPT -> acceptor.handleAcceptRequest(message);
             case ACCEPTED -> learner.handleAcceptedNotification(message);
+            case HEARTBEAT -> leader.handleHeartbeat(message);
+            case CATCHUP -> learner.handleCatchupRequest(message);
+            case DECIDED -> learner.handleDecidedNotification(message);
+            case SNAPSHOT -> snapshotManager.handleSnapshotMessage(message);
+            case PROGRESS -> contextCollector.handleProgress(message);
+            case LEASE -> acceptor.handleLeaseRequest(message);
+            case LEASE_GRANT -> leader.handleLeaseGrant(message);
+            case READ_INDEX -> acceptor.handleReadIndexRequest(message);
+            case READ_INDEX_ACK -> readIndex.handleAck(message);
         }
     }
 
@@ -165,14 +506,15 @@ public class PaxosNodeImpl extends UnicastRemoteObject implements PaxosNode {
         return nodeId;
     }
 
+    /**
+     * Reads one page of a key range from the local store, at most SCAN_MAX_PAGE_SIZE pairs whatever the client asks,
+     * so a reply never grows with the store. Pages are read from this node without a consensus round,
+     * each one atomic but not a snapshot of the whole range. Refused unless the store is ORDERED.
+     */
     @Override
-    public void updateContextStore(UUID proposalId, ProposalContext context) {
-        contextStore.put(proposalId, context);
-    }
-
-    @Override
-    public List<String> getAll() throws RemoteException {
-        return keyValueStore.getAll();
+    public ScanPage scan(String startKey, String endKey, int pageSize) throws RemoteException {
+        if (!keyValueStore.isScannable()) throw new RemoteException("Node " + nodeId + " serves range scans only with STORAGE_ENGINE=ORDERED");
+        return keyValueStore.scan(startKey, endKey, Math.max(1, Math.min(pageSize, maxScanPageSize)));
     }
 
 }
@@ -1,44 +1,52 @@
 package com.liyang.server;
 
-import com.liyang.paxosNode.PaxosNode;
 import lombok.Getter;
 import lombok.Setter;
 
 import java.io.Serializable;
 import java.util.Map;
-import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
- * Maintains the state and context of a single Paxos proposal,
+ * Maintains the state and context of the Paxos instance deciding a single log slot,
  * tracking sequence numbers, committed nodes, and consensus status,
  * among other details necessary for the protocol's operations.
  */
 @Getter
 public class ProposalContext implements Serializable {
-    private final UUID proposalId; // Unique identifier for the proposal
+    private final long slot; // Log slot decided by this instance
     @Setter
     private int largestSequenceNumber = 0;
     @Setter
     private ProposalNumber largestProposalNumber = null;
-    private final Map<PaxosNode, Boolean> committedNodes = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> committedNodes = new ConcurrentHashMap<>();
     @Setter
     private boolean commitConsensus = false;  // Commit consensus has achieved
     @Setter
+    private AcceptedInstance highestReportedInstance = null;  // the highest-numbered value reported by committed Acceptors
+    @Setter
     ProposalNumber promisedProposalNumber = null;  // the highest proposal number that has promised by Acceptor
-    private final Map<PaxosNode, Boolean> acceptedNodes = new ConcurrentHashMap<>();
+    @Setter
+    private ProposalNumber acceptedProposalNumber = null;  // the proposal number of the value last accepted by Acceptor
+    @Setter
+    private Operation acceptedOperation = null;  // the value last accepted by Acceptor
+    private final Map<String, Boolean> acceptedNodes = new ConcurrentHashMap<>();
+    @Setter
+    private ProposalNumber learningProposalNumber = null;  // the proposal number the Learner is counting acceptances for
     @Setter
     private boolean acceptedConsensus = false;  // Learn consensus has achieved
     @Setter
     private Operation finalOperation = null;
+    @Setter
+    private volatile long phaseStartNanos = 0;  // when the proposer's current phase began, 0 on nodes not proposing for this slot
 
-    public ProposalContext(UUID proposalId) {
-        this.proposalId = proposalId;
+    public ProposalContext(long slot) {
+        this.slot = slot;
     }
 
-    public void addCommittedNode(PaxosNode node) {
-        committedNodes.put(node, Boolean.TRUE);
+    public void addCommittedNode(String nodeId) {
+        committedNodes.put(nodeId, Boolean.TRUE);
     }
 
     public void clearCommittedNodes() {
@@ -49,8 +57,19 @@ public class ProposalContext implements Serializable {
         return committedNodes.size() > totalNum / 2;
     }
 
-    public void addAcceptedNode(PaxosNode node) {
-        acceptedNodes.put(node, Boolean.TRUE);
+    /**
+     * Keeps the value reported with the highest proposal number,
+     * which is the only value a proposer may propose once phase 1 completes.
+     */
+    public synchronized void reportAcceptedInstance(AcceptedInstance instance) {
+        if (highestReportedInstance == null
+                || instance.getAcceptedProposalNumber().compareTo(highestReportedInstance.getAcceptedProposalNumber()) > 0) {
+            highestReportedInstance = instance;
+        }
+    }
+
+    public void addAcceptedNode(String nodeId) {
+        acceptedNodes.put(nodeId, Boolean.TRUE);
     }
 
     public void clearAcceptedNodes() {
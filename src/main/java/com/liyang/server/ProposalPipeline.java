@@ -0,0 +1,124 @@
+package com.liyang.server;
+
+import com.liyang.common.ServerConfig;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * Keeps up to a window of consensus instances in flight for one node,
+ * so a new instance starts while earlier ones are still waiting on their round trips.
+ * Instances may be decided out of order; the applier still applies them in log order.
+ * Submitting blocks while the window is full, which holds back callers and lets the batcher fill larger batches.
+ */
+public class ProposalPipeline implements ProposalPipelineMXBean {
+    private final PaxosNodeImpl node;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition windowOpen = lock.newCondition();
+    private final AtomicLong completedInstances = new AtomicLong();
+    private final AtomicLong failedInstances = new AtomicLong();
+    private volatile int windowSize = ServerConfig.getInt("PIPELINE_WINDOW", 8);
+    private int inFlight = 0;
+
+    public ProposalPipeline(PaxosNodeImpl node) {
+        this.node = node;
+    }
+
+    /**
+     * Starts a consensus instance for the operation once the window has room.
+     * The future completes with the slot the operation was chosen in,
+     * or fails if the window stayed full or the instance did not decide before the deadline.
+     */
+    public CompletableFuture<Long> submit(Operation operation, long deadline) {
+        try {
+            if (!acquire(deadline)) {
+                return CompletableFuture.failedFuture(new RemoteException("Proposal window stayed full until the deadline"));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return node.chooseSlot(operation, deadline);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, node.getExecutors().getProposals()).whenComplete((slot, error) -> {
+            release();
+            (error == null ? completedInstances : failedInstances).incrementAndGet();
+        });
+    }
+
+    private boolean acquire(long deadline) throws InterruptedException {
+        long startNanos = System.nanoTime();
+        lock.lock();
+        try {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(deadline - System.currentTimeMillis());
+            while (inFlight >= windowSize) {
+                if (remaining <= 0) return false;
+                remaining = windowOpen.awaitNanos(remaining);
+            }
+            inFlight++;
+            node.getMetrics().recordWindowWait(startNanos);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release() {
+        lock.lock();
+        try {
+            inFlight--;
+            windowOpen.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Resizes the window at runtime, instances already in flight are left to finish.
+     */
+    @Override
+    public void setWindowSize(int windowSize) {
+        if (windowSize < 1) throw new IllegalArgumentException("Window size must be at least 1");
+        lock.lock();
+        try {
+            this.windowSize = windowSize;
+            windowOpen.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getCompletedInstances() {
+        return completedInstances.get();
+    }
+
+    @Override
+    public long getFailedInstances() {
+        return failedInstances.get();
+    }
+}
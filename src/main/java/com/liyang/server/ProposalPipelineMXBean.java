@@ -0,0 +1,17 @@
+package com.liyang.server;
+
+
+/**
+ * JMX view of a node's proposal pipeline.
+ */
+public interface ProposalPipelineMXBean {
+    int getWindowSize();
+
+    void setWindowSize(int windowSize);
+
+    int getInFlight();
+
+    long getCompletedInstances();
+
+    long getFailedInstances();
+}
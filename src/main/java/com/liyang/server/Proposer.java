@@ -1,10 +1,11 @@
 package com.liyang.server;
 
-import com.liyang.paxosNode.PaxosNode;
-
 import java.rmi.RemoteException;
 import java.util.Map;
-import java.util.UUID;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
 
 
 /**
@@ -12,47 +13,75 @@ import java.util.UUID;
  */
 public class Proposer {
     private final PaxosNodeImpl node;
-    private final Map<UUID, ProposalContext> contextStore;
+    private final Map<Long, ProposalContext> contextStore;
+    private final ReplicatedLog log;
+    private final Random random = new Random();
 
-    public Proposer(PaxosNodeImpl node, Map<UUID, ProposalContext> contextStore) {
+    public Proposer(PaxosNodeImpl node, Map<Long, ProposalContext> contextStore, ReplicatedLog log) {
         this.node = node;
         this.contextStore = contextStore;
+        this.log = log;
     }
 
     /**
-     * Starts a new proposal by generating a unique proposal ID
-     * and a higher sequence number to ensure progress in the Paxos rounds.
+     * Runs Paxos rounds on successive log slots until the operation is chosen in one of them.
+     * A round that loses its slot to another operation moves on to the next free slot,
+     * a round that fails to decide retries the same slot with a higher proposal number.
+     * Returns the slot the operation was chosen in.
      */
-    public PaxosMessage initiateProposal(UUID proposalId, OperationType operationType, String key, String value) throws RemoteException {
-        ProposalContext context = contextStore.getOrDefault(proposalId, new ProposalContext(proposalId));
-        node.getOtherNodes().forEach(otherNode -> {
-            try {
-                Map<UUID, ProposalContext> otherContextStore = otherNode.getContextStore();
-                ProposalContext otherContext = otherContextStore.getOrDefault(proposalId, new ProposalContext(proposalId));
-                otherNode.updateContextStore(proposalId, otherContext);
-            } catch (RemoteException e) {
-                throw new RuntimeException(e);
+    public long propose(Operation operation, long deadline) throws RemoteException, InterruptedException {
+        long slot = log.reserveSlot();
+        boolean firstRound = true;
+        Long chosenSlot;
+        while ((chosenSlot = log.getSlotOf(operation.getProposalId())) == null) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new RemoteException("Timed out proposing " + operation);
+            }
+
+            if (log.isDecided(slot)) {
+                ServerLogger.debug(node.getNodeId(), "Proposer - Slot {} was chosen for another operation, moving to the next slot", slot);
+                slot = log.reserveSlot();
+            } else if (!firstRound) {
+                Thread.sleep(random.nextInt(50));  // Back off before retrying the same slot to let a competing proposer finish
             }
-        });
+            firstRound = false;
+
+            sendPrepareRequests(initiateProposal(slot, operation));
+            // replies arrive asynchronously, give the round time to finish
+            if (!log.awaitDecided(slot, node.getRoundTimeout())) node.getMetrics().countTimeout();
+        }
+        return chosenSlot;
+    }
 
-        int sequenceNumber = context.getLargestSequenceNumber() + 1;
+    /**
+     * Starts a new proposal for a log slot with a sequence number higher than any used for it so far,
+     * to ensure progress in the Paxos rounds.
+     * Only local state is touched: acceptors set up their state for the slot when the PREPARE reaches them,
+     * and a higher number promised elsewhere comes back in a REJECT.
+     */
+    public PaxosMessage initiateProposal(long slot, Operation operation) {
+        ProposalContext context = contextStore.computeIfAbsent(slot, ProposalContext::new);
+
+        int sequenceNumber = Math.max(context.getLargestSequenceNumber(),
+                context.getLargestProposalNumber() == null ? 0 : context.getLargestProposalNumber().getSequenceNumber()) + 1;
         ProposalNumber proposalNumber = new ProposalNumber(sequenceNumber, node.getNodeId());
 
         context.setLargestSequenceNumber(sequenceNumber);
         context.setLargestProposalNumber(proposalNumber);
-        node.updateContextStore(proposalId, context);
+        context.setCommitConsensus(false);
+        context.clearCommittedNodes();
+        context.setHighestReportedInstance(null);
+        context.setPhaseStartNanos(System.nanoTime());
 
         PaxosMessage proposal = new PaxosMessage(
-                proposalId,
+                slot,
                 PaxosMessageType.PREPARE,
                 proposalNumber,
-                node,
+                node.getNodeId(),
                 null,
-                operationType,
-                key,
-                value
+                operation
         );
-        ServerLogger.log(node.getNodeId(), "Proposer - Initiated a new proposal:\n" + proposal);
+        ServerLogger.debug(node.getNodeId(), "Proposer - Initiated a new proposal:\n{}", proposal);
 
         return proposal;
     }
@@ -61,73 +90,82 @@ public class Proposer {
      * Sends PREPARE requests to all Acceptors to gather promises
      * and move forward in the Paxos consensus process.
      */
-    public void sendPrepareRequests(PaxosMessage request) throws RemoteException {
-        // Send to self acceptor
-        sendRequestWithRetries(request, PaxosMessageType.PREPARE, node);
-
-        // Send to other acceptors
-        for (PaxosNode otherNode : node.getOtherNodes()) {
-            ProposalContext context = contextStore.get(request.getProposalId());
-            // Skip this request if consensus already achieved
-            if (context.isCommitConsensus()) return;
-            sendRequestWithRetries(request, PaxosMessageType.PREPARE, otherNode);
-        }
+    public void sendPrepareRequests(PaxosMessage request) {
+        sendToAllAcceptors(request, PaxosMessageType.PREPARE);
     }
 
     /**
-     * Sends ACCEPT requests to all Acceptors that have previously promised to accept a proposal,
-     * attempting to finalize the consensus.
+     * Sends ACCEPT requests to all Acceptors, attempting to finalize the consensus.
+     * Acceptors that did not promise still accept unless they promised a higher number,
+     * so a slow promiser does not keep the round from reaching a majority.
      */
-    public void sendAcceptRequests(PaxosMessage request) throws RemoteException {
-        UUID proposalId = request.getProposalId();
-        Map<PaxosNode, Boolean> committedNodes = contextStore.get(proposalId).getCommittedNodes();
+    public void sendAcceptRequests(PaxosMessage request) {
+        sendToAllAcceptors(request, PaxosMessageType.ACCEPT);
+    }
 
-        // Send accept request to committed nodes that ever replied
-        for (PaxosNode remoteNode : committedNodes.keySet()) {
-            sendRequestWithRetries(request, PaxosMessageType.ACCEPT, remoteNode);
+    /**
+     * Sends a request to every Acceptor, this node's included, all at once.
+     * Nothing waits on the sends: the round moves on through the replies as soon as a majority of them arrive,
+     * so a slow or dead acceptor only delays its own reply.
+     */
+    void sendToAllAcceptors(PaxosMessage request, PaxosMessageType messageType) {
+        sendRequestWithRetries(request, messageType, node.getNodeId());
+        for (String otherNodeId : node.getOtherNodeIds()) {
+            sendRequestWithRetries(request, messageType, otherNodeId);
         }
     }
 
     /**
      * Processes COMMIT replies from Acceptors.
-     * If a majority is reached, moves to the ACCEPT phase.
+     * The first reply that makes a majority moves the round to the ACCEPT phase
+     * with the highest-numbered value any of them had already accepted, or with its own value if none had.
+     * Replies arriving after that are still recorded as promises of the round.
      */
     public void handleCommitReply(PaxosMessage reply) throws RemoteException {
-        ServerLogger.log(node.getNodeId(), "Proposer - Received COMMIT rely from acceptor " + reply.getFromNode().getNodeId() + ":\n" + reply);
-
-        UUID proposalId = reply.getProposalId();
-        ProposalContext context = contextStore.get(proposalId);
-
-        // Skip this reply if consensus already achieved
-        if (context.isCommitConsensus()) {
-            ServerLogger.log(node.getNodeId(), "Proposer - Reply ignored: consensus already achieved");
-            return;
-        }
+        ServerLogger.debug(node.getNodeId(), "Proposer - Received COMMIT rely from acceptor {}:\n{}", reply.getFromNodeId(), reply);
+
+        long slot = reply.getSlot();
+        ProposalContext context = contextStore.get(slot);
+        if (context == null) return;  // the slot was settled and its instance retired
+
+        Operation operation;
+        synchronized (context) {
+            // Skip this reply if it belongs to an earlier round
+            if (reply.getProposalNumber().compareTo(context.getLargestProposalNumber()) != 0) {
+                ServerLogger.debug(node.getNodeId(), "Proposer - Reply ignored: round superseded");
+                return;
+            }
 
-        if (reply.getProposalNumber().compareTo(context.getLargestProposalNumber()) > 0) {
-            context.setLargestProposalNumber(reply.getProposalNumber());
-        }
+            context.addCommittedNode(reply.getFromNodeId());
+            if (context.isCommitConsensus()) {
+                ServerLogger.debug(node.getNodeId(), "Proposer - Late COMMIT reply recorded, ACCEPT phase already started");
+                return;
+            }
 
-        context.addCommittedNode(reply.getFromNode());
-        node.updateContextStore(proposalId, context);
+            reply.getAcceptedInstances().forEach(context::reportAcceptedInstance);
+            if (!context.achieveMajorityCommitted(node.getClusterSize())) return;
 
-        if (context.achieveMajorityCommitted(node.getOtherNodes().size() + 1)) {
-            ServerLogger.log(node.getNodeId(), "Proposer - Achieved consensus! Received COMMIT replies from majority of acceptors");
+            ServerLogger.debug(node.getNodeId(), "Proposer - Achieved consensus! Received COMMIT replies from majority of acceptors");
             context.setCommitConsensus(true);
-            node.updateContextStore(proposalId, context);
-
-            PaxosMessage acceptRequest = new PaxosMessage(
-                    proposalId,
-                    PaxosMessageType.ACCEPT,
-                    context.getLargestProposalNumber(),
-                    node,
-                    node, // can be changed when sending request
-                    reply.getOperationType(),
-                    reply.getKey(),
-                    reply.getValue()
-            );
-            sendAcceptRequests(acceptRequest);
+            if (context.getPhaseStartNanos() != 0) node.getMetrics().recordPreparePhase(context.getPhaseStartNanos());
+            context.setPhaseStartNanos(System.nanoTime());
+
+            AcceptedInstance reported = context.getHighestReportedInstance();
+            operation = reported != null ? reported.getOperation() : reply.getOperation();
+            if (reported != null) {
+                ServerLogger.debug(node.getNodeId(), "Proposer - Slot {} already has an accepted value, proposing it instead: {}", slot, operation);
+            }
         }
+
+        PaxosMessage acceptRequest = new PaxosMessage(
+                slot,
+                PaxosMessageType.ACCEPT,
+                reply.getProposalNumber(),
+                node.getNodeId(),
+                null, // set when sending request
+                operation
+        );
+        sendAcceptRequests(acceptRequest);
     }
 
     /**
@@ -135,38 +173,39 @@ public class Proposer {
      * potentially leading to retries with higher proposal numbers to overcome conflicts.
      */
     public void handleRejectReply(PaxosMessage reply) throws RemoteException {
-        ServerLogger.log(node.getNodeId(), "Proposer - Received REJECT rely from acceptor " + reply.getFromNode().getNodeId() + ":\n" + reply);
+        ServerLogger.debug(node.getNodeId(), "Proposer - Received REJECT rely from acceptor {}:\n{}", reply.getFromNodeId(), reply);
+        node.getMetrics().countReject();
 
-        UUID proposalId = reply.getProposalId();
-        ProposalContext context = contextStore.get(proposalId);
+        long slot = reply.getSlot();
+        ProposalContext context = contextStore.get(slot);
+        if (context == null) return;  // the slot was settled and its instance retired
 
-        // Skip this reply if consensus already achieved
-        if (context.isCommitConsensus()) {
-            ServerLogger.log(node.getNodeId(), "Proposer - Reply ignored: consensus already achieved");
+        // Skip this reply if consensus already achieved or a higher round already started
+        if (context.isCommitConsensus() || reply.getProposalNumber().compareTo(context.getLargestProposalNumber()) < 0) {
+            ServerLogger.debug(node.getNodeId(), "Proposer - Reply ignored: consensus already achieved or round superseded");
             return;
         }
 
         // Context changes, clear committed nodes record
         context.clearCommittedNodes();
+        context.setHighestReportedInstance(null);
 
-        ServerLogger.log(node.getNodeId(), "Proposer - Restart a proposal with a higher proposal number");
+        ServerLogger.debug(node.getNodeId(), "Proposer - Restart a proposal with a higher proposal number");
         // Retry with a larger proposal number
         ProposalNumber largerNumber = new ProposalNumber(
                 reply.getProposalNumber().getSequenceNumber() + 1,
                 node.getNodeId()
         );
         context.setLargestProposalNumber(largerNumber);
-        node.updateContextStore(proposalId, context);
+        context.setPhaseStartNanos(System.nanoTime());
 
         PaxosMessage prepareRequest = new PaxosMessage(
-                proposalId,
+                slot,
                 PaxosMessageType.PREPARE,
                 largerNumber,
-                node,
-                node, // can be changed when sending request
-                reply.getOperationType(),
-                reply.getKey(),
-                reply.getValue()
+                node.getNodeId(),
+                null, // set when sending request
+                reply.getOperation()
         );
         sendPrepareRequests(prepareRequest);
     }
@@ -175,32 +214,41 @@ public class Proposer {
      * Attempts to send a request multiple times to handle transient failures,
      * ensuring robust communication in adverse conditions.
      */
-    private void sendRequestWithRetries(PaxosMessage request, PaxosMessageType messageType, PaxosNode targetNode) throws RemoteException {
+    CompletableFuture<Void> sendRequestWithRetries(PaxosMessage request, PaxosMessageType messageType, String targetNodeId) {
         int maxRetries = Integer.parseInt(System.getenv("MAX_RETRY_COUNT"));
         PaxosMessage retryRequest = new PaxosMessage(
-                request.getProposalId(),
+                request.getSlot(),
                 messageType,
                 request.getProposalNumber(),
-                node,
-                targetNode,
-                request.getOperationType(),
-                request.getKey(),
-                request.getValue()
+                node.getNodeId(),
+                targetNodeId,
+                request.getOperation()
         );
-        for (int retryCount = 0; retryCount < maxRetries; retryCount++) {
-            try {
-                ServerLogger.log(node.getNodeId(), String.format("Proposer - Sending %s request to acceptor %s:\n%s",
-                        messageType, targetNode.getNodeId(), retryRequest));
-                node.sendMessage(retryRequest);
-                break;
-            } catch (RemoteException e) {
-                ServerLogger.log(node.getNodeId(), String.format("Proposer - RMI exception during send %s request to acceptor %s: %s",
-                        messageType, targetNode.getNodeId(), e.getMessage()));
-                if (retryCount == maxRetries - 1) {
-                    ServerLogger.log(node.getNodeId(), String.format("Proposer - Failed to send %s request to %s after %s attempts",
-                            messageType, targetNode.getNodeId(), retryCount + 1));
-                }
+        return sendAttempt(retryRequest, 0, maxRetries);
+    }
+
+    /**
+     * Sends one attempt of a request and chains the next attempt onto its failure, without blocking a thread.
+     */
+    private CompletableFuture<Void> sendAttempt(PaxosMessage request, int retryCount, int maxRetries) {
+        PaxosMessageType messageType = request.getMessageType();
+        String targetNodeId = request.getToNodeId();
+        ServerLogger.debug(node.getNodeId(), "Proposer - Sending {} request to acceptor {}:\n{}", messageType, targetNodeId, request);
+
+        return node.sendMessage(request).handle((ignored, error) -> {
+            if (error == null) return CompletableFuture.<Void>completedFuture(null);
+
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            ServerLogger.debug(node.getNodeId(), "Proposer - Exception during send {} request to acceptor {}: {}",
+                    messageType, targetNodeId, cause.getMessage());
+            if (retryCount >= maxRetries - 1) {
+                ServerLogger.info(node.getNodeId(), "Proposer - Failed to send {} request to {} after {} attempts",
+                        messageType, targetNodeId, retryCount + 1);
+                node.getMetrics().countDroppedMessage();
+                return CompletableFuture.<Void>failedFuture(cause);
             }
-        }
+            node.getMetrics().countRetry();
+            return sendAttempt(request, retryCount + 1, maxRetries);
+        }).thenCompose(Function.identity());
     }
 }
@@ -0,0 +1,118 @@
+package com.liyang.server;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Confirms Multi-Paxos leadership for linearizable reads without a lease or a log write.
+ * The leader notes the highest decided slot, then sends one round of READ_INDEX messages;
+ * once a majority, itself included, answers that it has promised no higher ballot,
+ * no other leader can have written anything the leader has not seen, and reads are served
+ * as soon as the store has applied up to the noted slot.
+ * A round sent before a read arrived proves nothing about it, so reads arriving while a round is out
+ * wait for the next one, which then confirms all of them together.
+ */
+public class ReadIndex {
+    private final PaxosNodeImpl node;
+    private final ReplicatedLog log;
+    private final AtomicLong roundIds = new AtomicLong();
+    private Round inFlight = null;
+    private Round next = null;  // collects the reads arriving while a round is out
+
+    public ReadIndex(PaxosNodeImpl node, ReplicatedLog log) {
+        this.node = node;
+        this.log = log;
+    }
+
+    /**
+     * Joins the next confirmation round. The future completes with the slot the store must have applied
+     * before the read, or fails if this node could not confirm it still leads within the round timeout.
+     */
+    public CompletableFuture<Long> confirm() {
+        Round round;
+        boolean send;
+        synchronized (this) {
+            if (next == null) next = new Round(roundIds.incrementAndGet());
+            round = next;
+            send = inFlight == null;
+            if (send) {
+                inFlight = round;
+                next = null;
+            }
+        }
+        if (send) send(round);
+        return round.result;
+    }
+
+    /**
+     * Counts a READ_INDEX_ACK towards the round it answers.
+     */
+    public void handleAck(PaxosMessage ack) {
+        Round round;
+        synchronized (this) {
+            round = inFlight;
+        }
+        if (round == null || ack.getSlot() != round.id || ack.getProposalNumber().compareTo(round.ballot) != 0) return;
+
+        round.acks.add(ack.getFromNodeId());
+        if (round.acks.size() + 1 > node.getClusterSize() / 2) round.result.complete(round.readIndex);
+    }
+
+    private void send(Round round) {
+        round.result.orTimeout(node.getRoundTimeout(), TimeUnit.MILLISECONDS).whenComplete((index, error) -> finished(round));
+
+        Leader leader = node.getLeader();
+        ProposalNumber ballot = leader.getBallot();
+        if (!leader.isLeading() || ballot == null || !node.getAcceptor().followsBallot(ballot)) {
+            round.result.completeExceptionally(new IllegalStateException("Node " + node.getNodeId() + " is not the leader"));
+            return;
+        }
+        round.ballot = ballot;
+        round.readIndex = Math.max(leader.getReadBarrierSlot(), log.getHighestDecidedSlot());
+
+        if (node.getClusterSize() == 1) {
+            round.result.complete(round.readIndex);
+            return;
+        }
+        for (String otherNodeId : node.getOtherNodeIds()) {
+            node.sendMessage(new PaxosMessage(
+                    round.id,
+                    PaxosMessageType.READ_INDEX,
+                    ballot,
+                    node.getNodeId(),
+                    otherNodeId,
+                    null
+            ));
+        }
+    }
+
+    /**
+     * Sends the round that collected reads while the finished one was out, if any.
+     */
+    private void finished(Round round) {
+        Round following;
+        synchronized (this) {
+            if (inFlight != round) return;
+            following = next;
+            inFlight = following;
+            next = null;
+        }
+        if (following != null) send(following);
+    }
+
+    private static final class Round {
+        private final long id;
+        private final Set<String> acks = ConcurrentHashMap.newKeySet();
+        private final CompletableFuture<Long> result = new CompletableFuture<>();
+        private volatile ProposalNumber ballot;
+        private volatile long readIndex;
+
+        private Round(long id) {
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.liyang.server;
+
+import com.liyang.common.ServerConfig;
+
+/**
+ * Selects how a Multi-Paxos node serves GET requests:
+ * LOCAL reads the store of the node the client reached, which may miss recent writes,
+ * LEASE reads from the leader while a majority grants it a time-bounded read lease,
+ * READ_INDEX reads from the leader after a round of messages confirms it still leads.
+ */
+public enum ReadMode {
+    LOCAL("LOCAL"),
+    LEASE("LEASE"),
+    READ_INDEX("READ_INDEX");
+
+    private final String mode;
+
+    ReadMode(String mode) {
+        this.mode = mode;
+    }
+
+    public static ReadMode fromEnv() {
+        return ReadMode.valueOf(ServerConfig.getString("READ_MODE", "LEASE").toUpperCase());
+    }
+
+    @Override
+    public String toString() {
+        return mode;
+    }
+}
@@ -0,0 +1,315 @@
+package com.liyang.server;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * The replicated command log of a node.
+ * Holds the operation decided for each slot, numbered from 1,
+ * and hands contiguous prefixes of decided slots to the applier in slot order.
+ * Slots covered by a snapshot of the store are dropped, the log then starts right after the snapshot index.
+ */
+public class ReplicatedLog {
+    private final Map<Long, Operation> decidedOperations = new ConcurrentHashMap<>();
+    private final Map<UUID, Long> decidedProposals = new ConcurrentHashMap<>();  // lowest slot each proposal was decided in
+    private final RetiredProposals retiredProposals = new RetiredProposals();  // the same for proposals of applied slots, kept compact
+    private final Map<Long, CompletableFuture<Operation>> decidedFutures = new ConcurrentHashMap<>();
+    private final Map<Long, CompletableFuture<Void>> appliedFutures = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition decidedCondition = lock.newCondition();
+    private volatile long appliedIndex = 0;
+    private volatile long highestDecidedSlot = 0;
+    private volatile long snapshotIndex = 0;  // slots up to here are only known through a snapshot
+    private final AtomicReference<SnapshotFile.Snapshot> pendingSnapshot = new AtomicReference<>();  // received from another node, not installed yet
+    private long nextProposalSlot = 1;
+
+    /**
+     * Records the operation chosen for a slot and wakes the applier.
+     * Decisions are final, so a slot that is already decided keeps its operation.
+     * The operations of a batch are tracked on their own as well, since a retried one may land in another slot.
+     * Proposals are tracked before the slot is published, otherwise the applier could find the slot
+     * before its proposals and skip them as duplicates.
+     */
+    public void decide(long slot, Operation operation) {
+        if (slot <= appliedIndex || decidedOperations.containsKey(slot)) return;
+
+        trackProposal(operation.getProposalId(), slot);
+        for (Operation batched : operation.getBatch()) {
+            trackProposal(batched.getProposalId(), slot);
+        }
+        if (decidedOperations.putIfAbsent(slot, operation) != null) return;  // decided concurrently, with the same operation
+
+        CompletableFuture<Operation> decidedFuture = decidedFutures.remove(slot);
+        if (decidedFuture != null) decidedFuture.complete(operation);
+        lock.lock();
+        try {
+            highestDecidedSlot = Math.max(highestDecidedSlot, slot);
+            decidedCondition.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records the slot a proposal was decided in, keeping the earlier slot of a proposal already retired,
+     * so later lookups find the first decision without consulting the retired record.
+     */
+    private void trackProposal(UUID proposalId, long slot) {
+        Long retiredSlot = retiredProposals.getSlot(proposalId);
+        decidedProposals.merge(proposalId, retiredSlot != null ? retiredSlot : slot, Math::min);
+    }
+
+    public Operation getDecided(long slot) {
+        return decidedOperations.get(slot);
+    }
+
+    /**
+     * Tells whether the slot is decided, including slots only known through a snapshot.
+     */
+    public boolean isDecided(long slot) {
+        return slot <= appliedIndex || decidedOperations.containsKey(slot);
+    }
+
+    /**
+     * Returns the slot the proposal was first decided in, or null if it has not been decided yet.
+     */
+    public Long getSlotOf(UUID proposalId) {
+        Long slot = decidedProposals.get(proposalId);
+        return slot != null ? slot : retiredProposals.getSlot(proposalId);
+    }
+
+    /**
+     * Tells whether the operation decided in this slot is the first decision of its proposal.
+     * A proposal retried after a failure can be chosen in more than one slot, only the first one takes effect.
+     */
+    public boolean isFirstDecision(long slot, Operation operation) {
+        Long firstSlot = getSlotOf(operation.getProposalId());
+        return firstSlot != null && firstSlot == slot;
+    }
+
+    /**
+     * Moves the proposals decided up to the given applied slot into the compact retired record
+     * and forgets retired ones past their retention. Returns how many proposals were moved.
+     * They are recorded as retired before they leave the map, so a lookup never misses them in between.
+     */
+    public int retireProposals(long upTo) {
+        long retireTo = Math.min(upTo, appliedIndex);
+        Map<UUID, Long> retiring = new HashMap<>();
+        for (Map.Entry<UUID, Long> entry : decidedProposals.entrySet()) {
+            if (entry.getValue() <= retireTo) retiring.put(entry.getKey(), entry.getValue());
+        }
+        retiredProposals.add(retiring);
+        retiring.forEach(decidedProposals::remove);
+        retiredProposals.expire();
+        return retiring.size();
+    }
+
+    public int getRetiredProposalCount() {
+        return retiredProposals.size();
+    }
+
+    public long getAppliedIndex() {
+        return appliedIndex;
+    }
+
+    /**
+     * The index of the latest snapshot. Slots up to it are no longer in the log.
+     */
+    public long getSnapshotIndex() {
+        return snapshotIndex;
+    }
+
+    public long getHighestDecidedSlot() {
+        return highestDecidedSlot;
+    }
+
+    /**
+     * Records that another node has seen the given slot decided,
+     * so a gap below it is noticed even if this node never learned anything past it.
+     */
+    public void observeDecidedSlot(long slot) {
+        lock.lock();
+        try {
+            highestDecidedSlot = Math.max(highestDecidedSlot, slot);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the lowest slot this node has not seen decided.
+     */
+    public long getFirstUndecidedSlot() {
+        long slot = appliedIndex + 1;
+        while (decidedOperations.containsKey(slot)) slot++;
+        return slot;
+    }
+
+    /**
+     * Picks a slot for a new local proposal that is neither decided nor handed out to another local proposal.
+     */
+    public synchronized long reserveSlot() {
+        long slot = Math.max(nextProposalSlot, appliedIndex + 1);
+        while (decidedOperations.containsKey(slot)) slot++;
+        nextProposalSlot = slot + 1;
+        return slot;
+    }
+
+    /**
+     * Tells whether later slots are decided while the next slot to apply is still missing.
+     */
+    public boolean hasGap() {
+        return highestDecidedSlot > appliedIndex && !decidedOperations.containsKey(appliedIndex + 1);
+    }
+
+    /**
+     * Completes with the operation chosen for the given slot once this node learns it,
+     * or with null if the slot is only known through a snapshot.
+     */
+    public CompletableFuture<Operation> whenDecided(long slot) {
+        Operation decided = decidedOperations.get(slot);
+        if (decided != null || slot <= snapshotIndex) return CompletableFuture.completedFuture(decided);
+
+        CompletableFuture<Operation> future = decidedFutures.computeIfAbsent(slot, s -> new CompletableFuture<>());
+        decided = decidedOperations.get(slot);
+        if (decided != null) {  // decided while registering
+            decidedFutures.remove(slot);
+            future.complete(decided);
+        }
+        return future;
+    }
+
+    /**
+     * Waits up to the timeout for the given slot to be decided and tells whether it was.
+     */
+    public boolean awaitDecided(long slot, long timeoutMillis) throws InterruptedException {
+        try {
+            whenDecided(slot).get(timeoutMillis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Completes once the operation in the given slot has been applied to the state machine.
+     */
+    public CompletableFuture<Void> whenApplied(long slot) {
+        if (slot <= appliedIndex) return CompletableFuture.completedFuture(null);
+
+        CompletableFuture<Void> future = appliedFutures.computeIfAbsent(slot, s -> new CompletableFuture<>());
+        if (slot <= appliedIndex) {  // applied while registering
+            appliedFutures.remove(slot);
+            future.complete(null);
+        }
+        return future;
+    }
+
+    /**
+     * Waits until the next slot to apply is decided,
+     * then returns the contiguous run of decided slots that follows the applied index, up to maxBatch entries.
+     * Returns an empty list if nothing became applicable within the timeout, or a snapshot is waiting to be installed.
+     */
+    public List<Map.Entry<Long, Operation>> takeContiguous(int maxBatch, long timeoutMillis) throws InterruptedException {
+        long nextSlot = appliedIndex + 1;
+        lock.lock();
+        try {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (!decidedOperations.containsKey(nextSlot) && pendingSnapshot.get() == null) {
+                if (remaining <= 0) return List.of();
+                remaining = decidedCondition.awaitNanos(remaining);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        List<Map.Entry<Long, Operation>> batch = new ArrayList<>();
+        if (pendingSnapshot.get() != null) return batch;  // the applier installs the snapshot first
+        for (long slot = nextSlot; batch.size() < maxBatch; slot++) {
+            Operation operation = decidedOperations.get(slot);
+            if (operation == null) break;
+            batch.add(new AbstractMap.SimpleImmutableEntry<>(slot, operation));
+        }
+        return batch;
+    }
+
+    /**
+     * Advances the applied index past the given slots and releases everyone waiting on them.
+     */
+    public void markApplied(List<Map.Entry<Long, Operation>> batch) {
+        appliedIndex = batch.get(batch.size() - 1).getKey();
+        for (Map.Entry<Long, Operation> entry : batch) {
+            CompletableFuture<Void> future = appliedFutures.remove(entry.getKey());
+            if (future != null) future.complete(null);
+        }
+    }
+
+    /**
+     * Drops the decided slots covered by a snapshot of the store, which now stands in for them.
+     */
+    public void truncate(long index) {
+        long truncateTo = Math.min(index, appliedIndex);
+        if (truncateTo <= snapshotIndex) return;
+        snapshotIndex = truncateTo;
+        decidedOperations.keySet().removeIf(slot -> slot <= truncateTo);
+        decidedFutures.entrySet().removeIf(entry -> {
+            if (entry.getKey() > truncateTo) return false;
+            entry.getValue().complete(null);
+            return true;
+        });
+    }
+
+    /**
+     * Hands a snapshot received from another node to the applier, which installs it between two batches.
+     * Only the most advanced snapshot offered is kept.
+     */
+    public void offerSnapshot(SnapshotFile.Snapshot snapshot) {
+        if (snapshot.index() <= appliedIndex) return;
+        pendingSnapshot.accumulateAndGet(snapshot, (current, offered) ->
+                current == null || offered.index() > current.index() ? offered : current);
+        lock.lock();
+        try {
+            decidedCondition.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public SnapshotFile.Snapshot pollSnapshot() {
+        return pendingSnapshot.getAndSet(null);
+    }
+
+    /**
+     * Moves the log past a snapshot that has been loaded into the store:
+     * everything up to its index counts as applied, and everyone waiting on those slots is released.
+     */
+    public void installSnapshot(long index) {
+        if (index <= appliedIndex) return;
+        appliedIndex = index;
+        truncate(index);
+        lock.lock();
+        try {
+            highestDecidedSlot = Math.max(highestDecidedSlot, index);
+        } finally {
+            lock.unlock();
+        }
+        appliedFutures.entrySet().removeIf(entry -> {
+            if (entry.getKey() > index) return false;
+            entry.getValue().complete(null);
+            return true;
+        });
+    }
+}
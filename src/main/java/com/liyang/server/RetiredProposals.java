@@ -0,0 +1,92 @@
+package com.liyang.server;
+
+import com.liyang.common.ServerConfig;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+
+/**
+ * Remembers which slot each proposal of a retired slot was decided in, so a retried copy of it is still
+ * recognised as a duplicate after its slot left the log and the context store.
+ * Each retirement adds a generation holding the IDs as sorted primitive arrays, 24 bytes per proposal,
+ * and generations are dropped once they are older than DEDUP_RETENTION_MS,
+ * well past the time a client operation can still be retried.
+ */
+public class RetiredProposals {
+    private final long retentionMillis = ServerConfig.getLong("DEDUP_RETENTION_MS", 60000);
+    private final Deque<Generation> generations = new ConcurrentLinkedDeque<>();  // oldest first
+
+    /**
+     * Adds the given proposals and their slots as a new generation.
+     */
+    public void add(Map<UUID, Long> proposals) {
+        if (proposals.isEmpty()) return;
+
+        @SuppressWarnings("unchecked")
+        Map.Entry<UUID, Long>[] sorted = proposals.entrySet().toArray(Map.Entry[]::new);
+        Arrays.sort(sorted, Map.Entry.comparingByKey(Comparator.naturalOrder()));
+
+        long[] mostSignificant = new long[sorted.length];
+        long[] leastSignificant = new long[sorted.length];
+        long[] slots = new long[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            mostSignificant[i] = sorted[i].getKey().getMostSignificantBits();
+            leastSignificant[i] = sorted[i].getKey().getLeastSignificantBits();
+            slots[i] = sorted[i].getValue();
+        }
+        generations.addLast(new Generation(System.currentTimeMillis(), mostSignificant, leastSignificant, slots));
+    }
+
+    /**
+     * Returns the lowest retired slot the proposal was decided in, or null if it is not on record.
+     */
+    public Long getSlot(UUID proposalId) {
+        for (Generation generation : generations) {
+            int index = generation.indexOf(proposalId);
+            if (index >= 0) return generation.slots()[index];  // the oldest generation holds the lowest slot
+        }
+        return null;
+    }
+
+    /**
+     * Drops the generations older than the retention period.
+     */
+    public void expire() {
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        Iterator<Generation> iterator = generations.iterator();
+        while (iterator.hasNext() && iterator.next().createdMillis() < cutoff) iterator.remove();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Generation generation : generations) size += generation.slots().length;
+        return size;
+    }
+
+    /**
+     * Proposals retired together, sorted the way UUID compares them: by signed high bits, then signed low bits.
+     */
+    private record Generation(long createdMillis, long[] mostSignificant, long[] leastSignificant, long[] slots) {
+        int indexOf(UUID proposalId) {
+            long most = proposalId.getMostSignificantBits();
+            long least = proposalId.getLeastSignificantBits();
+            int low = 0;
+            int high = slots.length - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int comparison = Long.compare(mostSignificant[middle], most);
+                if (comparison == 0) comparison = Long.compare(leastSignificant[middle], least);
+                if (comparison < 0) low = middle + 1;
+                else if (comparison > 0) high = middle - 1;
+                else return middle;
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.liyang.server;
+
+import lombok.Getter;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+
+/**
+ * One page of a range scan: a bounded run of pairs in key order,
+ * and the key the next page starts at, which a client passes back as the start key of its next scan.
+ */
+@Getter
+public class ScanPage implements Serializable {
+    private final Map<String, String> entries;  // in key order
+    private final String nextKey;  // null once the range is exhausted
+
+    public ScanPage(Map<String, String> entries, String nextKey) {
+        this.entries = entries;
+        this.nextKey = nextKey;
+    }
+
+    @Override
+    public String toString() {
+        return entries.entrySet().stream().map(entry -> entry.getKey() + "->" + entry.getValue())
+                .collect(Collectors.joining(", ", "[", "]"));
+    }
+}
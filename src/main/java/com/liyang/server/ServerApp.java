@@ -1,14 +1,25 @@
 package com.liyang.server;
 
+import com.liyang.common.ServerConfig;
 import com.liyang.paxosNode.PaxosNode;
 import com.liyang.registry.InMemoryRegistry;
 import com.liyang.registry.NodeInfo;
 import com.liyang.registry.Registry;
+import com.liyang.transport.BinaryMessageCodec;
+import com.liyang.transport.JavaMessageCodec;
+import com.liyang.transport.MessageCodec;
+import com.liyang.transport.TransportType;
+import com.liyang.transport.VertxClientEndpoint;
+import com.liyang.transport.VertxClientTransport;
+import com.liyang.transport.VertxTransport;
+import io.vertx.core.Vertx;
+import io.vertx.core.net.SocketAddress;
 
 import java.rmi.Naming;
 import java.rmi.registry.LocateRegistry;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -25,7 +36,7 @@ public class ServerApp {
         try {
             nodes = registry.discover();
         } catch (Exception e) {
-            ServerLogger.log(null, "Failed to discover nodes from registry: " + e.getMessage());
+            ServerLogger.error(null, "Failed to discover nodes from registry: {}", e.getMessage());
             return;
         }
 
@@ -36,6 +47,25 @@ public class ServerApp {
             nodeRmiAddresses.put(ni.getNodeId(), ni.rmiAddress());
         }
 
+        // Paxos messages go over RMI by default, or over Vert.x TCP on the RMI port plus an offset
+        TransportType transportType = TransportType.fromEnv();
+        int transportPortOffset = ServerConfig.getInt("TRANSPORT_PORT_OFFSET", 1000);
+        Vertx vertx = transportType == TransportType.VERTX ? Vertx.vertx() : null;  // event loops shared by all nodes
+        Map<String, SocketAddress> transportAddresses = new ConcurrentHashMap<>();
+        nodeRmiAddresses.forEach((nodeId, nodeRmiAddress) -> {
+            String[] addressParts = nodeRmiAddress.split(":");
+            String host = addressParts[1].replaceFirst("^//", "");
+            int port = Integer.parseInt(addressParts[2].split("/")[0]) + transportPortOffset;
+            transportAddresses.put(nodeId, SocketAddress.inetSocketAddress(port, host));
+        });
+        // Vert.x frames carry the compact binary format unless Java serialization is asked for
+        MessageCodec codec = "JAVA".equalsIgnoreCase(ServerConfig.getString("MESSAGE_CODEC", "BINARY"))
+                ? new JavaMessageCodec()
+                : new BinaryMessageCodec(nodeIds);
+        ServerLogger.info(null, "PAXOS nodes exchange messages over {}", transportType);
+        // Each node runs this many Paxos groups, each owning a hash partition of the keys
+        int groupCount = ServerConfig.getInt("GROUP_COUNT", 1);
+
         // Start each node
         nodeRmiAddresses.forEach((nodeId, nodeRmiAddress) -> {
             try {
@@ -43,14 +73,31 @@ public class ServerApp {
                 String[] portAndName = addressParts[2].split("/");
                 int nodePort = Integer.parseInt(portAndName[0]);
                 LocateRegistry.createRegistry(nodePort);
-                ServerLogger.log(null, "PAXOS node " + nodeId + " RMI registry created on port " + nodePort);
+                ServerLogger.info(null, "PAXOS node {} RMI registry created on port {}", nodeId, nodePort);
 
-                PaxosNode node = new PaxosNodeImpl(nodeId, null); // will connect with other nodes later
+                // will connect with other nodes later
+                PaxosNode node;
+                if (groupCount > 1) {
+                    node = transportType == TransportType.VERTX
+                            ? new ShardedNode(nodeId, groupCount, self -> new VertxTransport(vertx, nodeId, transportAddresses, codec))
+                            : new ShardedNode(nodeId, groupCount);
+                } else {
+                    node = transportType == TransportType.VERTX
+                            ? new PaxosNodeImpl(nodeId, null, self -> new VertxTransport(vertx, nodeId, transportAddresses, codec))
+                            : new PaxosNodeImpl(nodeId, null);
+                }
                 Naming.rebind(nodeRmiAddress, node);
-                ServerLogger.log(nodeId,"PAXOS node RMI instance name bound: " + nodeRmiAddress);
+                ServerLogger.info(nodeId, "PAXOS node RMI instance name bound: {}", nodeRmiAddress);
+
+                // Over Vert.x, clients also get a multiplexed endpoint on the RMI port plus CLIENT_PORT_OFFSET
+                if (transportType == TransportType.VERTX) {
+                    SocketAddress clientAddress = VertxClientTransport.endpointAddress(nodeRmiAddress);
+                    new VertxClientEndpoint(vertx, node, nodeId, clientAddress).start();
+                    ServerLogger.info(nodeId, "PAXOS node serving clients over Vert.x on {}", clientAddress);
+                }
 
             } catch(Exception e) {
-                ServerLogger.log(nodeId, "Server exception when building RMI system: " + e.getMessage());
+                ServerLogger.error(nodeId, "Server exception when building RMI system: {}", e.getMessage());
             }
         });
 
@@ -64,15 +111,15 @@ public class ServerApp {
                             try {
                                 return (PaxosNode) Naming.lookup(nodeRmiAddresses.get(id));
                             } catch (Exception e) {
-                                ServerLogger.log(nodeId, "Server exception when building RMI system: " + e.getMessage());
+                                ServerLogger.error(nodeId, "Server exception when building RMI system: {}", e.getMessage());
                                 return null;
                             }
                         }).filter(Objects::nonNull).toList();
                 node.setOtherNodes(otherNodes);
-                ServerLogger.log(nodeId, "PAXOS node connections updated for " + nodeId);
-                ServerLogger.log(nodeId,"PAXOS node " + nodeId + " ready");
+                ServerLogger.info(nodeId, "PAXOS node connections updated for {}", nodeId);
+                ServerLogger.info(nodeId, "PAXOS node {} ready", nodeId);
             } catch (Exception e) {
-                ServerLogger.log(nodeId, "Server exception when setting other nodes for " + nodeId + ": " + e.getMessage());
+                ServerLogger.error(nodeId, "Server exception when setting other nodes for {}: {}", nodeId, e.getMessage());
             }
         });
     }
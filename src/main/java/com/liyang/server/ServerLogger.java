@@ -1,30 +1,126 @@
 package com.liyang.server;
 
-import java.io.*;
+import com.liyang.common.ServerConfig;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Provide logging functionality for the server.
+ * Each node writes to its own log file through an {@link AsyncLogWriter}, so a log call only queues the message.
+ * Messages take a pattern with {} placeholders and are formatted on the writer thread,
+ * and only if their level is at least LOG_LEVEL, so arguments should not change after they are passed.
+ * Messages are echoed to the console unless LOG_CONSOLE is false.
  */
 public class ServerLogger {
+    private static final LogLevel LEVEL = LogLevel.fromEnv();
+    private static final int BUFFER_SIZE = ServerConfig.getInt("LOG_BUFFER_SIZE", 8192);
+    private static final boolean BLOCK_WHEN_FULL = ServerConfig.getString("LOG_OVERFLOW", "DROP").equalsIgnoreCase("BLOCK");
+    private static final boolean CONSOLE = ServerConfig.getBoolean("LOG_CONSOLE", true);
+    private static final String SERVER_LOG = "server";
+    private static final Map<String, AsyncLogWriter> WRITERS = new ConcurrentHashMap<>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> WRITERS.values().forEach(AsyncLogWriter::close), "log-shutdown"));
+    }
+
     /**
      * Log a message to the console and to the log file of the server.
      */
     public static void log(String nodeId, String message) {
-        String logMessage;
-        if (nodeId == null) {
-            logMessage = message;
-        } else {
-            logMessage = String.format("[Node %s] %s", nodeId, message);
-        }
-
-        System.out.println(logMessage);
-
-        try (FileWriter fw = new FileWriter(nodeId + ".log", true);
-             BufferedWriter bw = new BufferedWriter(fw);
-             PrintWriter out = new PrintWriter(bw)) {
-            out.println(logMessage);
-        } catch (IOException e) {
-            System.err.println("Error writing to log file: " + e.getMessage());
-        }
+        info(nodeId, message);
+    }
+
+    public static boolean isEnabled(LogLevel level) {
+        return level.compareTo(LEVEL) >= 0;
+    }
+
+    public static void debug(String nodeId, String message) {
+        append(LogLevel.DEBUG, nodeId, message, null, null, null, null);
+    }
+
+    public static void debug(String nodeId, String pattern, Object first) {
+        append(LogLevel.DEBUG, nodeId, pattern, first, null, null, null);
+    }
+
+    public static void debug(String nodeId, String pattern, Object first, Object second) {
+        append(LogLevel.DEBUG, nodeId, pattern, first, second, null, null);
+    }
+
+    public static void debug(String nodeId, String pattern, Object first, Object second, Object third) {
+        append(LogLevel.DEBUG, nodeId, pattern, first, second, third, null);
+    }
+
+    public static void debug(String nodeId, String pattern, Object... arguments) {
+        append(LogLevel.DEBUG, nodeId, pattern, null, null, null, arguments);
+    }
+
+    public static void info(String nodeId, String message) {
+        append(LogLevel.INFO, nodeId, message, null, null, null, null);
+    }
+
+    public static void info(String nodeId, String pattern, Object first) {
+        append(LogLevel.INFO, nodeId, pattern, first, null, null, null);
+    }
+
+    public static void info(String nodeId, String pattern, Object first, Object second) {
+        append(LogLevel.INFO, nodeId, pattern, first, second, null, null);
+    }
+
+    public static void info(String nodeId, String pattern, Object first, Object second, Object third) {
+        append(LogLevel.INFO, nodeId, pattern, first, second, third, null);
+    }
+
+    public static void info(String nodeId, String pattern, Object... arguments) {
+        append(LogLevel.INFO, nodeId, pattern, null, null, null, arguments);
+    }
+
+    public static void warn(String nodeId, String message) {
+        append(LogLevel.WARN, nodeId, message, null, null, null, null);
+    }
+
+    public static void warn(String nodeId, String pattern, Object first) {
+        append(LogLevel.WARN, nodeId, pattern, first, null, null, null);
+    }
+
+    public static void warn(String nodeId, String pattern, Object first, Object second) {
+        append(LogLevel.WARN, nodeId, pattern, first, second, null, null);
+    }
+
+    public static void warn(String nodeId, String pattern, Object first, Object second, Object third) {
+        append(LogLevel.WARN, nodeId, pattern, first, second, third, null);
+    }
+
+    public static void error(String nodeId, String message) {
+        append(LogLevel.ERROR, nodeId, message, null, null, null, null);
+    }
+
+    public static void error(String nodeId, String pattern, Object first) {
+        append(LogLevel.ERROR, nodeId, pattern, first, null, null, null);
+    }
+
+    public static void error(String nodeId, String pattern, Object first, Object second) {
+        append(LogLevel.ERROR, nodeId, pattern, first, second, null, null);
+    }
+
+    /**
+     * Writes out the messages queued by every node and stops their writers.
+     */
+    public static void shutdown() {
+        WRITERS.values().forEach(AsyncLogWriter::close);
+        WRITERS.clear();
+    }
+
+    private static void append(LogLevel level, String nodeId, String pattern, Object first, Object second, Object third, Object[] rest) {
+        if (level.compareTo(LEVEL) < 0) return;
+        writer(nodeId).append(level, pattern, first, second, third, rest);
+    }
+
+    private static AsyncLogWriter writer(String nodeId) {
+        String name = nodeId == null ? SERVER_LOG : nodeId;
+        AsyncLogWriter writer = WRITERS.get(name);
+        if (writer != null) return writer;
+        return WRITERS.computeIfAbsent(name, ignored -> new AsyncLogWriter(nodeId, Path.of(name + ".log"), BUFFER_SIZE, BLOCK_WHEN_FULL, CONSOLE));
     }
 }
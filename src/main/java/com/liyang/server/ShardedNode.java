@@ -0,0 +1,222 @@
+package com.liyang.server;
+
+import com.liyang.common.ServerConfig;
+import com.liyang.paxosNode.PaxosNode;
+import com.liyang.transport.MessageHandler;
+import com.liyang.transport.RmiTransport;
+import com.liyang.transport.Transport;
+
+import java.nio.file.Path;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+
+/**
+ * A physical node hosting several independent Paxos groups, each owning the keys that hash to it.
+ * Every group is a full {@link PaxosNodeImpl} with its own log, acceptor state, store and leader,
+ * so groups decide and apply in parallel instead of queuing behind one consensus log.
+ * The groups share the one transport of the node, whose messages carry their group, and its thread pools.
+ * Client requests are routed to the group owning the key; a group forwards to its leader through the peer hosts,
+ * which route the request to the same group on their side.
+ */
+public class ShardedNode extends UnicastRemoteObject implements PaxosNode {
+    private final String nodeId;
+    private final PaxosNodeImpl[] groups;
+    private final Transport transport;
+    private List<PaxosNode> otherNodes = List.of();
+    private final Map<String, PaxosNode> nodesById = new ConcurrentHashMap<>();
+    private final int maxScanPageSize = ServerConfig.getInt("SCAN_MAX_PAGE_SIZE", 1000);
+
+    public ShardedNode(String nodeId, int groupCount) throws RemoteException {
+        this(nodeId, groupCount, node -> new RmiTransport(node::findNode));
+    }
+
+    /**
+     * Creates a node running groupCount groups over the transport built by the given factory.
+     * Each group keeps its durable state under DATA_DIR/nodeId/group-N.
+     */
+    public ShardedNode(String nodeId, int groupCount, Function<ShardedNode, Transport> transportFactory) throws RemoteException {
+        super();
+        if (groupCount < 1) throw new IllegalArgumentException("A node needs at least one group");
+        this.nodeId = nodeId;
+        this.transport = transportFactory.apply(this);
+        this.groups = new PaxosNodeImpl[groupCount];
+        NodeExecutors executors = new NodeExecutors(nodeId);
+        Path directory = Path.of(ServerConfig.getString("DATA_DIR", "data"), nodeId);
+        for (int group = 0; group < groupCount; group++) {
+            GroupTransport groupTransport = new GroupTransport(transport, group);
+            groups[group] = new PaxosNodeImpl(nodeId, group, groupCount, directory.resolve("group-" + group), executors,
+                    ignored -> groupTransport);
+            UnicastRemoteObject.unexportObject(groups[group], true);  // reached only through this node
+        }
+        try {
+            transport.start(this::receiveMessage);
+        } catch (Exception e) {
+            throw new RemoteException("Failed to start transport for node " + nodeId, e);
+        }
+    }
+
+    /**
+     * The group owning a key. The hash is mixed apart from the one splitting apply batches,
+     * so the keys of one group still spread over the apply workers.
+     */
+    public static int groupOf(String key, int groupCount) {
+        int hash = key == null ? 0 : key.hashCode();
+        hash = (hash ^ (hash >>> 16)) * 0x85ebca6b;
+        hash = (hash ^ (hash >>> 13)) * 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return (hash & Integer.MAX_VALUE) % groupCount;
+    }
+
+    private PaxosNodeImpl groupFor(String key) {
+        return groups[groupOf(key, groups.length)];
+    }
+
+    /**
+     * Looks up this node or one of the other nodes by its ID.
+     */
+    PaxosNode findNode(String id) {
+        return nodeId.equals(id) ? this : nodesById.get(id);
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public List<PaxosNode> getOtherNodes() {
+        return otherNodes;
+    }
+
+    /**
+     * Connects every group to the same group on the other nodes, which it reaches through their hosts.
+     */
+    @Override
+    public void setOtherNodes(List<PaxosNode> otherNodes) throws RemoteException {
+        this.otherNodes = otherNodes;
+        nodesById.clear();
+        for (PaxosNode otherNode : otherNodes) nodesById.put(otherNode.getNodeId(), otherNode);
+        for (PaxosNodeImpl group : groups) group.setOtherNodes(otherNodes);
+    }
+
+    /**
+     * The leader of the first group. Every reply names the leader of the group that served it.
+     */
+    @Override
+    public String getLeaderId() {
+        return groups[0].getLeaderId();
+    }
+
+    @Override
+    public List<String> getLeaderIds() {
+        List<String> leaderIds = new ArrayList<>(groups.length);
+        for (PaxosNodeImpl group : groups) leaderIds.add(group.getLeaderId());
+        return leaderIds;
+    }
+
+    @Override
+    public int getGroupCount() {
+        return groups.length;
+    }
+
+    PaxosNodeImpl getGroup(int group) {
+        return groups[group];
+    }
+
+    @Override
+    public ClientReply handlePutRequest(UUID proposalId, String key, String value) throws RemoteException {
+        return groupFor(key).handlePutRequest(proposalId, key, value);
+    }
+
+    @Override
+    public ClientReply handleGetRequest(String key) throws RemoteException {
+        return groupFor(key).handleGetRequest(key);
+    }
+
+    /**
+     * Applied-index tokens are slots of the group owning the key, clients keep one per group.
+     */
+    @Override
+    public ClientReply handleGetRequest(String key, long appliedIndex, long maxStaleness) throws RemoteException {
+        return groupFor(key).handleGetRequest(key, appliedIndex, maxStaleness);
+    }
+
+    @Override
+    public ClientReply handleDeleteRequest(UUID proposalId, String key) throws RemoteException {
+        return groupFor(key).handleDeleteRequest(proposalId, key);
+    }
+
+    /**
+     * Hands a Paxos message to the group it belongs to.
+     */
+    @Override
+    public void receiveMessage(PaxosMessage message) throws RemoteException {
+        int group = message.getGroup();
+        if (group < 0 || group >= groups.length) {
+            throw new RemoteException("Node " + nodeId + " has no group " + group + ", the nodes disagree on GROUP_COUNT");
+        }
+        groups[group].receiveMessage(message);
+    }
+
+    /**
+     * Merges the pages every group returns for the range into one page of at most pageSize pairs,
+     * capped at SCAN_MAX_PAGE_SIZE like the page of a single group,
+     * stopping before the first key some group has not returned yet, so no key of any group is skipped.
+     */
+    @Override
+    public ScanPage scan(String startKey, String endKey, int pageSize) throws RemoteException {
+        int limit = Math.max(1, Math.min(pageSize, maxScanPageSize));
+        TreeMap<String, String> merged = new TreeMap<>();
+        String nextKey = null;
+        for (PaxosNodeImpl group : groups) {
+            ScanPage page = group.scan(startKey, endKey, limit);
+            merged.putAll(page.getEntries());
+            if (page.getNextKey() != null && (nextKey == null || page.getNextKey().compareTo(nextKey) < 0)) nextKey = page.getNextKey();
+        }
+
+        Map<String, String> entries = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : merged.entrySet()) {
+            if (nextKey != null && entry.getKey().compareTo(nextKey) >= 0) break;
+            if (entries.size() >= limit) {
+                nextKey = entry.getKey();
+                break;
+            }
+            entries.put(entry.getKey(), entry.getValue());
+        }
+        return new ScanPage(entries, nextKey);
+    }
+
+    @Override
+    public String toString() {
+        return nodeId;
+    }
+
+    /**
+     * The view of the shared transport one group gets: its messages are stamped with the group,
+     * and the host receives for every group, so there is nothing to start or close.
+     */
+    private record GroupTransport(Transport shared, int group) implements Transport {
+        @Override
+        public void start(MessageHandler handler) {
+        }
+
+        @Override
+        public CompletableFuture<Void> send(PaxosMessage message) {
+            return shared.send(message.inGroup(group));
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.liyang.server;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Keeps the pairs sorted by key in a ConcurrentSkipListMap on the Java heap.
+ * Point reads and writes cost O(log n) rather than the O(1) of a hash map,
+ * in exchange a scan seeks to its start key and reads only the pairs it returns.
+ */
+public class SkipListStorageEngine implements StorageEngine {
+    private final ConcurrentSkipListMap<String, String> map = new ConcurrentSkipListMap<>();
+
+    @Override
+    public String get(String key) {
+        return map.get(key);
+    }
+
+    @Override
+    public void put(String key, String value) {
+        map.put(key, value);
+    }
+
+    @Override
+    public void remove(String key) {
+        map.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        map.clear();
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, String> action) {
+        map.forEach(action);
+    }
+
+    @Override
+    public boolean isOrdered() {
+        return true;
+    }
+
+    @Override
+    public void scan(String startKey, String endKey, int limit, BiConsumer<String, String> action) {
+        if (startKey != null && endKey != null && startKey.compareTo(endKey) >= 0) return;
+        NavigableMap<String, String> range = startKey == null ? map : map.tailMap(startKey, true);
+        if (endKey != null) range = range.headMap(endKey, false);
+        int remaining = limit;
+        for (Map.Entry<String, String> entry : range.entrySet()) {
+            if (remaining-- <= 0) return;
+            action.accept(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public long size() {
+        return map.size();
+    }
+
+    @Override
+    public boolean isParallelWritable() {
+        return true;
+    }
+}
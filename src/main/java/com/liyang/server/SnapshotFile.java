@@ -0,0 +1,263 @@
+package com.liyang.server;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+
+/**
+ * The on-disk snapshot of a node's key-value store, taken at an applied log index.
+ * Layout: [int magic][byte version][long applied index][long entry count],
+ * then each entry as [int key length][key][int value length][value] in UTF-8,
+ * then [int CRC32C] of the entries.
+ * A new snapshot is written beside the current one and moved over it only once it is on disk,
+ * so a crash while writing leaves the previous snapshot in place.
+ */
+public class SnapshotFile {
+    private static final int MAGIC = 0x50584e53;  // "PXNS"
+    private static final byte VERSION = 1;
+    private static final int HEADER_BYTES = Integer.BYTES + 1 + Long.BYTES + Long.BYTES;
+    private static final int COUNT_POSITION = Integer.BYTES + 1 + Long.BYTES;
+    private static final long MAP_WINDOW_BYTES = 1L << 30;
+
+    private final Path file;
+
+    public SnapshotFile(Path file) {
+        this.file = file;
+    }
+
+    public Path getPath() {
+        return file;
+    }
+
+    /**
+     * Writes the pairs produced by the source as the snapshot at the given index, replacing the current one.
+     */
+    public void write(long index, Consumer<BiConsumer<String, String>> source) throws IOException {
+        try (Writer writer = openWriter(index, ".tmp")) {
+            try {
+                source.accept((key, value) -> {
+                    try {
+                        writer.append(key, value);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            writer.commit();
+        }
+    }
+
+    /**
+     * Starts a snapshot at the given index in a file beside the current one, named by the suffix,
+     * for pairs that arrive a few at a time. The current snapshot is replaced only on commit.
+     */
+    public Writer openWriter(long index, String suffix) throws IOException {
+        Files.createDirectories(file.getParent());
+        return new Writer(index, file.resolveSibling(file.getFileName() + suffix));
+    }
+
+    /**
+     * Maps the snapshot and checks it, or returns null if there is none.
+     * The pairs are decoded from the mapping as they are visited, so reading costs no heap for the entries.
+     * A snapshot failing its checksum is an error rather than an empty store,
+     * since the log it replaced has already been truncated.
+     */
+    public Snapshot load() throws IOException {
+        if (!Files.exists(file)) return null;
+        return load(file);
+    }
+
+    /**
+     * Maps the entries in windows of at most MAP_WINDOW_BYTES, since a single mapping cannot pass 2 GiB
+     * while a snapshot grows with the store. The mappings stay valid once the channel closes,
+     * and keep the file they were taken from readable after a newer snapshot replaces it.
+     */
+    private static Snapshot load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES + Integer.BYTES) throw new IOException("Not a snapshot file: " + path);
+            ByteBuffer header = readFully(channel, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC) throw new IOException("Not a snapshot file: " + path);
+            byte version = header.get();
+            if (version != VERSION) throw new IOException("Unsupported snapshot version " + version + " in " + path);
+            long index = header.getLong();
+            long count = header.getLong();
+
+            long checksumPosition = size - Integer.BYTES;
+            List<ByteBuffer> windows = new ArrayList<>();
+            CRC32C crc = new CRC32C();
+            for (long position = HEADER_BYTES; position < checksumPosition; position += MAP_WINDOW_BYTES) {
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(MAP_WINDOW_BYTES, checksumPosition - position));
+                crc.update(window.duplicate());
+                windows.add(window);
+            }
+            if ((int) crc.getValue() != readFully(channel, checksumPosition, Integer.BYTES).getInt()) {
+                throw new IOException("Snapshot checksum mismatch in " + path);
+            }
+            return new Snapshot(index, count, List.copyOf(windows));
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException("Snapshot file ends early");
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Forces a directory to disk, which makes a file moved into it durable.
+     */
+    private static void forceDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * The content of the store at a given applied index, as the mapped entries of a snapshot file.
+     */
+    public record Snapshot(long index, long count, List<ByteBuffer> entries) {
+
+        /**
+         * Decodes the pairs one at a time, in the order they were written.
+         */
+        public void forEach(BiConsumer<String, String> action) {
+            EntryReader source = new EntryReader(entries);
+            for (long i = 0; i < count; i++) action.accept(source.readString(), source.readString());
+        }
+    }
+
+    /**
+     * Reads the entries across the windows they are mapped in, an entry may start in one window and end in the next.
+     */
+    private static final class EntryReader {
+        private final List<ByteBuffer> windows;
+        private int current = 0;
+        private ByteBuffer window;
+
+        private EntryReader(List<ByteBuffer> windows) {
+            this.windows = windows;
+            this.window = windows.isEmpty() ? ByteBuffer.allocate(0) : windows.get(0).duplicate();
+        }
+
+        private String readString() {
+            byte[] bytes = new byte[readInt()];
+            read(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private int readInt() {
+            if (window.remaining() >= Integer.BYTES) return window.getInt();
+            byte[] bytes = new byte[Integer.BYTES];
+            read(bytes);
+            return ByteBuffer.wrap(bytes).getInt();
+        }
+
+        private void read(byte[] into) {
+            int done = 0;
+            while (done < into.length) {
+                if (!window.hasRemaining()) {
+                    if (++current >= windows.size()) throw new BufferUnderflowException();
+                    window = windows.get(current).duplicate();
+                }
+                int length = Math.min(window.remaining(), into.length - done);
+                window.get(into, done, length);
+                done += length;
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot into a temporary file, moving it over the current snapshot on commit.
+     * Closing without committing deletes the temporary file.
+     */
+    public class Writer implements AutoCloseable {
+        private final long index;
+        private final Path temporary;
+        private final FileChannel channel;
+        private final CRC32C crc = new CRC32C();
+        private final DataOutputStream out;
+        private long count = 0;
+        private boolean committed = false;
+
+        private Writer(long index, Path temporary) throws IOException {
+            this.index = index;
+            this.temporary = temporary;
+            this.channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).put(VERSION).putLong(index).putLong(0).flip();
+            while (header.hasRemaining()) channel.write(header);
+            this.out = new DataOutputStream(new CheckedOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024), crc));
+        }
+
+        public long getIndex() {
+            return index;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public void append(String key, String value) throws IOException {
+            writeString(out, key);
+            writeString(out, value);
+            count++;
+        }
+
+        /**
+         * Finishes the file, forces it to disk, checks it loads and moves it over the current snapshot,
+         * forcing the directory so the move itself is on disk once this returns.
+         */
+        public void commit() throws IOException {
+            out.flush();  // not closed, that would close the channel before the trailer
+            ByteBuffer trailer = ByteBuffer.allocate(Integer.BYTES).putInt((int) crc.getValue()).flip();
+            while (trailer.hasRemaining()) channel.write(trailer);
+            channel.write(ByteBuffer.allocate(Long.BYTES).putLong(count).flip(), COUNT_POSITION);
+            channel.force(true);
+            channel.close();
+            load(temporary);  // a snapshot that cannot be read back must not replace one the logs were truncated to
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            forceDirectory(file.getParent());  // the logs are truncated next, the rename must not be lost in a crash
+            committed = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (committed) return;
+            channel.close();
+            Files.deleteIfExists(temporary);
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package com.liyang.server;
+
+import com.liyang.common.ServerConfig;
+
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+
+/**
+ * Takes periodic snapshots of the key-value store so the log and the acceptor log stop growing with history.
+ * A snapshot is taken every SNAPSHOT_INTERVAL applied slots at the applied index,
+ * written in the background from a copy-on-write view while the applier keeps going,
+ * and once it is on disk the slots it covers are dropped from both logs.
+ * Nodes that fall behind the snapshot of their peers are sent the snapshot instead of the slots,
+ * streamed in bounded chunks that the receiver spools to disk before installing.
+ */
+public class SnapshotManager {
+    private static final UUID SNAPSHOT_ENTRY_ID = new UUID(0L, 0L);  // entries of a sent snapshot are not proposals
+    private static final String RECEIVING_SUFFIX = ".recv";
+
+    private final PaxosNodeImpl node;
+    private final ReplicatedLog log;
+    private final KeyValueStore keyValueStore;
+    private final Acceptor acceptor;
+    private final SnapshotFile snapshotFile;
+    private final long interval = ServerConfig.getLong("SNAPSHOT_INTERVAL", 10000);
+    private final int chunkSize = ServerConfig.getInt("SNAPSHOT_CHUNK_SIZE", 1024);
+    private final int chunkBytes = ServerConfig.getInt("SNAPSHOT_CHUNK_BYTES", 1024 * 1024);
+    private final ExecutorService writer;
+    private final ExecutorService sender;
+    private final AtomicBoolean snapshotting = new AtomicBoolean(false);
+    private final Map<String, Long> lastSentMillis = new ConcurrentHashMap<>();
+    private final Set<String> sendingTo = ConcurrentHashMap.newKeySet();
+    private volatile long lastSnapshotIndex = 0;
+    private Transfer receiving = null;  // the snapshot being received, guarded by this
+
+    public SnapshotManager(PaxosNodeImpl node, ReplicatedLog log, KeyValueStore keyValueStore, Acceptor acceptor) {
+        this.node = node;
+        this.log = log;
+        this.keyValueStore = keyValueStore;
+        this.acceptor = acceptor;
+        this.snapshotFile = new SnapshotFile(node.getDataDirectory().resolve("snapshot.bin"));
+        this.writer = Executors.newSingleThreadExecutor(task -> daemonThread(task, "snapshot-" + node.getNodeId()));
+        this.sender = Executors.newSingleThreadExecutor(task -> daemonThread(task, "snapshot-sender-" + node.getNodeId()));
+    }
+
+    private static Thread daemonThread(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Periodic snapshots are on when the interval is positive.
+     */
+    public boolean isEnabled() {
+        return interval > 0;
+    }
+
+    /**
+     * Loads the snapshot left by an earlier run into the store and moves the log past it.
+     * Called before the applier starts.
+     */
+    public void recover() throws IOException {
+        long start = System.nanoTime();
+        SnapshotFile.Snapshot snapshot = snapshotFile.load();
+        if (snapshot == null) return;
+
+        keyValueStore.restore(snapshot::forEach);
+        log.installSnapshot(snapshot.index());
+        lastSnapshotIndex = snapshot.index();
+        ServerLogger.info(node.getNodeId(), "Snapshot - Loaded {} keys at index {} in {} ms",
+                snapshot.count(), snapshot.index(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Starts a snapshot if enough slots were applied since the last one and none is being written.
+     * Called by the applier between batches, so the view is taken exactly at the applied index.
+     */
+    public void maybeSnapshot() {
+        long index = log.getAppliedIndex();
+        if (!isEnabled() || index - lastSnapshotIndex < interval || !snapshotting.compareAndSet(false, true)) return;
+
+        KeyValueStore.SnapshotView view = keyValueStore.openSnapshotView();
+        writer.execute(() -> {
+            try (view) {
+                writeSnapshot(index, view::forEach);
+            } finally {
+                snapshotting.set(false);
+            }
+        });
+    }
+
+    /**
+     * Drops what a snapshot received from another node covers, once the applier has loaded it into the store.
+     * The snapshot itself is already on disk.
+     */
+    public void installed(SnapshotFile.Snapshot snapshot) {
+        writer.execute(() -> truncate(snapshot.index()));
+    }
+
+    /**
+     * Writes the snapshot, then truncates the log and compacts the acceptor log below its index.
+     */
+    private void writeSnapshot(long index, Consumer<BiConsumer<String, String>> source) {
+        if (index <= lastSnapshotIndex) return;
+        long start = System.nanoTime();
+        try {
+            snapshotFile.write(index, source);
+        } catch (IOException e) {
+            ServerLogger.error(node.getNodeId(), "Snapshot - Failed to write snapshot at index {}: {}", index, e.getMessage());
+            return;
+        }
+        lastSnapshotIndex = index;
+        ServerLogger.info(node.getNodeId(), "Snapshot - Wrote snapshot at index {} in {} ms", index, (System.nanoTime() - start) / 1_000_000);
+        truncate(index);
+    }
+
+    /**
+     * Truncates the log and compacts the acceptor log below a snapshot that is on disk.
+     */
+    private void truncate(long index) {
+        log.truncate(index);
+        acceptor.compact(index).whenComplete((ignored, error) -> {
+            if (error != null) ServerLogger.warn(node.getNodeId(), "Snapshot - Failed to compact the acceptor log: {}", error.getMessage());
+        });
+    }
+
+    /**
+     * Sends the latest snapshot to a node asking about a slot this node only knows through it.
+     * A node that keeps asking is answered at most once per round timeout, and never while a transfer to it runs.
+     */
+    public void sendSnapshot(String toNodeId) {
+        long now = System.currentTimeMillis();
+        Long lastSent = lastSentMillis.get(toNodeId);
+        if (lastSent != null && now - lastSent < node.getRoundTimeout()) return;
+        lastSentMillis.put(toNodeId, now);
+        if (!sendingTo.add(toNodeId)) return;
+
+        sender.execute(() -> {
+            try {
+                transfer(toNodeId);
+            } catch (Exception e) {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                ServerLogger.warn(node.getNodeId(), "Snapshot - Stopped sending snapshot to node {}: {}", toNodeId, cause.getMessage());
+            } finally {
+                sendingTo.remove(toNodeId);
+            }
+        });
+    }
+
+    /**
+     * Streams the latest snapshot from its file in chunks of at most SNAPSHOT_CHUNK_SIZE pairs or SNAPSHOT_CHUNK_BYTES,
+     * sending the next chunk only once the receiver has handled the last, so neither side holds more than a chunk.
+     * The ID of a chunk's batch carries the position of its first pair and the pair count of the whole snapshot,
+     * which tell the receiver where the chunk goes and when the snapshot is complete.
+     */
+    private void transfer(String toNodeId) throws IOException {
+        SnapshotFile.Snapshot snapshot = snapshotFile.load();
+        if (snapshot == null) return;
+        ServerLogger.info(node.getNodeId(), "Snapshot - Sending snapshot at index {} with {} keys to node {}",
+                snapshot.index(), snapshot.count(), toNodeId);
+
+        List<Operation> chunk = new ArrayList<>();
+        long[] position = {0};
+        int[] bytes = {0};
+        snapshot.forEach((key, value) -> {
+            Operation entry = new Operation(SNAPSHOT_ENTRY_ID, OperationType.PUT, key, value);
+            chunk.add(entry);
+            bytes[0] += entry.estimateSize();
+            if (chunk.size() < chunkSize && bytes[0] < chunkBytes) return;
+            sendChunk(toNodeId, snapshot, position[0], chunk);
+            position[0] += chunk.size();
+            chunk.clear();
+            bytes[0] = 0;
+        });
+        if (!chunk.isEmpty() || snapshot.count() == 0) sendChunk(toNodeId, snapshot, position[0], chunk);
+    }
+
+    /**
+     * Sends one chunk and waits until the receiver has written it, throwing if it refused it or did not answer in time.
+     */
+    private void sendChunk(String toNodeId, SnapshotFile.Snapshot snapshot, long position, List<Operation> chunk) {
+        PaxosMessage message = new PaxosMessage(
+                snapshot.index(),
+                PaxosMessageType.SNAPSHOT,
+                null,
+                node.getNodeId(),
+                toNodeId,
+                Operation.batch(new UUID(position, snapshot.count()), chunk)
+        );
+        node.sendMessage(message).orTimeout(node.getConsensusTimeout(), TimeUnit.MILLISECONDS).join();
+    }
+
+    /**
+     * Writes a chunk of a snapshot sent by another node into a file beside the current snapshot.
+     * One snapshot is received at a time: a chunk of another, or one out of place, is refused, which stops its sender.
+     * A transfer no chunk arrived for within the consensus timeout is dropped for the next one,
+     * and a sender starting over replaces its own transfer.
+     * Once every pair is on disk the file replaces the current snapshot and is handed to the applier.
+     */
+    public synchronized void handleSnapshotMessage(PaxosMessage message) throws RemoteException {
+        Operation chunk = message.getOperation();
+        long position = chunk.getProposalId().getMostSignificantBits();
+        long count = chunk.getProposalId().getLeastSignificantBits();
+        long now = System.currentTimeMillis();
+        if (receiving != null && (now - receiving.lastChunkMillis > node.getConsensusTimeout()
+                || position == 0 && receiving.fromNodeId.equals(message.getFromNodeId()))) {
+            abandonReceiving();
+        }
+
+        if (position == 0) {
+            if (message.getSlot() <= Math.max(log.getAppliedIndex(), lastSnapshotIndex)) {
+                throw new RemoteException("Node " + node.getNodeId() + " is already past index " + message.getSlot());
+            }
+            if (receiving != null) {
+                throw new RemoteException("Node " + node.getNodeId() + " is receiving a snapshot from node " + receiving.fromNodeId);
+            }
+            try {
+                receiving = new Transfer(message.getFromNodeId(), count, snapshotFile.openWriter(message.getSlot(), RECEIVING_SUFFIX));
+            } catch (IOException e) {
+                throw new RemoteException("Failed to start receiving snapshot at index " + message.getSlot(), e);
+            }
+            ServerLogger.info(node.getNodeId(), "Snapshot - Receiving snapshot at index {} with {} keys from node {}",
+                    message.getSlot(), count, message.getFromNodeId());
+        } else if (receiving == null || !receiving.fromNodeId.equals(message.getFromNodeId())
+                || receiving.writer.getIndex() != message.getSlot() || receiving.writer.getCount() != position) {
+            throw new RemoteException("Unexpected snapshot chunk at position " + position + " from node " + message.getFromNodeId());
+        }
+
+        try {
+            for (Operation entry : chunk.getBatch()) receiving.writer.append(entry.getKey(), entry.getValue());
+        } catch (IOException e) {
+            abandonReceiving();
+            throw new RemoteException("Failed to write snapshot chunk at position " + position, e);
+        }
+        receiving.lastChunkMillis = now;
+        if (receiving.writer.getCount() < receiving.count) return;
+
+        SnapshotFile.Writer received = receiving.writer;
+        receiving = null;
+        writer.execute(() -> commitReceived(received));
+    }
+
+    /**
+     * Moves a fully received snapshot over the current one and offers it to the applier.
+     * Runs on the writer thread, so it never interleaves with a snapshot this node writes itself.
+     */
+    private void commitReceived(SnapshotFile.Writer received) {
+        try (received) {
+            if (received.getIndex() <= lastSnapshotIndex) return;
+            received.commit();
+            lastSnapshotIndex = received.getIndex();
+            SnapshotFile.Snapshot snapshot = snapshotFile.load();
+            ServerLogger.info(node.getNodeId(), "Snapshot - Received snapshot at index {} with {} keys", snapshot.index(), snapshot.count());
+            log.offerSnapshot(snapshot);
+        } catch (IOException e) {
+            ServerLogger.error(node.getNodeId(), "Snapshot - Failed to save received snapshot at index {}: {}", received.getIndex(), e.getMessage());
+        }
+    }
+
+    private void abandonReceiving() {
+        try {
+            receiving.writer.close();
+        } catch (IOException e) {
+            ServerLogger.warn(node.getNodeId(), "Snapshot - Failed to remove partly received snapshot: {}", e.getMessage());
+        }
+        receiving = null;
+    }
+
+    /**
+     * A snapshot being received: who sends it, how many pairs it has, and the file they are written to.
+     */
+    private static final class Transfer {
+        private final String fromNodeId;
+        private final long count;
+        private final SnapshotFile.Writer writer;
+        private long lastChunkMillis = System.currentTimeMillis();
+
+        private Transfer(String fromNodeId, long count, SnapshotFile.Writer writer) {
+            this.fromNodeId = fromNodeId;
+            this.count = count;
+            this.writer = writer;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.liyang.server;
+
+import com.liyang.common.ServerConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+
+/**
+ * Applies decided operations to the key-value store strictly in log order on a dedicated thread,
+ * draining contiguous runs of decided slots in batches.
+ * Being the only writer of the store, it needs no per-key locking.
+ * A large batch is split by key hash across APPLY_WORKERS partitions applied in parallel:
+ * operations on one key stay in one partition in log order, and disjoint keys never wait for each other.
+ * The applied index only advances once every partition of a batch is done, so it always marks a fully applied prefix.
+ */
+public class StateMachineApplier implements Runnable {
+    private final PaxosNodeImpl node;
+    private final ReplicatedLog log;
+    private final KeyValueStore keyValueStore;
+    private final SnapshotManager snapshotManager;
+    private final int batchSize = ServerConfig.getInt("APPLY_BATCH_SIZE", 256);
+    private final long gapTimeout = ServerConfig.getLong("GAP_TIME_OUT", 1000);
+    private final int parallelThreshold = ServerConfig.getInt("APPLY_PARALLEL_THRESHOLD", 64);  // smaller batches are not worth the handoff
+    private final int workerCount;
+    private final ExecutorService workers;  // shared by the groups of the node
+
+    public StateMachineApplier(PaxosNodeImpl node, ReplicatedLog log, KeyValueStore keyValueStore, SnapshotManager snapshotManager) {
+        this.node = node;
+        this.log = log;
+        this.keyValueStore = keyValueStore;
+        this.snapshotManager = snapshotManager;
+        this.workerCount = node.getExecutors().getApplyWorkerCount();
+        this.workers = node.getExecutors().getApplyWorkers();
+    }
+
+    public void start() {
+        Thread thread = new Thread(this, "applier-" + node.getNodeId());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                SnapshotFile.Snapshot snapshot = log.pollSnapshot();
+                if (snapshot != null) install(snapshot);
+
+                List<Map.Entry<Long, Operation>> batch = log.takeContiguous(batchSize, gapTimeout);
+                if (batch.isEmpty()) {
+                    // Later slots are decided but this node missed the next one, ask the cluster for it
+                    if (log.hasGap()) node.repairGap(log.getAppliedIndex() + 1);
+                    continue;
+                }
+                apply(batch);
+                snapshotManager.maybeSnapshot();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                ServerLogger.error(node.getNodeId(), "Applier - Error applying decided operations: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Replaces the store with a snapshot sent by another node that is ahead of this one,
+     * then carries on from the slot after it.
+     */
+    private void install(SnapshotFile.Snapshot snapshot) {
+        if (snapshot.index() <= log.getAppliedIndex()) return;
+        keyValueStore.restore(snapshot::forEach);
+        log.installSnapshot(snapshot.index());
+        snapshotManager.installed(snapshot);
+        ServerLogger.info(node.getNodeId(), "Applier - Installed snapshot at index {}", snapshot.index());
+    }
+
+    /**
+     * Applies a run of decided slots to the store in one atomic step,
+     * so the operations of a batched slot become visible together.
+     */
+    private void apply(List<Map.Entry<Long, Operation>> batch) {
+        long startNanos = System.nanoTime();
+        List<Operation> effective = new ArrayList<>();
+        for (Map.Entry<Long, Operation> entry : batch) {
+            long slot = entry.getKey();
+            Operation operation = entry.getValue();
+            // Skip proposals already applied from an earlier slot
+            if (!log.isFirstDecision(slot, operation)) continue;
+
+            if (operation.getOperationType() == OperationType.BATCH) {
+                for (Operation batched : operation.getBatch()) {
+                    if (log.isFirstDecision(slot, batched)) effective.add(batched);
+                }
+            } else {
+                effective.add(operation);
+            }
+        }
+        if (workers == null || effective.size() < parallelThreshold) {
+            keyValueStore.applyAll(effective);
+        } else {
+            keyValueStore.applyPartitioned(partition(effective), workers);
+        }
+        log.markApplied(batch);
+        node.getMetrics().recordApply(startNanos);
+        ServerLogger.debug(node.getNodeId(), "Applier - Applied slots {} to {}", batch.get(0).getKey(), batch.get(batch.size() - 1).getKey());
+    }
+
+    /**
+     * Splits operations by key hash, keeping their order within each partition.
+     */
+    private List<List<Operation>> partition(List<Operation> operations) {
+        List<List<Operation>> partitions = new ArrayList<>(workerCount);
+        for (int i = 0; i < workerCount; i++) partitions.add(new ArrayList<>(operations.size() / workerCount + 1));
+        for (Operation operation : operations) {
+            int hash = operation.getKey() == null ? 0 : operation.getKey().hashCode();
+            partitions.get(((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % workerCount).add(operation);
+        }
+        return partitions;
+    }
+}
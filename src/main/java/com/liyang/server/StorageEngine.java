@@ -0,0 +1,54 @@
+package com.liyang.server;
+
+import java.util.function.BiConsumer;
+
+/**
+ * Holds the key-value pairs behind a {@link KeyValueStore}.
+ * The store adds atomic groups of writes and snapshot views on top, so an engine only needs single-key operations
+ * that are safe to call from several threads at once.
+ */
+public interface StorageEngine {
+
+    /**
+     * The value of the key, or null if it is absent.
+     */
+    String get(String key);
+
+    void put(String key, String value);
+
+    void remove(String key);
+
+    /**
+     * Removes every pair, releasing the memory they held.
+     */
+    void clear();
+
+    /**
+     * Visits every pair. Pairs written while the visit runs may or may not be visited,
+     * a pair left untouched throughout is visited exactly once.
+     */
+    void forEach(BiConsumer<String, String> action);
+
+    /**
+     * Whether the engine keeps its keys sorted and can seek to the start of a range.
+     */
+    default boolean isOrdered() {
+        return false;
+    }
+
+    /**
+     * Visits in key order the first limit pairs whose keys lie in [startKey, endKey), a null bound leaving that end open.
+     * Only ordered engines scan: finding a range in a hash table takes a pass over the whole store for every page.
+     */
+    default void scan(String startKey, String endKey, int limit, BiConsumer<String, String> action) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not keep its keys in order");
+    }
+
+    long size();
+
+    /**
+     * Whether writes to distinct keys from several threads proceed in parallel,
+     * rather than queueing on a lock inside the engine.
+     */
+    boolean isParallelWritable();
+}
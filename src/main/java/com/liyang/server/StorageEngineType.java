@@ -0,0 +1,43 @@
+package com.liyang.server;
+
+import com.liyang.common.ServerConfig;
+
+/**
+ * Selects the engine that holds a node's key-value pairs:
+ * HEAP keeps them as Java strings in a concurrent hash map,
+ * OFF_HEAP keeps them as UTF-8 bytes outside the Java heap, so large stores cost little heap and GC time,
+ * ORDERED keeps them sorted by key in a concurrent skip list, so a range scan seeks to its start rather than
+ * visiting the whole store.
+ * ORDERED is the default because it is the only engine that serves SCAN requests, which the client's print command
+ * relies on: paging a hash engine would read the whole store for every page while holding up writes.
+ * The price is on point reads and writes, O(log n) string comparisons down the skip list instead of one hash probe,
+ * and a few more objects per pair; a store that is never scanned can set HEAP or OFF_HEAP to get them back.
+ */
+public enum StorageEngineType {
+    HEAP("HEAP"),
+    OFF_HEAP("OFF_HEAP"),
+    ORDERED("ORDERED");
+
+    private final String type;
+
+    StorageEngineType(String type) {
+        this.type = type;
+    }
+
+    public static StorageEngineType fromEnv() {
+        return StorageEngineType.valueOf(ServerConfig.getString("STORAGE_ENGINE", "ORDERED").toUpperCase());
+    }
+
+    public StorageEngine create() {
+        return switch (this) {
+            case HEAP -> new HeapStorageEngine();
+            case OFF_HEAP -> new OffHeapStorageEngine(ServerConfig.getLong("OFF_HEAP_EXPECTED_KEYS", 1024));
+            case ORDERED -> new SkipListStorageEngine();
+        };
+    }
+
+    @Override
+    public String toString() {
+        return type;
+    }
+}
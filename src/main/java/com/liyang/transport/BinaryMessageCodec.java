@@ -0,0 +1,207 @@
+package com.liyang.transport;
+
+import com.liyang.server.*;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+
+/**
+ * A compact hand-rolled wire format for Paxos messages.
+ * Node IDs are written as their index in the sorted cluster membership, a proposal number is packed into one long
+ * with the sequence number in the high and the node index in the low 32 bits,
+ * and strings are written as length-prefixed UTF-8. Every node must be built with the same membership.
+ * <p>
+ * Layout: version byte, message type byte, group short, slot long, proposal number long, from and to node shorts,
+ * operation, then an int count of accepted instances each made of a slot long, a proposal number long and an operation.
+ * An operation is a type byte (-1 when absent), the proposal ID as two longs, key and value strings,
+ * and for a batch an int count followed by its operations.
+ * A count is checked against the bytes left before anything is allocated for it,
+ * so a corrupt message fails with an IOException rather than exhausting the heap.
+ */
+public class BinaryMessageCodec implements MessageCodec {
+    private static final byte VERSION = 2;
+    private static final byte ABSENT = -1;
+    private static final int MIN_OPERATION_BYTES = 1;  // an absent operation
+    private static final int MIN_INSTANCE_BYTES = Long.BYTES + Long.BYTES + MIN_OPERATION_BYTES;
+    private static final PaxosMessageType[] MESSAGE_TYPES = PaxosMessageType.values();
+    private static final OperationType[] OPERATION_TYPES = OperationType.values();
+
+    private final List<String> nodeIds;
+    private final Map<String, Integer> nodeIndexes = new HashMap<>();
+    private final ThreadLocal<CharsetEncoder> encoders = ThreadLocal.withInitial(() -> StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE));
+
+    public BinaryMessageCodec(Collection<String> clusterNodeIds) {
+        this.nodeIds = clusterNodeIds.stream().sorted().toList();
+        for (int index = 0; index < nodeIds.size(); index++) {
+            nodeIndexes.put(nodeIds.get(index), index);
+        }
+    }
+
+    @Override
+    public void encode(PaxosMessage message, ByteBuffer target) throws IOException {
+        target.put(VERSION);
+        target.put((byte) message.getMessageType().ordinal());
+        target.putShort((short) message.getGroup());
+        target.putLong(message.getSlot());
+        putProposalNumber(target, message.getProposalNumber());
+        putNodeId(target, message.getFromNodeId());
+        putNodeId(target, message.getToNodeId());
+        putOperation(target, message.getOperation());
+
+        List<AcceptedInstance> acceptedInstances = message.getAcceptedInstances();
+        target.putInt(acceptedInstances.size());
+        for (AcceptedInstance instance : acceptedInstances) {
+            target.putLong(instance.getSlot());
+            putProposalNumber(target, instance.getAcceptedProposalNumber());
+            putOperation(target, instance.getOperation());
+        }
+    }
+
+    @Override
+    public PaxosMessage decode(ByteBuffer source) throws IOException {
+        try {
+            byte version = source.get();
+            if (version != VERSION) throw new IOException("Unsupported message format version " + version);
+
+            PaxosMessageType messageType = MESSAGE_TYPES[source.get()];
+            int group = source.getShort();
+            long slot = source.getLong();
+            ProposalNumber proposalNumber = getProposalNumber(source);
+            String fromNodeId = getNodeId(source);
+            String toNodeId = getNodeId(source);
+            Operation operation = getOperation(source);
+
+            int instanceCount = getCount(source, MIN_INSTANCE_BYTES);
+            List<AcceptedInstance> acceptedInstances = new ArrayList<>(instanceCount);
+            for (int i = 0; i < instanceCount; i++) {
+                acceptedInstances.add(new AcceptedInstance(source.getLong(), getProposalNumber(source), getOperation(source)));
+            }
+            return new PaxosMessage(slot, messageType, proposalNumber, fromNodeId, toNodeId, operation, acceptedInstances, group);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Truncated or corrupt message", e);
+        }
+    }
+
+    private void putProposalNumber(ByteBuffer target, ProposalNumber proposalNumber) throws IOException {
+        if (proposalNumber == null) {
+            target.putLong(ABSENT);
+            return;
+        }
+        target.putLong(((long) proposalNumber.getSequenceNumber() << 32) | nodeIndex(proposalNumber.getNodeId()));
+    }
+
+    private ProposalNumber getProposalNumber(ByteBuffer source) throws IOException {
+        long packed = source.getLong();
+        if (packed == ABSENT) return null;
+        return new ProposalNumber((int) (packed >>> 32), nodeId((int) packed));
+    }
+
+    private void putNodeId(ByteBuffer target, String nodeId) throws IOException {
+        target.putShort(nodeId == null ? ABSENT : (short) nodeIndex(nodeId));
+    }
+
+    private String getNodeId(ByteBuffer source) throws IOException {
+        short index = source.getShort();
+        return index == ABSENT ? null : nodeId(index);
+    }
+
+    private void putOperation(ByteBuffer target, Operation operation) throws IOException {
+        if (operation == null) {
+            target.put(ABSENT);
+            return;
+        }
+        target.put((byte) operation.getOperationType().ordinal());
+        target.putLong(operation.getProposalId().getMostSignificantBits());
+        target.putLong(operation.getProposalId().getLeastSignificantBits());
+        putString(target, operation.getKey());
+        putString(target, operation.getValue());
+        if (operation.getOperationType() == OperationType.BATCH) {
+            target.putInt(operation.getBatch().size());
+            for (Operation batched : operation.getBatch()) putOperation(target, batched);
+        }
+    }
+
+    private Operation getOperation(ByteBuffer source) throws IOException {
+        byte type = source.get();
+        if (type == ABSENT) return null;
+
+        OperationType operationType = OPERATION_TYPES[type];
+        UUID proposalId = new UUID(source.getLong(), source.getLong());
+        String key = getString(source);
+        String value = getString(source);
+        if (operationType != OperationType.BATCH) return new Operation(proposalId, operationType, key, value);
+
+        int count = getCount(source, MIN_OPERATION_BYTES);
+        List<Operation> batch = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) batch.add(getOperation(source));
+        return Operation.batch(proposalId, batch);
+    }
+
+    /**
+     * Reads the count of a list, refusing one larger than the entries left in the message could fill.
+     */
+    private static int getCount(ByteBuffer source, int minEntryBytes) throws IOException {
+        int count = source.getInt();
+        if (count < 0 || count > source.remaining() / minEntryBytes) throw new IOException("Invalid count " + count);
+        return count;
+    }
+
+    /**
+     * Encodes the string as UTF-8 straight into the buffer, then fills in the length reserved in front of it.
+     */
+    private void putString(ByteBuffer target, String string) throws IOException {
+        if (string == null) {
+            target.putInt(ABSENT);
+            return;
+        }
+        if (target.remaining() < Integer.BYTES) throw new BufferOverflowException();
+
+        int lengthPosition = target.position();
+        target.position(lengthPosition + Integer.BYTES);
+        CharsetEncoder encoder = encoders.get().reset();
+        CoderResult result = encoder.encode(CharBuffer.wrap(string), target, true);
+        if (!result.isOverflow()) result = encoder.flush(target);
+        if (result.isOverflow()) throw new BufferOverflowException();
+        if (result.isError()) result.throwException();
+        target.putInt(lengthPosition, target.position() - lengthPosition - Integer.BYTES);
+    }
+
+    private String getString(ByteBuffer source) throws IOException {
+        int length = source.getInt();
+        if (length == ABSENT) return null;
+        if (length < 0 || length > source.remaining()) throw new IOException("Invalid string length " + length);
+
+        String string;
+        if (source.hasArray()) {
+            string = new String(source.array(), source.arrayOffset() + source.position(), length, StandardCharsets.UTF_8);
+            source.position(source.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            source.get(bytes);
+            string = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return string;
+    }
+
+    private int nodeIndex(String nodeId) throws IOException {
+        Integer index = nodeIndexes.get(nodeId);
+        if (index == null) throw new IOException("Node " + nodeId + " is not a cluster member");
+        return index;
+    }
+
+    private String nodeId(int index) throws IOException {
+        if (index < 0 || index >= nodeIds.size()) throw new IOException("Unknown node index " + index);
+        return nodeIds.get(index);
+    }
+}
@@ -0,0 +1,32 @@
+package com.liyang.transport;
+
+import com.liyang.server.ClientReply;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+
+/**
+ * Carries client requests to one node.
+ * Sending never blocks the caller: the returned future completes with the node's reply,
+ * or fails with a RemoteException if the request could not be delivered or the node failed handling it.
+ */
+public interface ClientTransport extends AutoCloseable {
+
+    CompletableFuture<ClientReply> put(UUID requestId, String key, String value);
+
+    CompletableFuture<ClientReply> get(String key);
+
+    /**
+     * A read served by the node's own store once it has applied up to the given applied-index token.
+     */
+    CompletableFuture<ClientReply> get(String key, long appliedIndex, long maxStaleness);
+
+    CompletableFuture<ClientReply> delete(UUID requestId, String key);
+
+    /**
+     * Releases connections and threads, failing the requests still waiting for their reply.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,133 @@
+package com.liyang.transport;
+
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.net.NetSocket;
+import io.vertx.core.parsetools.RecordParser;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+
+
+/**
+ * The framing shared by the Vert.x connections between nodes and between clients and nodes.
+ * Every frame is a 4-byte length followed by an 8-byte correlation ID, a 1-byte frame type and the payload,
+ * so any number of requests share one connection and their answers may come back in any order.
+ * Strings in a payload are an int UTF-8 length, -1 for null, followed by the bytes.
+ */
+final class Frames {
+    static final int LENGTH_PREFIX = 4;
+    static final int HEADER = 9;  // correlation ID and frame type
+
+    private Frames() {
+    }
+
+    /**
+     * Splits the byte stream of a connection into frames by their length prefix.
+     * A length shorter than the header or longer than maxFrameBytes is passed to invalidLength and closes the connection,
+     * since the stream can no longer be split into frames and a forged length must not make the parser buffer gigabytes.
+     */
+    static RecordParser parser(NetSocket socket, int maxFrameBytes, Handler<Integer> invalidLength, Handler<Buffer> frameHandler) {
+        RecordParser parser = RecordParser.newFixed(LENGTH_PREFIX);
+        parser.handler(new Handler<>() {
+            private boolean readingLength = true;
+            private boolean closed = false;
+
+            @Override
+            public void handle(Buffer buffer) {
+                if (closed) return;  // bytes already buffered after the bad length
+                if (readingLength) {
+                    int frameLength = buffer.getInt(0);
+                    if (frameLength < HEADER || frameLength > maxFrameBytes) {
+                        invalidLength.handle(frameLength);
+                        closed = true;
+                        parser.pause();
+                        socket.close();
+                        return;
+                    }
+                    parser.fixedSizeMode(frameLength);
+                } else {
+                    parser.fixedSizeMode(LENGTH_PREFIX);
+                    frameHandler.handle(buffer);
+                }
+                readingLength = !readingLength;
+            }
+        });
+        return parser;
+    }
+
+    /**
+     * A frame with its length prefix, ready to write.
+     */
+    static Buffer frame(long correlationId, byte frameType, Buffer payload) {
+        return Buffer.buffer(LENGTH_PREFIX + HEADER + payload.length())
+                .appendInt(HEADER + payload.length())
+                .appendLong(correlationId)
+                .appendByte(frameType)
+                .appendBuffer(payload);
+    }
+
+    static long correlationId(Buffer frame) {
+        return frame.getLong(0);
+    }
+
+    static byte frameType(Buffer frame) {
+        return frame.getByte(Long.BYTES);
+    }
+
+    /**
+     * The payload of an ERROR frame: the message of the failure, unwrapped from a CompletionException.
+     */
+    static Buffer errorPayload(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return Buffer.buffer(String.valueOf(cause.getMessage()));
+    }
+
+    static String errorMessage(Buffer frame) {
+        return frame.getString(HEADER, frame.length(), "UTF-8");
+    }
+
+    static Buffer appendString(Buffer target, String value) {
+        if (value == null) return target.appendInt(-1);
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return target.appendInt(bytes.length).appendBytes(bytes);
+    }
+
+    static Buffer appendUuid(Buffer target, UUID value) {
+        return target.appendLong(value.getMostSignificantBits()).appendLong(value.getLeastSignificantBits());
+    }
+
+    /**
+     * Reads the fields of a frame's payload in the order they were appended.
+     * A payload cut short throws IndexOutOfBoundsException.
+     */
+    static final class Reader {
+        private final Buffer frame;
+        private int position = HEADER;
+
+        Reader(Buffer frame) {
+            this.frame = frame;
+        }
+
+        long getLong() {
+            long value = frame.getLong(position);
+            position += Long.BYTES;
+            return value;
+        }
+
+        UUID getUuid() {
+            return new UUID(getLong(), getLong());
+        }
+
+        String getString() {
+            int length = frame.getInt(position);
+            position += Integer.BYTES;
+            if (length == -1) return null;
+            if (length < 0 || length > frame.length() - position) throw new IndexOutOfBoundsException("Invalid string length " + length);
+            String value = frame.getString(position, position + length, "UTF-8");
+            position += length;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.liyang.transport;
+
+import com.liyang.server.PaxosMessage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Encodes messages with Java serialization, the same wire format RMI uses.
+ */
+public class JavaMessageCodec implements MessageCodec {
+
+    @Override
+    public void encode(PaxosMessage message, ByteBuffer target) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(message);
+        }
+        target.put(bytes.toByteArray());
+    }
+
+    @Override
+    public PaxosMessage decode(ByteBuffer source) throws IOException {
+        byte[] bytes = new byte[source.remaining()];
+        source.get(bytes);
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (PaxosMessage) in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unknown message class", e);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.liyang.transport;
+
+import com.liyang.server.PaxosMessage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Turns Paxos messages into bytes and back for transports that write to a socket themselves.
+ * Messages are written straight into a caller-supplied buffer, so transports can reuse one buffer per thread.
+ */
+public interface MessageCodec {
+
+    /**
+     * Writes the message at the buffer's position.
+     * Throws BufferOverflowException if it does not fit, the caller then retries with a larger buffer.
+     */
+    void encode(PaxosMessage message, ByteBuffer target) throws IOException;
+
+    /**
+     * Reads a message from the buffer's position up to its limit.
+     */
+    PaxosMessage decode(ByteBuffer source) throws IOException;
+}
@@ -0,0 +1,14 @@
+package com.liyang.transport;
+
+import com.liyang.server.PaxosMessage;
+
+import java.rmi.RemoteException;
+
+
+/**
+ * Receives the Paxos messages a transport delivers to a node.
+ */
+@FunctionalInterface
+public interface MessageHandler {
+    void handle(PaxosMessage message) throws RemoteException;
+}
@@ -0,0 +1,71 @@
+package com.liyang.transport;
+
+import com.liyang.paxosNode.PaxosNode;
+import com.liyang.server.ClientReply;
+
+import java.rmi.RemoteException;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * Sends each client request as a blocking RMI call on a virtual thread of its own.
+ * RMI does not multiplex calls: every call in flight holds a TCP connection to the node for itself,
+ * opened or taken from RMI's idle pool, so concurrent requests cost connections rather than threads.
+ */
+public class RmiClientTransport implements ClientTransport {
+    private final PaxosNode node;
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("client-request-", 0).factory());
+
+    public RmiClientTransport(PaxosNode node) {
+        this.node = node;
+    }
+
+    @Override
+    public CompletableFuture<ClientReply> put(UUID requestId, String key, String value) {
+        return call(() -> node.handlePutRequest(requestId, key, value));
+    }
+
+    @Override
+    public CompletableFuture<ClientReply> get(String key) {
+        return call(() -> node.handleGetRequest(key));
+    }
+
+    @Override
+    public CompletableFuture<ClientReply> get(String key, long appliedIndex, long maxStaleness) {
+        return call(() -> node.handleGetRequest(key, appliedIndex, maxStaleness));
+    }
+
+    @Override
+    public CompletableFuture<ClientReply> delete(UUID requestId, String key) {
+        return call(() -> node.handleDeleteRequest(requestId, key));
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private CompletableFuture<ClientReply> call(RemoteCall call) {
+        CompletableFuture<ClientReply> reply = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    reply.complete(call.invoke());
+                } catch (Exception e) {
+                    reply.completeExceptionally(e);
+                }
+            });
+        } catch (RuntimeException e) {  // rejected after close
+            reply.completeExceptionally(new RemoteException("Client transport closed", e));
+        }
+        return reply;
+    }
+
+    @FunctionalInterface
+    private interface RemoteCall {
+        ClientReply invoke() throws RemoteException;
+    }
+}
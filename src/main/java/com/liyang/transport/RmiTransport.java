@@ -0,0 +1,57 @@
+package com.liyang.transport;
+
+import com.liyang.paxosNode.PaxosNode;
+import com.liyang.server.PaxosMessage;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+
+/**
+ * Delivers messages by calling receiveMessage on the receiving node's RMI stub.
+ * Each call blocks a thread from a cached pool until the receiver has handled the message.
+ */
+public class RmiTransport implements Transport {
+    private final Function<String, PaxosNode> nodeResolver;
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "rmi-transport");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public RmiTransport(Function<String, PaxosNode> nodeResolver) {
+        this.nodeResolver = nodeResolver;
+    }
+
+    /**
+     * Nothing to start, RMI delivers incoming messages through the exported node itself.
+     */
+    @Override
+    public void start(MessageHandler handler) {
+    }
+
+    @Override
+    public CompletableFuture<Void> send(PaxosMessage message) {
+        PaxosNode toNode = nodeResolver.apply(message.getToNodeId());
+        if (toNode == null) {
+            return CompletableFuture.failedFuture(new RemoteException("Unknown node " + message.getToNodeId()));
+        }
+
+        return CompletableFuture.runAsync(() -> {
+            try {
+                toNode.receiveMessage(message);
+            } catch (RemoteException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,29 @@
+package com.liyang.transport;
+
+import com.liyang.server.PaxosMessage;
+
+import java.util.concurrent.CompletableFuture;
+
+
+/**
+ * Carries Paxos messages between nodes.
+ * Sending never blocks the caller: the returned future completes once the receiving node has handled the message,
+ * or fails with a RemoteException if it could not be delivered or the receiver failed handling it.
+ */
+public interface Transport {
+
+    /**
+     * Starts accepting messages addressed to this node and hands each of them to the handler.
+     */
+    void start(MessageHandler handler) throws Exception;
+
+    /**
+     * Delivers a message to the node named by its toNodeId.
+     */
+    CompletableFuture<Void> send(PaxosMessage message);
+
+    /**
+     * Stops accepting messages and releases connections and threads.
+     */
+    void close();
+}
@@ -0,0 +1,19 @@
+package com.liyang.transport;
+
+import com.liyang.common.ServerConfig;
+
+
+/**
+ * Selects the transport nodes use to exchange Paxos messages, and pipelining clients use to send requests.
+ * RMI makes one blocking remote call per message,
+ * VERTX multiplexes all messages to a peer over one persistent non-blocking TCP connection,
+ * and serves clients the same way on a separate port.
+ */
+public enum TransportType {
+    RMI,
+    VERTX;
+
+    public static TransportType fromEnv() {
+        return TransportType.valueOf(ServerConfig.getString("TRANSPORT", RMI.name()).toUpperCase());
+    }
+}
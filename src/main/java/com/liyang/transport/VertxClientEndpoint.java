@@ -0,0 +1,104 @@
+package com.liyang.transport;
+
+import com.liyang.common.ServerConfig;
+import com.liyang.paxosNode.PaxosNode;
+import com.liyang.server.ClientReply;
+import com.liyang.server.ServerLogger;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.net.NetServer;
+import io.vertx.core.net.NetServerOptions;
+import io.vertx.core.net.NetSocket;
+import io.vertx.core.net.SocketAddress;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Serves client requests to a node over Vert.x TCP connections, in the frames of {@link Frames}.
+ * A client keeps one connection and sends any number of requests over it without waiting,
+ * each answered by a REPLY or an ERROR frame with the request's correlation ID as soon as the node has handled it.
+ * <p>
+ * Request payloads: PUT a request ID and a key and value, GET a key,
+ * GET_AT a key, the applied-index token and the staleness bound, DELETE a request ID and a key.
+ * A REPLY carries the message, the applied-index token and the leader ID of the {@link ClientReply}.
+ */
+public class VertxClientEndpoint {
+    static final byte PUT = 0;
+    static final byte GET = 1;
+    static final byte GET_AT = 2;
+    static final byte DELETE = 3;
+    static final byte REPLY = 4;
+    static final byte ERROR = 5;
+
+    private final Vertx vertx;
+    private final PaxosNode node;
+    private final String nodeId;
+    private final SocketAddress address;
+    private final int maxFrameBytes = ServerConfig.getInt("TRANSPORT_MAX_FRAME_BYTES", 64 * 1024 * 1024);
+    // Requests wait on consensus rounds, so they run off the event loop
+    private final ExecutorService handlerExecutor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("vertx-client-handler-", 0).factory());
+    private NetServer server;
+
+    public VertxClientEndpoint(Vertx vertx, PaxosNode node, String nodeId, SocketAddress address) {
+        this.vertx = vertx;
+        this.node = node;
+        this.nodeId = nodeId;
+        this.address = address;
+    }
+
+    public void start() throws Exception {
+        server = vertx.createNetServer(new NetServerOptions().setTcpNoDelay(true))
+                .connectHandler(this::acceptConnection)
+                .listen(address.port(), address.host())
+                .toCompletionStage().toCompletableFuture()
+                .get(ServerConfig.getLong("TRANSPORT_REQUEST_TIME_OUT", 3000), TimeUnit.MILLISECONDS);
+    }
+
+    public void close() {
+        if (server != null) server.close();
+        handlerExecutor.shutdownNow();
+    }
+
+    private void acceptConnection(NetSocket socket) {
+        socket.handler(Frames.parser(socket, maxFrameBytes, frameLength -> ServerLogger.warn(nodeId,
+                "Client endpoint - Closing connection with {}: frame length {} out of bounds", socket.remoteAddress(), frameLength),
+                frame -> handlerExecutor.execute(() -> {
+                    long correlationId = Frames.correlationId(frame);
+                    Buffer answer;
+                    try {
+                        answer = Frames.frame(correlationId, REPLY, replyPayload(handle(frame)));
+                    } catch (Exception e) {
+                        answer = Frames.frame(correlationId, ERROR, Frames.errorPayload(e));
+                    }
+                    socket.write(answer);
+                })));
+    }
+
+    private ClientReply handle(Buffer frame) throws RemoteException {
+        Frames.Reader request = new Frames.Reader(frame);
+        return switch (Frames.frameType(frame)) {
+            case PUT -> node.handlePutRequest(request.getUuid(), request.getString(), request.getString());
+            case GET -> node.handleGetRequest(request.getString());
+            case GET_AT -> node.handleGetRequest(request.getString(), request.getLong(), request.getLong());
+            case DELETE -> node.handleDeleteRequest(request.getUuid(), request.getString());
+            default -> throw new RemoteException("Unknown client request type " + Frames.frameType(frame));
+        };
+    }
+
+    private static Buffer replyPayload(ClientReply reply) {
+        Buffer payload = Buffer.buffer();
+        Frames.appendString(payload, reply.getMessage());
+        payload.appendLong(reply.getAppliedIndex());
+        return Frames.appendString(payload, reply.getLeaderId());
+    }
+
+    static ClientReply readReply(Buffer frame) {
+        Frames.Reader reply = new Frames.Reader(frame);
+        return new ClientReply(reply.getString(), reply.getLong(), reply.getString());
+    }
+}
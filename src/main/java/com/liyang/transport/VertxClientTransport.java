@@ -0,0 +1,150 @@
+package com.liyang.transport;
+
+import com.liyang.common.ServerConfig;
+import com.liyang.server.ClientReply;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.net.NetClient;
+import io.vertx.core.net.NetClientOptions;
+import io.vertx.core.net.NetSocket;
+import io.vertx.core.net.SocketAddress;
+
+import java.rmi.RemoteException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Sends client requests to a node's {@link VertxClientEndpoint} over one persistent TCP connection.
+ * Every request gets a correlation ID and its future waits in a map until the reply carrying that ID arrives,
+ * so any number of requests are in flight on the one connection without a thread waiting on each.
+ * The connection is opened on first use and again after it breaks, which fails the requests still waiting on it.
+ */
+public class VertxClientTransport implements ClientTransport {
+    private final Vertx vertx = Vertx.vertx();
+    private final SocketAddress address;
+    private final NetClient client;
+    private final int maxFrameBytes = ServerConfig.getInt("TRANSPORT_MAX_FRAME_BYTES", 64 * 1024 * 1024);
+    private final AtomicLong nextCorrelationId = new AtomicLong();
+    private final Map<Long, CompletableFuture<ClientReply>> pending = new ConcurrentHashMap<>();
+    private Future<NetSocket> socket = null;
+    private volatile boolean closed = false;
+
+    public VertxClientTransport(SocketAddress address) {
+        this.address = address;
+        this.client = vertx.createNetClient(new NetClientOptions()
+                .setTcpNoDelay(true)
+                .setConnectTimeout(ServerConfig.getInt("TRANSPORT_REQUEST_TIME_OUT", 3000)));
+    }
+
+    /**
+     * The address of the client endpoint of a node: the host of its RMI address,
+     * and its RMI port plus CLIENT_PORT_OFFSET.
+     */
+    public static SocketAddress endpointAddress(String nodeRmiAddress) {
+        String[] addressParts = nodeRmiAddress.split(":");
+        String host = addressParts[1].replaceFirst("^//", "");
+        int port = Integer.parseInt(addressParts[2].split("/")[0]) + ServerConfig.getInt("CLIENT_PORT_OFFSET", 2000);
+        return SocketAddress.inetSocketAddress(port, host);
+    }
+
+    @Override
+    public CompletableFuture<ClientReply> put(UUID requestId, String key, String value) {
+        Buffer payload = Frames.appendUuid(Buffer.buffer(), requestId);
+        Frames.appendString(payload, key);
+        return request(VertxClientEndpoint.PUT, Frames.appendString(payload, value));
+    }
+
+    @Override
+    public CompletableFuture<ClientReply> get(String key) {
+        return request(VertxClientEndpoint.GET, Frames.appendString(Buffer.buffer(), key));
+    }
+
+    @Override
+    public CompletableFuture<ClientReply> get(String key, long appliedIndex, long maxStaleness) {
+        Buffer payload = Frames.appendString(Buffer.buffer(), key).appendLong(appliedIndex).appendLong(maxStaleness);
+        return request(VertxClientEndpoint.GET_AT, payload);
+    }
+
+    @Override
+    public CompletableFuture<ClientReply> delete(UUID requestId, String key) {
+        Buffer payload = Frames.appendUuid(Buffer.buffer(), requestId);
+        return request(VertxClientEndpoint.DELETE, Frames.appendString(payload, key));
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        failPending(new RemoteException("Client transport closed"));
+        vertx.close();
+    }
+
+    private CompletableFuture<ClientReply> request(byte requestType, Buffer payload) {
+        if (closed) return CompletableFuture.failedFuture(new RemoteException("Client transport closed"));
+        if (Frames.HEADER + payload.length() > maxFrameBytes) {
+            return CompletableFuture.failedFuture(new RemoteException("Request of " + payload.length() + " bytes is larger than TRANSPORT_MAX_FRAME_BYTES"));
+        }
+
+        long correlationId = nextCorrelationId.incrementAndGet();
+        CompletableFuture<ClientReply> reply = new CompletableFuture<>();
+        pending.put(correlationId, reply);
+        Buffer frame = Frames.frame(correlationId, requestType, payload);
+        connect().onComplete(connected -> {
+            if (connected.succeeded()) {
+                connected.result().write(frame);
+            } else {
+                fail(correlationId, new RemoteException("Cannot connect to " + address, connected.cause()));
+            }
+        });
+        return reply;
+    }
+
+    private synchronized Future<NetSocket> connect() {
+        if (socket == null) {
+            Future<NetSocket> connecting = client.connect(address);
+            connecting.onSuccess(connected -> {
+                connected.handler(Frames.parser(connected, maxFrameBytes, ignored -> { }, this::handleReply));
+                connected.closeHandler(ignored -> disconnected(connecting));
+            }).onFailure(ignored -> reset(connecting));
+            socket = connecting;
+        }
+        return socket;
+    }
+
+    private void handleReply(Buffer frame) {
+        CompletableFuture<ClientReply> reply = pending.remove(Frames.correlationId(frame));
+        if (reply == null) return;
+
+        if (Frames.frameType(frame) != VertxClientEndpoint.REPLY) {
+            reply.completeExceptionally(new RemoteException(Frames.errorMessage(frame)));
+            return;
+        }
+        try {
+            reply.complete(VertxClientEndpoint.readReply(frame));
+        } catch (IndexOutOfBoundsException e) {
+            reply.completeExceptionally(new RemoteException("Corrupt reply from " + address, e));
+        }
+    }
+
+    private void disconnected(Future<NetSocket> closedSocket) {
+        reset(closedSocket);
+        failPending(new RemoteException("Connection to " + address + " closed"));
+    }
+
+    private synchronized void reset(Future<NetSocket> closedSocket) {
+        if (socket == closedSocket) socket = null;
+    }
+
+    private void failPending(RemoteException error) {
+        for (Long correlationId : pending.keySet()) fail(correlationId, error);
+    }
+
+    private void fail(long correlationId, RemoteException error) {
+        CompletableFuture<ClientReply> reply = pending.remove(correlationId);
+        if (reply != null) reply.completeExceptionally(error);
+    }
+}
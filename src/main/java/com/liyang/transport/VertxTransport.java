@@ -0,0 +1,256 @@
+package com.liyang.transport;
+
+import com.liyang.common.ServerConfig;
+import com.liyang.server.PaxosMessage;
+import com.liyang.server.ServerLogger;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.buffer.impl.BufferImpl;
+import io.vertx.core.net.*;
+import io.vertx.core.parsetools.RecordParser;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.rmi.RemoteException;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Exchanges messages over persistent TCP connections driven by the Vert.x event loop.
+ * Each node keeps one outgoing connection per peer and multiplexes every in-flight message over it,
+ * so thousands of messages can be outstanding without a thread parked on each of them.
+ * <p>
+ * Messages travel in the frames of {@link Frames}. A REQUEST carries an encoded message,
+ * the receiver answers with an ACK once it has handled it, or with an ERROR carrying the failure message,
+ * so senders see the same outcome an RMI call would give.
+ * A frame longer than TRANSPORT_MAX_FRAME_BYTES, or too short to hold its header, closes the connection.
+ */
+public class VertxTransport implements Transport {
+    private static final byte REQUEST = 0;
+    private static final byte ACK = 1;
+    private static final byte ERROR = 2;
+    private static final int INITIAL_ENCODE_BUFFER = 16 * 1024;
+
+    private final Vertx vertx;
+    private final String nodeId;
+    private final Map<String, SocketAddress> addresses;
+    private final MessageCodec codec;
+    private final long requestTimeout = ServerConfig.getLong("TRANSPORT_REQUEST_TIME_OUT", 3000);
+    private final int maxFrameBytes = ServerConfig.getInt("TRANSPORT_MAX_FRAME_BYTES", 64 * 1024 * 1024);
+    private final Map<String, PeerConnection> connections = new ConcurrentHashMap<>();
+    private final AtomicLong nextCorrelationId = new AtomicLong();
+    // Frames are encoded into a per-thread buffer that grows when a message does not fit, then copied out once
+    private final ThreadLocal<ByteBuffer> encodeBuffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(INITIAL_ENCODE_BUFFER));
+    // Handlers may block on locks or on further sends, so they run off the event loop
+    private final ExecutorService handlerExecutor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("vertx-transport-handler-", 0).factory());
+    private MessageHandler handler;
+    private NetServer server;
+    private NetClient client;
+
+    /**
+     * @param addresses the transport address of every node in the cluster, this one included
+     */
+    public VertxTransport(Vertx vertx, String nodeId, Map<String, SocketAddress> addresses, MessageCodec codec) {
+        this.vertx = vertx;
+        this.nodeId = nodeId;
+        this.addresses = addresses;
+        this.codec = codec;
+    }
+
+    @Override
+    public void start(MessageHandler handler) throws Exception {
+        this.handler = handler;
+        client = vertx.createNetClient(new NetClientOptions()
+                .setTcpNoDelay(true)
+                .setConnectTimeout((int) requestTimeout));
+
+        SocketAddress address = addresses.get(nodeId);
+        server = vertx.createNetServer(new NetServerOptions().setTcpNoDelay(true))
+                .connectHandler(this::acceptConnection)
+                .listen(address.port(), address.host())
+                .toCompletionStage().toCompletableFuture()
+                .get(requestTimeout, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public CompletableFuture<Void> send(PaxosMessage message) {
+        String toNodeId = message.getToNodeId();
+        if (nodeId.equals(toNodeId)) return deliver(message);  // no need for a round trip through the socket
+
+        SocketAddress address = addresses.get(toNodeId);
+        if (address == null) {
+            return CompletableFuture.failedFuture(new RemoteException("Unknown node " + toNodeId));
+        }
+
+        long correlationId = nextCorrelationId.incrementAndGet();
+        Buffer frame;
+        try {
+            frame = requestFrame(correlationId, message);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(new RemoteException("Failed to encode message for node " + toNodeId, e));
+        }
+        return connections.computeIfAbsent(toNodeId, id -> new PeerConnection(id, address)).request(correlationId, frame);
+    }
+
+    @Override
+    public void close() {
+        if (server != null) server.close();
+        if (client != null) client.close();
+        handlerExecutor.shutdownNow();
+    }
+
+    /**
+     * Serves the requests a peer sends over an incoming connection.
+     */
+    private void acceptConnection(NetSocket socket) {
+        socket.handler(framer(socket, frame -> {
+            long correlationId = Frames.correlationId(frame);
+            PaxosMessage message;
+            try {
+                message = codec.decode(payload(frame));
+            } catch (IOException e) {
+                socket.write(Frames.frame(correlationId, ERROR, Frames.errorPayload(e)));
+                return;
+            }
+
+            deliver(message).whenComplete((ignored, error) -> socket.write(error == null
+                    ? Frames.frame(correlationId, ACK, Buffer.buffer(0))
+                    : Frames.frame(correlationId, ERROR, Frames.errorPayload(error))));
+        }));
+    }
+
+    private CompletableFuture<Void> deliver(PaxosMessage message) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                handler.handle(message);
+            } catch (RemoteException e) {
+                throw new CompletionException(e);
+            }
+        }, handlerExecutor);
+    }
+
+    /**
+     * Splits the byte stream of a connection into frames, closing the connection at the first length out of bounds.
+     */
+    private RecordParser framer(NetSocket socket, Handler<Buffer> frameHandler) {
+        return Frames.parser(socket, maxFrameBytes, frameLength -> ServerLogger.warn(nodeId,
+                "Transport - Closing connection with {}: frame length {} out of bounds", socket.remoteAddress(), frameLength), frameHandler);
+    }
+
+    /**
+     * A view of the payload of a frame, sharing the bytes of the Netty buffer Vert.x received it in.
+     * Only a buffer of another implementation is copied.
+     */
+    private static ByteBuffer payload(Buffer frame) {
+        if (frame instanceof BufferImpl received) {
+            return received.byteBuf().nioBuffer(Frames.HEADER, frame.length() - Frames.HEADER);
+        }
+        return ByteBuffer.wrap(frame.getBytes(Frames.HEADER, frame.length()));
+    }
+
+    /**
+     * Encodes a REQUEST frame, message included, into this thread's reusable buffer.
+     */
+    private Buffer requestFrame(long correlationId, PaxosMessage message) throws IOException {
+        ByteBuffer buffer = encodeBuffers.get();
+        while (true) {
+            buffer.clear().position(Frames.LENGTH_PREFIX + Frames.HEADER);
+            try {
+                codec.encode(message, buffer);
+                break;
+            } catch (BufferOverflowException e) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                encodeBuffers.set(buffer);
+            }
+        }
+
+        int frameLength = buffer.position();
+        if (frameLength - Frames.LENGTH_PREFIX > maxFrameBytes) {
+            throw new IOException("Message of " + frameLength + " bytes is larger than TRANSPORT_MAX_FRAME_BYTES");
+        }
+        buffer.putInt(0, frameLength - Frames.LENGTH_PREFIX)
+                .putLong(Frames.LENGTH_PREFIX, correlationId)
+                .put(Frames.LENGTH_PREFIX + Long.BYTES, REQUEST);
+        return Buffer.buffer(frameLength).appendBytes(buffer.array(), 0, frameLength);
+    }
+
+
+    /**
+     * The outgoing connection to one peer and the requests waiting for its answer.
+     * The connection is opened on first use and again after it breaks.
+     */
+    private class PeerConnection {
+        private final String peerId;
+        private final SocketAddress address;
+        private final Map<Long, CompletableFuture<Void>> pending = new ConcurrentHashMap<>();
+        private Future<NetSocket> socket = null;
+
+        PeerConnection(String peerId, SocketAddress address) {
+            this.peerId = peerId;
+            this.address = address;
+        }
+
+        CompletableFuture<Void> request(long correlationId, Buffer frame) {
+            CompletableFuture<Void> response = new CompletableFuture<>();
+            pending.put(correlationId, response);
+
+            long timerId = vertx.setTimer(requestTimeout,
+                    id -> fail(correlationId, new RemoteException("Timed out waiting for node " + peerId)));
+            response.whenComplete((ignored, error) -> vertx.cancelTimer(timerId));
+
+            connect().onComplete(connected -> {
+                if (connected.succeeded()) {
+                    connected.result().write(frame);
+                } else {
+                    fail(correlationId, new RemoteException("Cannot connect to node " + peerId, connected.cause()));
+                }
+            });
+            return response;
+        }
+
+        private synchronized Future<NetSocket> connect() {
+            if (socket == null) {
+                Future<NetSocket> connecting = client.connect(address);
+                connecting.onSuccess(connected -> {
+                    connected.handler(framer(connected, this::handleResponse));
+                    connected.closeHandler(ignored -> disconnected(connecting));
+                }).onFailure(ignored -> reset(connecting));
+                socket = connecting;
+            }
+            return socket;
+        }
+
+        private void handleResponse(Buffer frame) {
+            CompletableFuture<Void> response = pending.remove(Frames.correlationId(frame));
+            if (response == null) return;  // already timed out
+
+            if (Frames.frameType(frame) == ACK) {
+                response.complete(null);
+            } else {
+                response.completeExceptionally(new RemoteException(Frames.errorMessage(frame)));
+            }
+        }
+
+        private void disconnected(Future<NetSocket> closed) {
+            reset(closed);
+            for (Long correlationId : pending.keySet()) {
+                fail(correlationId, new RemoteException("Connection to node " + peerId + " closed"));
+            }
+        }
+
+        private synchronized void reset(Future<NetSocket> closed) {
+            if (socket == closed) socket = null;
+        }
+
+        private void fail(long correlationId, RemoteException error) {
+            CompletableFuture<Void> response = pending.remove(correlationId);
+            if (response != null) response.completeExceptionally(error);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.liyang.transport;
+
+import com.liyang.server.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * Round-trips messages through the binary codec and checks every field comes back unchanged.
+ */
+class BinaryMessageCodecTest {
+    private final BinaryMessageCodec codec = new BinaryMessageCodec(List.of("node3", "node1", "node2"));
+
+    private PaxosMessage roundTrip(PaxosMessage message) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        codec.encode(message, buffer);
+        buffer.flip();
+        PaxosMessage decoded = codec.decode(buffer);
+        assertFalse(buffer.hasRemaining(), "decoding should consume the whole message");
+        return decoded;
+    }
+
+    @ParameterizedTest
+    @EnumSource(PaxosMessageType.class)
+    void roundTripsEveryMessageType(PaxosMessageType type) throws IOException {
+        PaxosMessage message = new PaxosMessage(42, type, new ProposalNumber(7, "node2"), "node1", "node3",
+                new Operation(UUID.randomUUID(), OperationType.PUT, "key", "value"),
+                List.of(new AcceptedInstance(41, new ProposalNumber(6, "node3"), Operation.noop())), 3);
+
+        assertMessageEquals(message, roundTrip(message));
+    }
+
+    @Test
+    void roundTripsBatches() throws IOException {
+        Operation batch = Operation.batch(List.of(
+                new Operation(UUID.randomUUID(), OperationType.PUT, "a", "1"),
+                new Operation(UUID.randomUUID(), OperationType.DELETE, "b", null),
+                Operation.batch(List.of(new Operation(UUID.randomUUID(), OperationType.PUT, "c", "3"))),
+                Operation.batch(List.of())));
+        PaxosMessage message = new PaxosMessage(5, PaxosMessageType.ACCEPT, new ProposalNumber(1, "node1"), "node1", null, batch,
+                List.of(new AcceptedInstance(4, new ProposalNumber(1, "node1"), batch)), 0);
+
+        assertMessageEquals(message, roundTrip(message));
+    }
+
+    @Test
+    void roundTripsAbsentFields() throws IOException {
+        PaxosMessage message = new PaxosMessage(0, PaxosMessageType.HEARTBEAT, null, "node1", null, null);
+        assertMessageEquals(message, roundTrip(message));
+
+        PaxosMessage nullKeyAndValue = new PaxosMessage(1, PaxosMessageType.DECIDED, null, "node2", "node1",
+                new Operation(UUID.randomUUID(), OperationType.NOOP, null, null));
+        assertMessageEquals(nullKeyAndValue, roundTrip(nullKeyAndValue));
+    }
+
+    @Test
+    void roundTripsNonAsciiStrings() throws IOException {
+        PaxosMessage message = new PaxosMessage(9, PaxosMessageType.ACCEPT, new ProposalNumber(2, "node3"), "node3", "node2",
+                new Operation(UUID.randomUUID(), OperationType.PUT, "clé-ключ-键", "värde 🚀 値"));
+
+        assertMessageEquals(message, roundTrip(message));
+    }
+
+    @Test
+    void roundTripsEmptyStrings() throws IOException {
+        PaxosMessage message = new PaxosMessage(9, PaxosMessageType.ACCEPT, null, "node3", "node2",
+                new Operation(UUID.randomUUID(), OperationType.PUT, "", ""));
+
+        assertMessageEquals(message, roundTrip(message));
+    }
+
+    @Test
+    void writesVersionFirstAndRejectsOtherVersions() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        codec.encode(new PaxosMessage(1, PaxosMessageType.PROGRESS, null, "node1", "node2", null), buffer);
+        buffer.flip();
+        assertEquals(2, buffer.get(0));
+
+        buffer.put(0, (byte) 1);
+        IOException error = assertThrows(IOException.class, () -> codec.decode(buffer));
+        assertTrue(error.getMessage().contains("version"));
+    }
+
+    @Test
+    void rejectsTruncatedMessages() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        codec.encode(new PaxosMessage(1, PaxosMessageType.ACCEPT, new ProposalNumber(1, "node1"), "node1", "node2",
+                new Operation(UUID.randomUUID(), OperationType.PUT, "key", "value")), buffer);
+        buffer.flip();
+        buffer.limit(buffer.limit() - 3);
+
+        assertThrows(IOException.class, () -> codec.decode(buffer));
+    }
+
+    @Test
+    void rejectsCountsLargerThanTheMessage() throws IOException {
+        ByteBuffer instances = ByteBuffer.allocate(1024);
+        codec.encode(new PaxosMessage(1, PaxosMessageType.COMMIT, new ProposalNumber(1, "node1"), "node1", "node2", null), instances);
+        instances.flip();
+        instances.putInt(instances.limit() - Integer.BYTES, Integer.MAX_VALUE);
+        assertThrows(IOException.class, () -> codec.decode(instances));
+
+        ByteBuffer batch = ByteBuffer.allocate(1024);
+        codec.encode(new PaxosMessage(1, PaxosMessageType.ACCEPT, new ProposalNumber(1, "node1"), "node1", "node2",
+                Operation.batch(List.of())), batch);
+        batch.flip();
+        batch.putInt(batch.limit() - 2 * Integer.BYTES, Integer.MAX_VALUE);
+        assertThrows(IOException.class, () -> codec.decode(batch));
+    }
+
+    @Test
+    void rejectsNodesOutsideTheMembership() {
+        PaxosMessage message = new PaxosMessage(1, PaxosMessageType.PREPARE, null, "node9", null, null);
+        assertThrows(IOException.class, () -> codec.encode(message, ByteBuffer.allocate(1024)));
+    }
+
+    private static void assertMessageEquals(PaxosMessage expected, PaxosMessage actual) {
+        assertEquals(expected.getSlot(), actual.getSlot());
+        assertEquals(expected.getMessageType(), actual.getMessageType());
+        assertProposalNumberEquals(expected.getProposalNumber(), actual.getProposalNumber());
+        assertEquals(expected.getFromNodeId(), actual.getFromNodeId());
+        assertEquals(expected.getToNodeId(), actual.getToNodeId());
+        assertOperationEquals(expected.getOperation(), actual.getOperation());
+        assertEquals(expected.getGroup(), actual.getGroup());
+        assertEquals(expected.getAcceptedInstances().size(), actual.getAcceptedInstances().size());
+        for (int i = 0; i < expected.getAcceptedInstances().size(); i++) {
+            AcceptedInstance expectedInstance = expected.getAcceptedInstances().get(i);
+            AcceptedInstance actualInstance = actual.getAcceptedInstances().get(i);
+            assertEquals(expectedInstance.getSlot(), actualInstance.getSlot());
+            assertProposalNumberEquals(expectedInstance.getAcceptedProposalNumber(), actualInstance.getAcceptedProposalNumber());
+            assertOperationEquals(expectedInstance.getOperation(), actualInstance.getOperation());
+        }
+    }
+
+    private static void assertProposalNumberEquals(ProposalNumber expected, ProposalNumber actual) {
+        if (expected == null) {
+            assertNull(actual);
+            return;
+        }
+        assertNotNull(actual);
+        assertEquals(expected.getSequenceNumber(), actual.getSequenceNumber());
+        assertEquals(expected.getNodeId(), actual.getNodeId());
+    }
+
+    private static void assertOperationEquals(Operation expected, Operation actual) {
+        if (expected == null) {
+            assertNull(actual);
+            return;
+        }
+        assertNotNull(actual);
+        assertEquals(expected.getProposalId(), actual.getProposalId());
+        assertEquals(expected.getOperationType(), actual.getOperationType());
+        assertEquals(expected.getKey(), actual.getKey());
+        assertEquals(expected.getValue(), actual.getValue());
+        assertEquals(expected.getBatch().size(), actual.getBatch().size());
+        for (int i = 0; i < expected.getBatch().size(); i++) {
+            assertOperationEquals(expected.getBatch().get(i), actual.getBatch().get(i));
+        }
+    }
+}